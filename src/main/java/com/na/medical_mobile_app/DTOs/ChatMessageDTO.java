@@ -1,5 +1,8 @@
 package com.na.medical_mobile_app.DTOs;
 
+import com.na.medical_mobile_app.entities.MessageType;
+import com.na.medical_mobile_app.entities.Role;
+
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -18,6 +21,29 @@ public class ChatMessageDTO {
     private String filePath;
     private Integer replyToId;
     private List<Integer> attachmentIds;
+    private Long durationMs;
+
+    public ChatMessageDTO() {}
+
+    // Used by the constructor expressions of CommunicationRepository, one row per message without loading entities
+    public ChatMessageDTO(Integer messageId, Integer formId, Integer senderId, String senderName, Role senderRole,
+                          Integer receiverId, String receiverName, String message, LocalDateTime timestamp,
+                          Boolean isRead, MessageType messageType, String filePath, Integer replyToId, Long durationMs) {
+        this.messageId = messageId;
+        this.formId = formId;
+        this.senderId = senderId;
+        this.senderName = senderName;
+        this.senderRole = senderRole != null ? senderRole.toString() : null;
+        this.receiverId = receiverId;
+        this.receiverName = receiverName;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.isRead = isRead;
+        this.messageType = messageType != null ? messageType.toString() : null;
+        this.filePath = filePath;
+        this.replyToId = replyToId;
+        this.durationMs = durationMs;
+    }
     
     // Getters and Setters
     public Integer getMessageId() {
@@ -131,4 +157,12 @@ public class ChatMessageDTO {
     public void setAttachmentIds(List<Integer> attachmentIds) {
         this.attachmentIds = attachmentIds;
     }
-}
\ No newline at end of file
+
+    public Long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(Long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
@@ -0,0 +1,45 @@
+package com.na.medical_mobile_app.DTOs;
+
+import com.na.medical_mobile_app.entities.FormStatus;
+import com.na.medical_mobile_app.entities.MessageType;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// One line of the chat inbox : a form the user talks in, its latest message and what is still unread there
+@Setter
+@Getter
+public class ConversationDTO {
+    private Integer formId;
+    private String patientName;
+    private String formStatus;
+
+    // Latest message of the form, its content cut to a preview
+    private Integer lastMessageId;
+    private String lastMessage;
+    private String lastMessageType;
+    private Integer lastSenderId;
+    private String lastSenderName;
+    private LocalDateTime lastMessageAt;
+
+    private Integer unreadCount;
+
+    public ConversationDTO() {}
+
+    // Used by the constructor expression of CommunicationRepository.findConversations
+    public ConversationDTO(Integer formId, String patientName, FormStatus formStatus, Integer lastMessageId,
+                           String lastMessage, MessageType lastMessageType, Integer lastSenderId,
+                           String lastSenderName, LocalDateTime lastMessageAt, Long unreadCount) {
+        this.formId = formId;
+        this.patientName = patientName;
+        this.formStatus = formStatus != null ? formStatus.toString() : null;
+        this.lastMessageId = lastMessageId;
+        this.lastMessage = lastMessage;
+        this.lastMessageType = lastMessageType != null ? lastMessageType.toString() : null;
+        this.lastSenderId = lastSenderId;
+        this.lastSenderName = lastSenderName;
+        this.lastMessageAt = lastMessageAt;
+        this.unreadCount = unreadCount != null ? unreadCount.intValue() : 0;
+    }
+}
@@ -0,0 +1,39 @@
+package com.na.medical_mobile_app.DTOs;
+
+import com.na.medical_mobile_app.entities.NotificationType;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+// A notification without its user, as pushed on /api/notifications/stream
+@Setter
+@Getter
+public class NotificationDTO {
+    private Integer notificationId;
+    private String title;
+    private String message;
+    private String notificationType;
+    private Integer relatedId;
+    private String relatedType;
+    private Boolean isRead;
+    private LocalDateTime createdAt;
+    private Integer eventCount;
+
+    public NotificationDTO() {}
+
+    // Used by the constructor expressions of NotificationRepository
+    public NotificationDTO(Integer notificationId, String title, String message, NotificationType notificationType,
+                           Integer relatedId, String relatedType, Boolean isRead, LocalDateTime createdAt,
+                           Integer eventCount) {
+        this.notificationId = notificationId;
+        this.title = title;
+        this.message = message;
+        this.notificationType = notificationType != null ? notificationType.toString() : null;
+        this.relatedId = relatedId;
+        this.relatedType = relatedType;
+        this.isRead = isRead;
+        this.createdAt = createdAt;
+        this.eventCount = eventCount != null ? eventCount : 1;
+    }
+}
@@ -0,0 +1,38 @@
+package com.na.medical_mobile_app.DTOs;
+
+import com.na.medical_mobile_app.entities.EncryptionFormat;
+import com.na.medical_mobile_app.utils.Mp4FastStart;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * An attachment that has already been encrypted to disk but is not yet
+ * linked to a FileAttachment row. Produced by the upload stage of a form
+ * submission, consumed by the database stage, and deleted again if that
+ * stage fails. Files coming from a resumable upload carry their uploadId
+ * and are kept on failure so the client can submit again. Files stored in the
+ * content store carry their contentHash and are shared, so they are never
+ * deleted here: an unreferenced blob is left to the garbage collector.
+ * Format and key are read from the stored file's header while staging,
+ * so the database stage does no storage I/O.
+ */
+@Setter
+@Getter
+public class StagedAttachment {
+    private String originalFileName;
+    private String storedFileName;
+    private String mimeType;
+    private Long fileSize;
+    private String uploadId;
+    private String contentHash;
+    private Mp4FastStart.MediaInfo mediaInfo;
+    private EncryptionFormat encryptionFormat;
+    private String keyId;
+
+    public StagedAttachment(String originalFileName, String storedFileName, String mimeType, Long fileSize) {
+        this.originalFileName = originalFileName;
+        this.storedFileName = storedFileName;
+        this.mimeType = mimeType;
+        this.fileSize = fileSize;
+    }
+}
@@ -0,0 +1,68 @@
+package com.na.medical_mobile_app.config;
+
+import com.na.medical_mobile_app.storage.BlobStore;
+import com.na.medical_mobile_app.storage.LocalBlobStore;
+import com.na.medical_mobile_app.storage.S3BlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Paths;
+
+/**
+ * One blob store per kind of file. With storage.type=local each gets its own directory, with
+ * storage.type=s3 they share one bucket under different prefixes, so any app instance can serve any file.
+ */
+@Configuration
+public class BlobStoreConfig {
+
+    @Value("${storage.type:local}")
+    private String storageType;
+
+    @Value("${storage.s3.endpoint:}")
+    private String s3Endpoint;
+
+    @Value("${storage.s3.region:us-east-1}")
+    private String s3Region;
+
+    @Value("${storage.s3.bucket:}")
+    private String s3Bucket;
+
+    @Value("${storage.s3.access-key:}")
+    private String s3AccessKey;
+
+    @Value("${storage.s3.secret-key:}")
+    private String s3SecretKey;
+
+    @Value("${storage.s3.path-style:true}")
+    private boolean s3PathStyle;
+
+    @Bean
+    public BlobStore attachmentBlobStore(@Value("${storage.local.attachments-directory:encrypted-uploads}") String directory) {
+        return create(directory, "attachments");
+    }
+
+    @Bean
+    public BlobStore audioBlobStore(@Value("${storage.local.audio-directory:audio-messages}") String directory) {
+        return create(directory, "audio");
+    }
+
+    @Bean
+    public BlobStore pdfBlobStore(@Value("${pdf.storage.directory:./pdf-storage}") String directory) {
+        return create(directory, "pdfs");
+    }
+
+    private BlobStore create(String localDirectory, String s3Prefix) {
+        if ("s3".equalsIgnoreCase(storageType)) {
+            if (s3Endpoint.isEmpty() || s3Bucket.isEmpty()) {
+                throw new IllegalStateException("storage.type=s3 needs storage.s3.endpoint and storage.s3.bucket");
+            }
+            System.out.println("✅ Blob store '" + s3Prefix + "' : " + s3Endpoint + "/" + s3Bucket + "/" + s3Prefix);
+            return new S3BlobStore(s3Endpoint, s3Region, s3Bucket, s3Prefix, s3AccessKey, s3SecretKey, s3PathStyle);
+        }
+        if (!"local".equalsIgnoreCase(storageType)) {
+            throw new IllegalStateException("Unknown storage.type: " + storageType + " (local or s3)");
+        }
+        return new LocalBlobStore(Paths.get(localDirectory));
+    }
+}
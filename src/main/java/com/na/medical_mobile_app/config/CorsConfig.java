@@ -32,7 +32,12 @@ public class CorsConfig {
             "Accept",
             "X-Requested-With",
             "Access-Control-Request-Method",
-            "Access-Control-Request-Headers"
+            "Access-Control-Request-Headers",
+            "Tus-Resumable",
+            "Upload-Length",
+            "Upload-Offset",
+            "Upload-Metadata",
+            "Range"
         ));
         
         // Explicitly expose the allowed headers to the frontend
@@ -40,11 +45,18 @@ public class CorsConfig {
             "Authorization",
             "Content-Type",
             "userid",
-            "userId"
+            "userId",
+            "Location",
+            "Tus-Resumable",
+            "Upload-Length",
+            "Upload-Offset",
+            "Accept-Ranges",
+            "Content-Range",
+            "Content-Length"
         ));
         
         // Allow all methods
-        config.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"));
+        config.setAllowedMethods(Arrays.asList("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "HEAD"));
         
         // Allow credentials
         config.setAllowCredentials(true);
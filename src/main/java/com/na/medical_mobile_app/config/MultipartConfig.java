@@ -1,16 +1,42 @@
 package com.na.medical_mobile_app.config;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.multipart.MultipartResolver;
 import org.springframework.web.multipart.support.StandardServletMultipartResolver;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.Set;
+
 @Configuration
 public class MultipartConfig implements WebMvcConfigurer {
-    
+
+    /**
+     * Endpoints that read the multipart body themselves (see MultipartStreamParser).
+     * The container must not parse these requests, otherwise every part is spooled to a temp file first.
+     */
+    public static final Set<String> STREAMING_PATHS = Set.of("/api/medical-forms/submit-stream");
+
+    /** Request attribute set on streaming requests, so nothing calls getParameter() and triggers part parsing. */
+    public static final String STREAMING_REQUEST_ATTRIBUTE = MultipartConfig.class.getName() + ".STREAMING";
+
     @Bean
     public MultipartResolver multipartResolver() {
-        return new StandardServletMultipartResolver();
+        return new StandardServletMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                if (isStreamingRequest(request)) {
+                    request.setAttribute(STREAMING_REQUEST_ATTRIBUTE, Boolean.TRUE);
+                    return false;
+                }
+                return super.isMultipart(request);
+            }
+        };
+    }
+
+    public static boolean isStreamingRequest(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return STREAMING_PATHS.contains(path);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,80 @@
+package com.na.medical_mobile_app.config;
+
+import com.na.medical_mobile_app.entities.User;
+import com.na.medical_mobile_app.repositories.UserRepository;
+import com.na.medical_mobile_app.services.FormResponseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Identifies the STOMP session from the "userId" header of the CONNECT frame, like the REST endpoints do,
+ * and only lets a user subscribe to the chat of a form they can access.
+ */
+@Component
+public class StompAuthInterceptor implements ChannelInterceptor {
+
+    private static final String USER_ID_ATTRIBUTE = "userId";
+    private static final Pattern FORM_TOPIC = Pattern.compile("^/topic/forms/(\\d+)/.+$");
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FormResponseService formResponseService;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+        Map<String, Object> session = accessor.getSessionAttributes();
+
+        if (accessor.getCommand() == StompCommand.CONNECT) {
+            String userId = accessor.getFirstNativeHeader(USER_ID_ATTRIBUTE);
+            User user = findUser(userId, message);
+            session.put(USER_ID_ATTRIBUTE, user.getUserId());
+            String name = String.valueOf(user.getUserId());
+            accessor.setUser(() -> name);
+        } else if (accessor.getCommand() == StompCommand.SUBSCRIBE) {
+            Integer userId = session != null ? (Integer) session.get(USER_ID_ATTRIBUTE) : null;
+            if (userId == null) {
+                throw new MessagingException(message, "Not connected");
+            }
+            String destination = accessor.getDestination();
+            Matcher matcher = destination != null ? FORM_TOPIC.matcher(destination) : null;
+            if (matcher == null || !matcher.matches()) {
+                throw new MessagingException(message, "Unknown destination " + destination);
+            }
+            User user = findUser(String.valueOf(userId), message);
+            if (!formResponseService.canAccessForm(user, Integer.valueOf(matcher.group(1)))) {
+                System.err.println("❌ User " + userId + " denied subscription to " + destination);
+                throw new MessagingException(message, "Access denied to " + destination);
+            }
+        }
+        return message;
+    }
+
+    private User findUser(String userId, Message<?> message) {
+        if (userId == null || userId.isEmpty()) {
+            throw new MessagingException(message, "Missing userId header");
+        }
+        try {
+            return userRepository.findById(Integer.parseInt(userId))
+                    .orElseThrow(() -> new MessagingException(message, "User not found with ID: " + userId));
+        } catch (NumberFormatException e) {
+            throw new MessagingException(message, "Invalid user ID format");
+        }
+    }
+}
@@ -15,8 +15,11 @@ public class WebConfig implements WebMvcConfigurer {
                     "http://localhost:3000", 
                     "http://localhost:19006"
                 )
-                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
-                .allowedHeaders("Authorization", "Content-Type", "userid", "userId")
+                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "HEAD")
+                .allowedHeaders("Authorization", "Content-Type", "userid", "userId",
+                        "Tus-Resumable", "Upload-Length", "Upload-Offset", "Upload-Metadata", "Range")
+                .exposedHeaders("Location", "Tus-Resumable", "Upload-Length", "Upload-Offset",
+                        "Accept-Ranges", "Content-Range", "Content-Length")
                 .allowCredentials(true)
                 .maxAge(3600);
     }
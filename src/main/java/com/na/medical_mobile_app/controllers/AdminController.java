@@ -1,12 +1,18 @@
 package com.na.medical_mobile_app.controllers;
 
 import com.na.medical_mobile_app.DTOs.DoctorCreationRequest;
+import com.na.medical_mobile_app.entities.Role;
+import com.na.medical_mobile_app.security.KeyRing;
 import com.na.medical_mobile_app.services.AdminService;
+import com.na.medical_mobile_app.services.AttachmentCache;
+import com.na.medical_mobile_app.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api/admin")
 public class AdminController {
@@ -14,6 +20,15 @@ public class AdminController {
     @Autowired
     private AdminService adminService;
 
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private KeyRing keyRing;
+
+    @Autowired
+    private AttachmentCache attachmentCache;
+
     @PostMapping(value = "/create-doctor", 
                 consumes = MediaType.APPLICATION_JSON_VALUE,
                 produces = MediaType.APPLICATION_JSON_VALUE)
@@ -49,4 +64,64 @@ public class AdminController {
             return ResponseEntity.badRequest().body("Error rejecting request: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Deactivates an account, its tokens stop being accepted.
+     */
+    @PostMapping(value = "/users/{id}/deactivate", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> deactivateUser(@PathVariable Integer id) {
+        if (!isAdmin()) {
+            return ResponseEntity.status(403).body(Map.of("error", "Admin access required"));
+        }
+        try {
+            return adminService.deactivateUser(id);
+        } catch (Exception e) {
+            System.out.println("❌ Error deactivating user: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().body("Error deactivating user: " + e.getMessage());
+        }
+    }
+
+    //-----------------------------------Encryption keys-----------------------------------------------------------
+    @GetMapping(value = "/encryption-keys", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getEncryptionKeys() {
+        if (!isAdmin()) {
+            return ResponseEntity.status(403).body(Map.of("error", "Admin access required"));
+        }
+        return ResponseEntity.ok(Map.of("activeKeyId", keyRing.getActiveKeyId(), "keyIds", keyRing.getKeyIds()));
+    }
+
+    /**
+     * Makes a new key active for files written from now on; existing files keep being read with their own key.
+     */
+    @PostMapping(value = "/encryption-keys/rotate", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> rotateEncryptionKey() {
+        if (!isAdmin()) {
+            return ResponseEntity.status(403).body(Map.of("error", "Admin access required"));
+        }
+        try {
+            return ResponseEntity.ok(Map.of("activeKeyId", keyRing.rotate()));
+        } catch (Exception e) {
+            System.out.println("❌ Error rotating encryption key: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().body(Map.of("error", "Error rotating key: " + e.getMessage()));
+        }
+    }
+
+    //-----------------------------------Attachment cache----------------------------------------------------------
+    @GetMapping(value = "/attachment-cache", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getAttachmentCacheStats() {
+        if (!isAdmin()) {
+            return ResponseEntity.status(403).body(Map.of("error", "Admin access required"));
+        }
+        return ResponseEntity.ok(attachmentCache.getStats());
+    }
+
+    private boolean isAdmin() {
+        try {
+            return userService.getLoggedInUser().getRole() == Role.ADMIN;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
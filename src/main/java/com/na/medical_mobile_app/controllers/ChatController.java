@@ -1,13 +1,20 @@
 package com.na.medical_mobile_app.controllers;
 
 import com.na.medical_mobile_app.DTOs.ChatMessageDTO;
+import com.na.medical_mobile_app.DTOs.ConversationDTO;
 import com.na.medical_mobile_app.entities.User;
+import com.na.medical_mobile_app.services.ChatPushService;
 import com.na.medical_mobile_app.services.CommunicationService;
+import com.na.medical_mobile_app.services.FormResponseService;
 import com.na.medical_mobile_app.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -22,6 +29,12 @@ public class ChatController {
     
     @Autowired
     private UserService userService;
+
+    @Autowired
+    private ChatPushService chatPushService;
+
+    @Autowired
+    private FormResponseService formResponseService;
     
     /**
      * Send a new message
@@ -71,11 +84,16 @@ public class ChatController {
     }
     
     /**
-     * Get all messages for a form
+     * Get the messages of a form, oldest first. With limit, beforeId or afterId one keyset page is returned :
+     * the latest messages, the ones older than beforeId, or the ones newer than afterId (new messages since
+     * the last one the client has). Without any of them the whole history is returned, as older clients expect.
      */
     @GetMapping("/messages/{formId}")
     public ResponseEntity<List<ChatMessageDTO>> getMessagesForForm(
             @PathVariable Integer formId,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "beforeId", required = false) Integer beforeId,
+            @RequestParam(value = "afterId", required = false) Integer afterId,
             @RequestParam(value = "userId", required = false) Integer userId,
             @RequestHeader(value = "userId", required = false) String userIdHeader
     ) {
@@ -87,15 +105,87 @@ public class ChatController {
             communicationService.markMessagesAsRead(formId, currentUser.getUserId());
             
             // Get messages
-            List<ChatMessageDTO> messages = communicationService.getMessagesForForm(formId);
+            List<ChatMessageDTO> messages = limit == null && beforeId == null && afterId == null
+                    ? communicationService.getMessagesForForm(formId)
+                    : communicationService.getMessagesForForm(formId, beforeId, afterId, limit);
             
             return ResponseEntity.ok(messages);
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Failed to get messages: " + e.getMessage());
         }
     }
     
+    /**
+     * The current user's conversations, latest activity first : per form the last message and the unread count,
+     * in one query. Next page with beforeMessageId = lastMessageId of the last conversation received.
+     */
+    @GetMapping("/conversations")
+    public ResponseEntity<List<ConversationDTO>> getConversations(
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "beforeMessageId", required = false) Integer beforeMessageId,
+            @RequestParam(value = "userId", required = false) Integer userId,
+            @RequestHeader(value = "userId", required = false) String userIdHeader
+    ) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            return ResponseEntity.ok(communicationService.getConversations(currentUser.getUserId(), beforeMessageId, limit));
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to get conversations: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Mark the messages received in a form as read without reloading them, e.g. when a pushed message is displayed.
+     * The sender gets a read receipt on /topic/forms/{formId}/receipts
+     */
+    @PostMapping("/read/{formId}")
+    public ResponseEntity<Map<String, Integer>> markMessagesAsRead(
+            @PathVariable Integer formId,
+            @RequestParam(value = "userId", required = false) Integer userId,
+            @RequestHeader(value = "userId", required = false) String userIdHeader
+    ) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            int count = communicationService.markMessagesAsRead(formId, currentUser.getUserId());
+            return ResponseEntity.ok(Map.of("count", count));
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to mark messages as read: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Server-Sent Events fallback for clients that cannot keep a WebSocket open :
+     * new messages of the form arrive as "message" events, same payload as /topic/forms/{formId}/messages
+     */
+    @GetMapping(value = "/stream/{formId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamMessagesForForm(
+            @PathVariable Integer formId,
+            @RequestParam(value = "userId", required = false) Integer userId,
+            @RequestHeader(value = "userId", required = false) String userIdHeader
+    ) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            if (!formResponseService.canAccessForm(currentUser, formId)) {
+                return ResponseEntity.status(403).build();
+            }
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                    // Stops nginx style proxies from buffering the stream
+                    .header("X-Accel-Buffering", "no")
+                    .body(chatPushService.subscribe(formId));
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to open message stream: " + e.getMessage());
+        }
+    }
+    
     /**
      * Count unread messages for a form
      */
@@ -150,16 +240,12 @@ public class ChatController {
      * Get audio file for a voice message
      */
     @GetMapping("/audio/{messageId}")
-    public ResponseEntity<org.springframework.core.io.Resource> getAudioFile(
+    public ResponseEntity<?> getAudioFile(
             @PathVariable Integer messageId,
             @RequestParam(value = "userId", required = false) Integer userId,
-            @RequestHeader(value = "userId", required = false) String userIdHeader
+            @RequestHeader(value = "userId", required = false) String userIdHeader,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader
     ) {
-        try {
-            return communicationService.getAudioFile(messageId);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to get audio file: " + e.getMessage());
-        }
+        return communicationService.getAudioFile(messageId, rangeHeader);
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.na.medical_mobile_app.controllers;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -7,14 +8,17 @@ import com.na.medical_mobile_app.DTOs.MedicalFormRequest;
 import com.na.medical_mobile_app.entities.FormResponse;
 import com.na.medical_mobile_app.entities.MedicalForm;
 import com.na.medical_mobile_app.entities.User;
+import com.na.medical_mobile_app.services.AttachmentService;
 import com.na.medical_mobile_app.services.FormResponseService;
 import com.na.medical_mobile_app.services.MedicalFormService;
 import com.na.medical_mobile_app.services.UserService;
 import com.na.medical_mobile_app.utils.MedicalFormMapper;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.HashMap;
 import java.util.List;
@@ -35,16 +39,22 @@ public class MedicalFormController {
     @Autowired
     private FormResponseService formResponseService;
 
+    @Autowired
+    private AttachmentService attachmentService;
+
     //-------------------Form submission : Method M->N---------------------------------------------------------------------------------
     @PostMapping("/submit")
     public ResponseEntity<?> submitMedicalForm(
             @RequestParam("form") String formJson,
             @RequestPart(value = "mriPhoto", required = false) MultipartFile mriPhoto,
-            @RequestPart(value = "seizureVideo", required = false) MultipartFile seizureVideo) {
+            @RequestPart(value = "seizureVideo", required = false) MultipartFile seizureVideo,
+            @RequestParam(value = "mriUploadId", required = false) String mriUploadId,
+            @RequestParam(value = "seizureVideoUploadId", required = false) String seizureVideoUploadId) {
         
         System.out.println("🔥 Received medical form submission");
         System.out.println("📄 MRI Photo: " + (mriPhoto != null ? mriPhoto.getOriginalFilename() + " (" + mriPhoto.getSize() + " bytes)" : "null"));
         System.out.println("📄 Seizure Video: " + (seizureVideo != null ? seizureVideo.getOriginalFilename() + " (" + seizureVideo.getSize() + " bytes)" : "null"));
+        System.out.println("📄 Upload IDs: mri=" + mriUploadId + ", video=" + seizureVideoUploadId);
         
         MedicalFormRequest form;
         try {
@@ -64,7 +74,8 @@ public class MedicalFormController {
             User currentUser = userService.getLoggedInUser();
             System.out.println("👤 Current user: " + currentUser.getEmail());
             
-            Integer formId = medicalFormService.saveMedicalForm(form, mriPhoto, seizureVideo, currentUser);
+            Integer formId = medicalFormService.saveMedicalForm(form, mriPhoto, seizureVideo,
+                    mriUploadId, seizureVideoUploadId, currentUser);
             System.out.println("✅ Form saved successfully with ID: " + formId);
             
             return ResponseEntity.ok(Map.of("formId", formId, "message", "Form submitted successfully"));
@@ -75,6 +86,46 @@ public class MedicalFormController {
         }
     }
 
+    /**
+     * Same contract as /submit, but the body is read as a stream : file parts go straight into the cipher
+     * and size limits are enforced while uploading. Multipart resolution is disabled for this path (MultipartConfig).
+     */
+    @PostMapping("/submit-stream")
+    public ResponseEntity<?> submitMedicalFormStream(HttpServletRequest request) {
+        System.out.println("🔥 Received streamed medical form submission (" + request.getContentLengthLong() + " bytes)");
+        try {
+            User currentUser = userService.getLoggedInUser();
+            Integer formId = medicalFormService.saveMedicalFormFromStream(
+                    request.getContentType(), request.getInputStream(), currentUser);
+            System.out.println("✅ Form saved successfully with ID: " + formId);
+
+            return ResponseEntity.ok(Map.of("formId", formId, "message", "Form submitted successfully"));
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(Map.of("error", e.getReason()));
+        } catch (IllegalArgumentException | JsonProcessingException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid form data: " + e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("❌ Error saving streamed medical form: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().body(Map.of("error", "File upload error: " + e.getMessage()));
+        }
+    }
+
+    //-------------------Deleting an attachment of a form not yet reviewed------------------------------------------------------------
+    @DeleteMapping("/attachments/{attachmentId}")
+    public ResponseEntity<?> deleteAttachment(@PathVariable Integer attachmentId) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            attachmentService.deleteAttachment(attachmentId, currentUser);
+            return ResponseEntity.noContent().build();
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(Map.of("error", e.getReason()));
+        } catch (Exception e) {
+            System.err.println("❌ Error deleting attachment: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(Map.of("error", "Could not delete attachment: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/doctor")
     public ResponseEntity<List<Map<String, Object>>> getMedicalFormsForDoctor(
             @RequestParam(value = "filter", defaultValue = "active") String filter) {
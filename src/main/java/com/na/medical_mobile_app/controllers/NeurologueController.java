@@ -5,16 +5,25 @@ import com.na.medical_mobile_app.DTOs.FormResponseRequest;
 import com.na.medical_mobile_app.DTOs.MedicalFormSummaryDTO;
 import com.na.medical_mobile_app.entities.FileAttachment;
 import com.na.medical_mobile_app.entities.FormResponse;
+import com.na.medical_mobile_app.entities.RenditionStatus;
 import com.na.medical_mobile_app.entities.User;
 import com.na.medical_mobile_app.repositories.UserRepository;
+import com.na.medical_mobile_app.security.DecryptedContent;
 import com.na.medical_mobile_app.services.AttachmentService;
 import com.na.medical_mobile_app.services.FormResponseService;
+import com.na.medical_mobile_app.services.ImageRenditionService;
 import com.na.medical_mobile_app.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 import java.util.HashMap;
 import java.util.List;
@@ -34,13 +43,24 @@ public class NeurologueController {
     @Autowired
     private AttachmentService attachmentService;
     @Autowired
+    private ImageRenditionService imageRenditionService;
+    @Autowired
     private UserRepository userRepository;
 
     //---------------------------------------------Getting the attachement for the neuro----------------------------------------------
+    /**
+     * Streams the decrypted attachment. Supports a single "Range: bytes=..." so video players can seek;
+     * only the encrypted chunks covering the range are read and memory stays at one chunk per request.
+     * Recently viewed attachments are served from the off-heap decrypted cache, which whole-file reads fill.
+     * Images take ?size=thumb|screen|full; the original is sent until the preview has been generated.
+     */
     @GetMapping("/attachments/{id}")
-    public ResponseEntity<byte[]> serveAttachment(@PathVariable Integer id,
+    public ResponseEntity<StreamingResponseBody> serveAttachment(@PathVariable Integer id,
                                                  @RequestParam(value = "userId", required = false) Integer userId,
-                                                 @RequestHeader(value = "userId", required = false) String userIdHeader) throws Exception {
+                                                 @RequestParam(value = "size", required = false) String size,
+                                                 @RequestHeader(value = "userId", required = false) String userIdHeader,
+                                                 @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader) {
+        DecryptedContent content = null;
         try {
             User user = getUserFromParams(userId, userIdHeader);
             FileAttachment attachment = attachmentService.getAttachmentById(id);
@@ -50,18 +70,82 @@ public class NeurologueController {
                 return ResponseEntity.status(403).body(null);
             }
             
-            byte[] decryptedBytes = attachmentService.getDecryptedAttachmentBytes(id);
+            ImageRenditionService.Size rendition;
+            try {
+                rendition = ImageRenditionService.Size.fromParameter(size);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+
+            String contentType = attachment.getMimeType() != null
+                    ? attachment.getMimeType() : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+            if (rendition != null && attachment.getRenditionStatus() == RenditionStatus.READY) {
+                content = imageRenditionService.openRendition(attachment, rendition);
+                contentType = MediaType.IMAGE_JPEG_VALUE;
+            } else {
+                if (rendition != null) {
+                    imageRenditionService.schedule(attachment);
+                }
+                // A seek into an uncached video must not wait for the whole file to be decrypted
+                content = attachmentService.openAttachmentContent(attachment, rangeHeader == null);
+            }
+            long length = content.getLength();
+            long start = 0;
+            long end = length;
+            boolean partial = false;
 
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_TYPE, attachment.getMimeType())
-                    .body(decryptedBytes);
+            if (rangeHeader != null) {
+                try {
+                    List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                    // Several ranges would need multipart/byteranges, players only ask for one : send everything
+                    if (ranges.size() == 1) {
+                        start = ranges.get(0).getRangeStart(length);
+                        end = ranges.get(0).getRangeEnd(length) + 1;
+                        partial = true;
+                    }
+                } catch (IllegalArgumentException e) {
+                    content.close();
+                    return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                            .build();
+                }
+            }
+
+            DecryptedContent source = content;
+            long from = start;
+            long to = end;
+            StreamingResponseBody body = out -> {
+                try (source; InputStream in = source.openStream(from, to)) {
+                    in.transferTo(out);
+                }
+            };
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, contentType)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .contentLength(end - start);
+            if (partial) {
+                response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+            }
+            return response.body(body);
         } catch (Exception e) {
             System.err.println("❌ Error serving attachment: " + e.getMessage());
+            closeQuietly(content);
             return ResponseEntity.status(403).body(null);
         }
 
     }
 
+    private void closeQuietly(DecryptedContent content) {
+        if (content != null) {
+            try {
+                content.close();
+            } catch (IOException ignored) {
+                // nothing left to do
+            }
+        }
+    }
+
 
     @GetMapping("/forms/{formId}/attachments")
     public ResponseEntity<?> getAttachmentsForForm(
@@ -1,12 +1,17 @@
 package com.na.medical_mobile_app.controllers;
 
+import com.na.medical_mobile_app.DTOs.NotificationDTO;
 import com.na.medical_mobile_app.entities.Notification;
 import com.na.medical_mobile_app.entities.User;
 import com.na.medical_mobile_app.services.NotificationService;
+import com.na.medical_mobile_app.services.NotificationStreamService;
 import com.na.medical_mobile_app.services.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -21,24 +26,32 @@ public class NotificationController {
     
     @Autowired
     private UserService userService;
+
+    @Autowired
+    private NotificationStreamService notificationStreamService;
     
     /**
-     * Get all notifications for the current user
+     * Get the current user's notifications, newest first, one page at a time :
+     * the next page is requested with beforeId = the id of the last notification received
      */
     @GetMapping
-    public ResponseEntity<List<Notification>> getUserNotifications() {
+    public ResponseEntity<List<NotificationDTO>> getUserNotifications(
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "beforeId", required = false) Integer beforeId) {
         User currentUser = userService.getLoggedInUser();
-        List<Notification> notifications = notificationService.getUserNotifications(currentUser);
+        List<NotificationDTO> notifications = notificationService.getUserNotifications(currentUser, beforeId, limit);
         return ResponseEntity.ok(notifications);
     }
     
     /**
-     * Get unread notifications for the current user
+     * Get unread notifications for the current user, paged like the full list
      */
     @GetMapping("/unread")
-    public ResponseEntity<List<Notification>> getUnreadNotifications() {
+    public ResponseEntity<List<NotificationDTO>> getUnreadNotifications(
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "beforeId", required = false) Integer beforeId) {
         User currentUser = userService.getLoggedInUser();
-        List<Notification> notifications = notificationService.getUnreadNotifications(currentUser);
+        List<NotificationDTO> notifications = notificationService.getUnreadNotifications(currentUser, beforeId, limit);
         return ResponseEntity.ok(notifications);
     }
     
@@ -52,6 +65,21 @@ public class NotificationController {
         return ResponseEntity.ok(Map.of("count", count));
     }
     
+    /**
+     * Server-Sent Events stream of the current user's notifications and unread count, instead of polling
+     * /count and /unread. EventSource sends Last-Event-ID when it reconnects, the missed notifications are replayed
+     */
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamNotifications(
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        User currentUser = userService.getLoggedInUser();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                // Stops nginx style proxies from buffering the stream
+                .header("X-Accel-Buffering", "no")
+                .body(notificationStreamService.subscribe(currentUser.getUserId(), lastEventId));
+    }
+    
     /**
      * Mark a notification as read
      */
@@ -65,10 +93,10 @@ public class NotificationController {
      * Mark all notifications as read
      */
     @PostMapping("/read-all")
-    public ResponseEntity<Map<String, String>> markAllAsRead() {
+    public ResponseEntity<Map<String, Object>> markAllAsRead() {
         User currentUser = userService.getLoggedInUser();
-        notificationService.markAllAsRead(currentUser);
-        return ResponseEntity.ok(Map.of("message", "All notifications marked as read"));
+        int count = notificationService.markAllAsRead(currentUser);
+        return ResponseEntity.ok(Map.of("message", "All notifications marked as read", "count", count));
     }
     
     /**
@@ -3,7 +3,7 @@ package com.na.medical_mobile_app.controllers;
 
 import com.na.medical_mobile_app.entities.MedicalForm;
 import com.na.medical_mobile_app.services.MedicalFormService;
-import com.na.medical_mobile_app.services.PdfGenerationService;
+import com.na.medical_mobile_app.services.PdfJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -25,17 +25,22 @@ public class PdfController {
     private MedicalFormService medicalFormService;
 
     @Autowired
-    private PdfGenerationService pdfGenerationService;
+    private PdfJobService pdfJobService;
 
     /**
      * Download PDF for a specific medical form
      */
     @GetMapping("/download/{formId}")
-    public ResponseEntity<byte[]> downloadPdf(@PathVariable Integer formId) {
+    public ResponseEntity<?> downloadPdf(@PathVariable Integer formId) {
         try {
             System.out.println("📥 Download PDF request for form ID: " + formId);
             
             byte[] pdfData = medicalFormService.getPdfData(formId);
+            if (pdfData == null) {
+                // Rendering is queued, the client should retry later
+                return ResponseEntity.status(HttpStatus.ACCEPTED)
+                        .body(Map.of("formId", formId, "message", "PDF generation in progress"));
+            }
             MedicalForm form = medicalFormService.getFormById(formId)
                     .orElseThrow(() -> new Exception("Form not found with ID: " + formId));
 
@@ -117,6 +122,19 @@ public class PdfController {
         }
     }
 
+    /**
+     * PDF render queue depth for admin dashboard
+     */
+    @GetMapping("/admin/queue")
+    public ResponseEntity<Map<String, Object>> getPdfQueueStats() {
+        try {
+            return ResponseEntity.ok(pdfJobService.getQueueStats());
+        } catch (Exception e) {
+            System.err.println("❌ Error fetching PDF queue stats: " + e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     /**
      * Regenerate PDF for a specific form
      */
@@ -128,17 +146,17 @@ public class PdfController {
             MedicalForm form = medicalFormService.getFormById(formId)
                     .orElseThrow(() -> new Exception("Form not found with ID: " + formId));
 
-            medicalFormService.generateAndSavePdf(form);
+            pdfJobService.enqueue(form, "MANUAL");
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("message", "PDF regenerated successfully");
+            response.put("message", "PDF regeneration queued");
             response.put("formId", formId);
             response.put("pdfFileName", form.getPdfFileName());
             response.put("pdfGenerated", form.getPdfGenerated());
 
-            System.out.println("✅ PDF regeneration successful for form ID: " + formId);
-            return ResponseEntity.ok(response);
+            System.out.println("✅ PDF regeneration queued for form ID: " + formId);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
             
         } catch (Exception e) {
             System.err.println("❌ Error regenerating PDF for form ID: " + formId + " - " + e.getMessage());
@@ -0,0 +1,34 @@
+package com.na.medical_mobile_app.controllers;
+
+import com.na.medical_mobile_app.entities.User;
+import com.na.medical_mobile_app.services.UnreadCounterService;
+import com.na.medical_mobile_app.services.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/unread-counts")
+public class UnreadCountController {
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private UserService userService;
+
+    /**
+     * All unread counts of the current user in one call, instead of one request per form :
+     * {"notifications": 3, "messages": 7, "forms": {"12": 5, "40": 2}}
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getUnreadCounts(
+            @RequestParam(value = "userId", required = false) Integer userId,
+            @RequestHeader(value = "userId", required = false) String userIdHeader
+    ) {
+        User currentUser = userService.getLoggedInUser();
+        return ResponseEntity.ok(unreadCounterService.getAllCounts(currentUser.getUserId()));
+    }
+}
@@ -0,0 +1,153 @@
+package com.na.medical_mobile_app.controllers;
+
+import com.na.medical_mobile_app.entities.UploadKind;
+import com.na.medical_mobile_app.entities.UploadSession;
+import com.na.medical_mobile_app.entities.User;
+import com.na.medical_mobile_app.services.ResumableUploadService;
+import com.na.medical_mobile_app.services.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resumable uploads for MRI photos and seizure videos, following the tus 1.0 core protocol:
+ * POST creates the upload, HEAD returns the current offset, PATCH appends from that offset.
+ * The returned upload ID is then passed to /api/medical-forms/submit instead of the file.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadController {
+
+    private static final String TUS_VERSION = "1.0.0";
+
+    @Autowired
+    private ResumableUploadService resumableUploadService;
+
+    @Autowired
+    private UserService userService;
+
+    //-------------------Creating an upload-------------------------------------------------------------------
+    @PostMapping
+    public ResponseEntity<?> createUpload(
+            @RequestHeader("Upload-Length") Long uploadLength,
+            @RequestHeader(value = "Upload-Metadata", required = false) String uploadMetadata,
+            @RequestParam(value = "kind", required = false) String kindParam,
+            @RequestParam(value = "fileName", required = false) String fileNameParam,
+            @RequestParam(value = "mimeType", required = false) String mimeTypeParam) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            Map<String, String> metadata = parseMetadata(uploadMetadata);
+
+            String kind = kindParam != null ? kindParam : metadata.get("kind");
+            String fileName = fileNameParam != null ? fileNameParam : metadata.get("filename");
+            String mimeType = mimeTypeParam != null ? mimeTypeParam : metadata.get("filetype");
+
+            UploadSession session = resumableUploadService.createUpload(
+                    kind != null ? UploadKind.valueOf(kind.toUpperCase()) : null,
+                    fileName, mimeType, uploadLength, currentUser);
+
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(HttpHeaders.LOCATION, "/api/uploads/" + session.getUploadId())
+                    .header("Tus-Resumable", TUS_VERSION)
+                    .body(Map.of("uploadId", session.getUploadId()));
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(Map.of("error", e.getReason()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Invalid upload request: " + e.getMessage()));
+        } catch (Exception e) {
+            System.err.println("❌ Error creating upload: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().body(Map.of("error", "Upload error: " + e.getMessage()));
+        }
+    }
+
+    //-------------------Getting the current offset-----------------------------------------------------------
+    @RequestMapping(value = "/{uploadId}", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> getUploadOffset(@PathVariable String uploadId) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            UploadSession session = resumableUploadService.getUpload(uploadId, currentUser);
+
+            return ResponseEntity.ok()
+                    .header("Upload-Offset", String.valueOf(session.getReceivedBytes()))
+                    .header("Upload-Length", String.valueOf(session.getTotalLength()))
+                    .header("Tus-Resumable", TUS_VERSION)
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .build();
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).build();
+        } catch (Exception e) {
+            System.err.println("❌ Error reading upload offset: " + e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    //-------------------Appending a chunk--------------------------------------------------------------------
+    @PatchMapping("/{uploadId}")
+    public ResponseEntity<?> appendChunk(
+            @PathVariable String uploadId,
+            @RequestHeader("Upload-Offset") Long uploadOffset,
+            HttpServletRequest request) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            UploadSession session = resumableUploadService.appendChunk(
+                    uploadId, uploadOffset, request.getInputStream(), currentUser);
+
+            return ResponseEntity.noContent()
+                    .header("Upload-Offset", String.valueOf(session.getReceivedBytes()))
+                    .header("Tus-Resumable", TUS_VERSION)
+                    .build();
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(Map.of("error", e.getReason()));
+        } catch (Exception e) {
+            System.err.println("❌ Error appending upload chunk: " + e.getMessage());
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().body(Map.of("error", "Upload error: " + e.getMessage()));
+        }
+    }
+
+    //-------------------Cancelling an upload-----------------------------------------------------------------
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<?> deleteUpload(@PathVariable String uploadId) {
+        try {
+            User currentUser = userService.getLoggedInUser();
+            resumableUploadService.deleteUpload(uploadId, currentUser);
+            return ResponseEntity.noContent().header("Tus-Resumable", TUS_VERSION).build();
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(Map.of("error", e.getReason()));
+        } catch (Exception e) {
+            System.err.println("❌ Error deleting upload: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(Map.of("error", "Upload error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Parses tus Upload-Metadata: comma separated "key base64(value)" pairs
+     */
+    private Map<String, String> parseMetadata(String header) {
+        Map<String, String> metadata = new HashMap<>();
+        if (header == null || header.isBlank()) {
+            return metadata;
+        }
+        for (String pair : header.split(",")) {
+            String[] parts = pair.trim().split(" ", 2);
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+            String value = parts.length > 1
+                    ? new String(Base64.getDecoder().decode(parts[1].trim()), StandardCharsets.UTF_8)
+                    : "";
+            metadata.put(parts[0], value);
+        }
+        return metadata;
+    }
+}
@@ -8,7 +8,11 @@ import java.util.List;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 @Entity
-@Table(name = "communications")
+@Table(name = "communications", indexes = {
+        @Index(name = "idx_communications_form_created", columnList = "form_id, created_at, communication_id"),
+        @Index(name = "idx_communications_receiver_unread", columnList = "receiver_id, is_read, form_id"),
+        @Index(name = "idx_communications_sender_form", columnList = "sender_id, form_id")
+})
 public class Communication implements Serializable {
     //-------------------------------attributes------------------------------------
     @Id
@@ -25,6 +29,16 @@ public class Communication implements Serializable {
 
     private Boolean isRead;
     private LocalDateTime createdAt;
+
+    // Voice messages : read from the container headers when the file is received
+    @Column(name = "duration_ms")
+    private Long durationMs;
+
+    @Column(length = 20)
+    private String codec;
+
+    @Column(name = "file_size")
+    private Long fileSize;
 //----------------------------Relationships-------------------------------------------------
     @ManyToOne
     @JoinColumn(name = "form_id")
@@ -83,4 +97,10 @@ public class Communication implements Serializable {
     public void setAttachments(List<FileAttachment> attachments) { this.attachments = attachments; }
     public Consultation getConsultation() { return consultation; }
     public void setConsultation(Consultation consultation) { this.consultation = consultation; }
+    public Long getDurationMs() { return durationMs; }
+    public void setDurationMs(Long durationMs) { this.durationMs = durationMs; }
+    public String getCodec() { return codec; }
+    public void setCodec(String codec) { this.codec = codec; }
+    public Long getFileSize() { return fileSize; }
+    public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
 }
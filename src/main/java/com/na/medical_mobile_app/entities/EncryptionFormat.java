@@ -0,0 +1,3 @@
+package com.na.medical_mobile_app.entities;
+
+public enum EncryptionFormat { AES_ECB_LEGACY, AES_GCM_CHUNKED }
@@ -7,7 +7,9 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "file_attachments")
+@Table(name = "file_attachments", indexes = {
+        @Index(name = "idx_file_attachments_content_hash", columnList = "content_hash")
+})
 public class FileAttachment implements Serializable {
 
  //---------------------------Attributes---------------------------
@@ -28,6 +30,32 @@ public class FileAttachment implements Serializable {
 
     private Boolean isEncrypted;
     private LocalDateTime uploadedAt;
+
+    // null for rows written before the chunked format existed
+    @Enumerated(EnumType.STRING)
+    @Column(name = "encryption_format", length = 20)
+    private EncryptionFormat encryptionFormat;
+
+    // Key ring id the file was encrypted with, null means the default key
+    @Column(name = "key_id", length = 50)
+    private String keyId;
+
+    // Content id (keyed hash of the plaintext) when filePath is a shared blob of the content store, null for files owned by this row
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Downscaled previews of images, null until they have been generated
+    @Enumerated(EnumType.STRING)
+    @Column(name = "rendition_status", length = 20)
+    private RenditionStatus renditionStatus;
+
+    // Read from the MP4 / QuickTime header of videos, null otherwise
+    @Column(name = "duration_ms")
+    private Long durationMs;
+    private Integer width;
+    private Integer height;
+    @Column(length = 20)
+    private String codec;
     //---------------------------Relationships---------------------------
     @ManyToOne
     @JoinColumn(name = "communication_id")
@@ -69,4 +97,20 @@ public class FileAttachment implements Serializable {
     public void setUploadedBy(User uploadedBy) { this.uploadedBy = uploadedBy; }
     public LocalDateTime getUploadedAt() { return uploadedAt; }
     public void setUploadedAt(LocalDateTime uploadedAt) { this.uploadedAt = uploadedAt; }
+    public EncryptionFormat getEncryptionFormat() { return encryptionFormat; }
+    public void setEncryptionFormat(EncryptionFormat encryptionFormat) { this.encryptionFormat = encryptionFormat; }
+    public String getKeyId() { return keyId; }
+    public void setKeyId(String keyId) { this.keyId = keyId; }
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+    public RenditionStatus getRenditionStatus() { return renditionStatus; }
+    public void setRenditionStatus(RenditionStatus renditionStatus) { this.renditionStatus = renditionStatus; }
+    public Long getDurationMs() { return durationMs; }
+    public void setDurationMs(Long durationMs) { this.durationMs = durationMs; }
+    public Integer getWidth() { return width; }
+    public void setWidth(Integer width) { this.width = width; }
+    public Integer getHeight() { return height; }
+    public void setHeight(Integer height) { this.height = height; }
+    public String getCodec() { return codec; }
+    public void setCodec(String codec) { this.codec = codec; }
 }
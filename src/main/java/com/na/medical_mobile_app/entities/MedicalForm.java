@@ -44,6 +44,11 @@ public class MedicalForm implements Serializable {
     @Column(name = "pdf_file_path")
     private String pdfFilePath;
 
+    // Bumped each time the PDF goes out of date : a render only publishes its PDF if the form is still at the
+    // version it read. Written by bulk updates only, so flushing a loaded form never puts an older value back
+    @Column(name = "pdf_version", updatable = false, columnDefinition = "integer default 0")
+    private Integer pdfVersion = 0;
+
     //Relationships
     @ManyToOne
     @JoinColumn(name = "patient_id", nullable = false)
@@ -117,4 +122,7 @@ public class MedicalForm implements Serializable {
     
     public String getPdfFilePath() { return pdfFilePath; }
     public void setPdfFilePath(String pdfFilePath) { this.pdfFilePath = pdfFilePath; }
+
+    public Integer getPdfVersion() { return pdfVersion != null ? pdfVersion : 0; }
+    public void setPdfVersion(Integer pdfVersion) { this.pdfVersion = pdfVersion; }
 }
\ No newline at end of file
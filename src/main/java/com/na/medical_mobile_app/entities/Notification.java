@@ -6,7 +6,11 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "notifications")
+@Table(name = "notifications", indexes = {
+        @Index(name = "idx_notifications_user_read_created", columnList = "user_id, is_read, created_at"),
+        // Retention batches : read notifications oldest first, without a scan or sort of the table
+        @Index(name = "idx_notifications_read_created", columnList = "is_read, created_at, notification_id")
+})
 public class Notification implements Serializable {
  //---------------------------Attributes---------------------------
     @Id
@@ -27,6 +31,10 @@ public class Notification implements Serializable {
 
     private Boolean isRead;
     private LocalDateTime createdAt;
+
+    // Events folded into this notification (chat bursts), createdAt is the time of the latest one
+    @Column(name = "event_count")
+    private Integer eventCount = 1;
 //---------------------------Relationships---------------------------
     @ManyToOne
     @JoinColumn(name = "user_id", nullable = false)
@@ -55,4 +63,6 @@ public class Notification implements Serializable {
     public void setIsRead(Boolean isRead) { this.isRead = isRead; }
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public Integer getEventCount() { return eventCount; }
+    public void setEventCount(Integer eventCount) { this.eventCount = eventCount; }
 }
@@ -0,0 +1,57 @@
+package com.na.medical_mobile_app.entities;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * What remains of a read notification once the retention job has moved it out of the notifications table :
+ * who was told what about which record, and when. Title and message, rebuilt from the related record
+ * if ever needed, are not kept. The id is the original notification id.
+ */
+@Entity
+@Table(name = "notification_archive", indexes = {
+        @Index(name = "idx_notification_archive_user_created", columnList = "user_id, created_at")
+})
+public class NotificationArchive implements Serializable {
+ //---------------------------Attributes---------------------------
+    @Id
+    private Integer notificationId;
+
+    // Plain column, archived rows do not keep users from being deleted
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Enumerated(EnumType.STRING)
+    private NotificationType notificationType;
+    private Integer relatedId;
+
+    @Column(length = 50)
+    private String relatedType;
+
+    @Column(name = "event_count")
+    private Integer eventCount;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime archivedAt;
+
+    public NotificationArchive() {}
+
+    public Integer getNotificationId() { return notificationId; }
+    public void setNotificationId(Integer notificationId) { this.notificationId = notificationId; }
+    public Integer getUserId() { return userId; }
+    public void setUserId(Integer userId) { this.userId = userId; }
+    public NotificationType getNotificationType() { return notificationType; }
+    public void setNotificationType(NotificationType notificationType) { this.notificationType = notificationType; }
+    public Integer getRelatedId() { return relatedId; }
+    public void setRelatedId(Integer relatedId) { this.relatedId = relatedId; }
+    public String getRelatedType() { return relatedType; }
+    public void setRelatedType(String relatedType) { this.relatedType = relatedType; }
+    public Integer getEventCount() { return eventCount; }
+    public void setEventCount(Integer eventCount) { this.eventCount = eventCount; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public LocalDateTime getArchivedAt() { return archivedAt; }
+    public void setArchivedAt(LocalDateTime archivedAt) { this.archivedAt = archivedAt; }
+}
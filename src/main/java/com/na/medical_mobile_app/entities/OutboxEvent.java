@@ -0,0 +1,58 @@
+package com.na.medical_mobile_app.entities;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * A domain event waiting for its notifications. Written in the transaction of the change it describes
+ * and deleted in the one that creates the notifications, so the table only holds what is still to dispatch.
+ * An event that keeps failing stays here once it reached the attempt cap (dead letter), with its last error.
+ */
+@Entity
+@Table(name = "outbox_events")
+public class OutboxEvent implements Serializable {
+ //---------------------------Attributes---------------------------
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long eventId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type", length = 30, nullable = false)
+    private OutboxEventType eventType;
+
+    // formId, communicationId or responseId, depending on the type
+    @Column(name = "aggregate_id", nullable = false)
+    private Integer aggregateId;
+
+    private LocalDateTime createdAt;
+
+    // Failed dispatches of this event on its own, the default fills rows written before the column existed
+    @Column(name = "attempts", nullable = false, columnDefinition = "integer default 0")
+    private Integer attempts = 0;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    public OutboxEvent() {}
+
+    public OutboxEvent(OutboxEventType eventType, Integer aggregateId) {
+        this.eventType = eventType;
+        this.aggregateId = aggregateId;
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public Long getEventId() { return eventId; }
+    public void setEventId(Long eventId) { this.eventId = eventId; }
+    public OutboxEventType getEventType() { return eventType; }
+    public void setEventType(OutboxEventType eventType) { this.eventType = eventType; }
+    public Integer getAggregateId() { return aggregateId; }
+    public void setAggregateId(Integer aggregateId) { this.aggregateId = aggregateId; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+}
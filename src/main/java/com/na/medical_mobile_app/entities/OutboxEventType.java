@@ -0,0 +1,5 @@
+package com.na.medical_mobile_app.entities;
+
+public enum OutboxEventType {
+    FORM_SUBMITTED, MESSAGE_SENT, RESPONSE_SAVED
+}
@@ -0,0 +1,71 @@
+package com.na.medical_mobile_app.entities;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "pdf_jobs", indexes = {
+        @Index(name = "idx_pdf_jobs_status_next_attempt", columnList = "status, next_attempt_at"),
+        @Index(name = "idx_pdf_jobs_form", columnList = "form_id")
+})
+public class PdfJob implements Serializable {
+ //---------------------------Attributes---------------------------
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer jobId;
+
+    @Column(name = "form_id", nullable = false)
+    private Integer formId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20, nullable = false)
+    private PdfJobStatus status;
+
+    // The form id while the job is PENDING, null otherwise : the unique constraint allows one pending job per form
+    @Column(name = "pending_form_id", unique = true)
+    private Integer pendingFormId;
+
+    // What caused the job : FORM_SUBMITTED, RESPONSE_SAVED, MANUAL...
+    @Column(length = 50)
+    private String reason;
+
+    private Integer attempts = 0;
+
+    @Column(name = "next_attempt_at")
+    private LocalDateTime nextAttemptAt;
+
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+
+    @Column(columnDefinition = "TEXT")
+    private String lastError;
+
+    private LocalDateTime createdAt;
+
+    public PdfJob() {}
+
+    public Integer getJobId() { return jobId; }
+    public void setJobId(Integer jobId) { this.jobId = jobId; }
+    public Integer getFormId() { return formId; }
+    public void setFormId(Integer formId) { this.formId = formId; }
+    public PdfJobStatus getStatus() { return status; }
+    public void setStatus(PdfJobStatus status) { this.status = status; }
+    public Integer getPendingFormId() { return pendingFormId; }
+    public void setPendingFormId(Integer pendingFormId) { this.pendingFormId = pendingFormId; }
+    public String getReason() { return reason; }
+    public void setReason(String reason) { this.reason = reason; }
+    public Integer getAttempts() { return attempts; }
+    public void setAttempts(Integer attempts) { this.attempts = attempts; }
+    public LocalDateTime getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(LocalDateTime nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+    public LocalDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(LocalDateTime finishedAt) { this.finishedAt = finishedAt; }
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -0,0 +1,3 @@
+package com.na.medical_mobile_app.entities;
+
+public enum RenditionStatus { READY, UNSUPPORTED }
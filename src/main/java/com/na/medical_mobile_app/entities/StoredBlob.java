@@ -0,0 +1,54 @@
+package com.na.medical_mobile_app.entities;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * One encrypted file in the content-addressed store, shared by every attachment with the same plaintext.
+ * referenceCount is the number of FileAttachment rows pointing at it; unreferenced blobs are collected
+ * once they have not been used for a grace period.
+ */
+@Entity
+@Table(name = "stored_blobs", indexes = {
+        @Index(name = "idx_stored_blobs_refs_last_used", columnList = "reference_count, last_used_at")
+})
+public class StoredBlob implements Serializable {
+ //---------------------------Attributes---------------------------
+    // Content id : hex HMAC of the SHA-256 of the plaintext, or the plain SHA-256 for blobs stored before
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Key in the attachment blob store
+    @Column(name = "file_path", length = 500, nullable = false)
+    private String filePath;
+
+    // Plaintext size
+    private Long fileSize;
+
+    @Column(name = "reference_count", nullable = false)
+    private Integer referenceCount = 0;
+
+    private LocalDateTime createdAt;
+
+    // Last time the blob was staged or released, the garbage collector leaves recent ones alone
+    @Column(name = "last_used_at")
+    private LocalDateTime lastUsedAt;
+
+    public StoredBlob() {}
+
+    public String getContentHash() { return contentHash; }
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+    public String getFilePath() { return filePath; }
+    public void setFilePath(String filePath) { this.filePath = filePath; }
+    public Long getFileSize() { return fileSize; }
+    public void setFileSize(Long fileSize) { this.fileSize = fileSize; }
+    public Integer getReferenceCount() { return referenceCount; }
+    public void setReferenceCount(Integer referenceCount) { this.referenceCount = referenceCount; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public LocalDateTime getLastUsedAt() { return lastUsedAt; }
+    public void setLastUsedAt(LocalDateTime lastUsedAt) { this.lastUsedAt = lastUsedAt; }
+}
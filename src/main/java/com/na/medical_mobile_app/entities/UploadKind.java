@@ -0,0 +1,5 @@
+package com.na.medical_mobile_app.entities;
+
+public enum UploadKind {
+    MRI_PHOTO, SEIZURE_VIDEO
+}
@@ -0,0 +1,71 @@
+package com.na.medical_mobile_app.entities;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * A resumable (tus style) upload. Chunks are encrypted and appended to
+ * storedFileName as they arrive; receivedBytes is the acknowledged offset.
+ */
+@Entity
+@Table(name = "upload_sessions")
+public class UploadSession implements Serializable {
+ //---------------------------Attributes---------------------------
+    @Id
+    @Column(length = 36)
+    private String uploadId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private UploadKind kind;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private UploadStatus status;
+
+    @Column(length = 255)
+    private String fileName;
+
+    @Column(length = 100)
+    private String mimeType;
+
+    @Column(length = 500)
+    private String storedFileName;
+
+    private Long totalLength;
+    private Long receivedBytes;
+
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+//---------------------------Relationships---------------------------
+    @ManyToOne
+    @JoinColumn(name = "uploaded_by", nullable = false)
+    private User uploadedBy;
+
+    public UploadSession() {}
+
+    public String getUploadId() { return uploadId; }
+    public void setUploadId(String uploadId) { this.uploadId = uploadId; }
+    public UploadKind getKind() { return kind; }
+    public void setKind(UploadKind kind) { this.kind = kind; }
+    public UploadStatus getStatus() { return status; }
+    public void setStatus(UploadStatus status) { this.status = status; }
+    public String getFileName() { return fileName; }
+    public void setFileName(String fileName) { this.fileName = fileName; }
+    public String getMimeType() { return mimeType; }
+    public void setMimeType(String mimeType) { this.mimeType = mimeType; }
+    public String getStoredFileName() { return storedFileName; }
+    public void setStoredFileName(String storedFileName) { this.storedFileName = storedFileName; }
+    public Long getTotalLength() { return totalLength; }
+    public void setTotalLength(Long totalLength) { this.totalLength = totalLength; }
+    public Long getReceivedBytes() { return receivedBytes; }
+    public void setReceivedBytes(Long receivedBytes) { this.receivedBytes = receivedBytes; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    public User getUploadedBy() { return uploadedBy; }
+    public void setUploadedBy(User uploadedBy) { this.uploadedBy = uploadedBy; }
+}
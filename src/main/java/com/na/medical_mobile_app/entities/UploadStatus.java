@@ -0,0 +1,5 @@
+package com.na.medical_mobile_app.entities;
+
+public enum UploadStatus {
+    IN_PROGRESS, COMPLETED, CONSUMED
+}
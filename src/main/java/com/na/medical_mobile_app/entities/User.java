@@ -33,6 +33,11 @@ public class User implements Serializable {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
+    // Bumped by every admin edit, tokens issued with an older version are refused
+    @JsonIgnore
+    @Column(name = "token_version")
+    private Integer tokenVersion = 0;
+
 //------------------------------Relationships--------------------------------
     @OneToMany(mappedBy = "referringDoctor", cascade = CascadeType.ALL)
     @JsonIgnore
@@ -187,6 +192,12 @@ public class User implements Serializable {
     public void setUpdatedAt(LocalDateTime systemUser) {
         this.updatedAt=systemUser;
     }
+    public Integer getTokenVersion() {
+        return tokenVersion != null ? tokenVersion : 0;
+    }
+    public void setTokenVersion(Integer tokenVersion) {
+        this.tokenVersion = tokenVersion;
+    }
     public Integer getUserId() {
         return userId;
     }
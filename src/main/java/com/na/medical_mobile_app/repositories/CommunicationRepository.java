@@ -1,18 +1,97 @@
 package com.na.medical_mobile_app.repositories;
 
+import com.na.medical_mobile_app.DTOs.ChatMessageDTO;
+import com.na.medical_mobile_app.DTOs.ConversationDTO;
 import com.na.medical_mobile_app.entities.Communication;
 import com.na.medical_mobile_app.entities.MedicalForm;
 import com.na.medical_mobile_app.entities.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface CommunicationRepository extends JpaRepository<Communication, Integer> {
     
+    // Chat read path : the DTO columns straight from one query, sender and receiver joined,
+    // form and reply-to read from their foreign keys. No entity (and none of the eager User graph) is loaded
+    String CHAT_MESSAGE_DTO = "SELECT new com.na.medical_mobile_app.DTOs.ChatMessageDTO(" +
+            "c.communicationId, c.form.formId, s.userId, s.name, s.role, r.userId, r.name, " +
+            "c.content, c.createdAt, c.isRead, c.messageType, c.filePath, c.replyTo.communicationId, c.durationMs) " +
+            "FROM Communication c JOIN c.sender s JOIN c.receiver r ";
+
     // Find all messages for a specific form
     List<Communication> findByFormOrderByCreatedAtAsc(MedicalForm form);
+
+    @Query(CHAT_MESSAGE_DTO + "WHERE c.form.formId = :formId ORDER BY c.createdAt ASC, c.communicationId ASC")
+    List<ChatMessageDTO> findMessagesByForm(@Param("formId") Integer formId);
+
+    // One message, as pushed to the chats : used by the nodes that did not save it
+    @Query(CHAT_MESSAGE_DTO + "WHERE c.communicationId = :messageId")
+    Optional<ChatMessageDTO> findMessageById(@Param("messageId") Integer messageId);
+
+    // Keyset pages on (createdAt, communicationId), read straight from idx_communications_form_created
+    @Query(CHAT_MESSAGE_DTO + "WHERE c.form.formId = :formId " +
+           "ORDER BY c.createdAt DESC, c.communicationId DESC")
+    List<ChatMessageDTO> findLatestMessagesByForm(@Param("formId") Integer formId, Pageable page);
+
+    @Query(CHAT_MESSAGE_DTO + "WHERE c.form.formId = :formId " +
+           "AND (c.createdAt, c.communicationId) < (:createdAt, :communicationId) " +
+           "ORDER BY c.createdAt DESC, c.communicationId DESC")
+    List<ChatMessageDTO> findMessagesByFormBefore(@Param("formId") Integer formId,
+                                                  @Param("createdAt") LocalDateTime createdAt,
+                                                  @Param("communicationId") Integer communicationId,
+                                                  Pageable page);
+
+    @Query(CHAT_MESSAGE_DTO + "WHERE c.form.formId = :formId " +
+           "AND (c.createdAt, c.communicationId) > (:createdAt, :communicationId) " +
+           "ORDER BY c.createdAt ASC, c.communicationId ASC")
+    List<ChatMessageDTO> findMessagesByFormAfter(@Param("formId") Integer formId,
+                                                 @Param("createdAt") LocalDateTime createdAt,
+                                                 @Param("communicationId") Integer communicationId,
+                                                 Pageable page);
+
+    // Chat inbox : the latest message of every form the user sent or received a message in, with the user's
+    // unread count there, ranked and counted by window functions in one pass over those forms' messages
+    String CONVERSATION_DTO = "SELECT new com.na.medical_mobile_app.DTOs.ConversationDTO(" +
+            "m.formId, p.name, f.status, m.messageId, substring(m.content, 1, 200), m.messageType, " +
+            "s.userId, s.name, m.createdAt, m.unread) " +
+            "FROM (SELECT c.form.formId AS formId, c.communicationId AS messageId, c.content AS content, " +
+            "c.messageType AS messageType, c.sender.userId AS senderId, c.createdAt AS createdAt, " +
+            "row_number() OVER (PARTITION BY c.form.formId ORDER BY c.createdAt DESC, c.communicationId DESC) AS rowNumber, " +
+            "count(*) FILTER (WHERE c.receiver.userId = :userId AND c.isRead = false) " +
+            "OVER (PARTITION BY c.form.formId) AS unread " +
+            "FROM Communication c WHERE c.form.formId IN (SELECT own.form.formId FROM Communication own " +
+            "WHERE own.sender.userId = :userId OR own.receiver.userId = :userId)) m " +
+            "JOIN MedicalForm f ON f.formId = m.formId JOIN f.patient p JOIN User s ON s.userId = m.senderId " +
+            "WHERE m.rowNumber = 1 ";
+
+    // Keyset pages on the latest activity, (last message time, formId), newest conversation first
+    @Query(CONVERSATION_DTO + "ORDER BY m.createdAt DESC, m.formId DESC")
+    List<ConversationDTO> findConversations(@Param("userId") Integer userId, Pageable page);
+
+    @Query(CONVERSATION_DTO + "AND (m.createdAt, m.formId) < (:createdAt, :formId) " +
+           "ORDER BY m.createdAt DESC, m.formId DESC")
+    List<ConversationDTO> findConversationsBefore(@Param("userId") Integer userId,
+                                                  @Param("createdAt") LocalDateTime createdAt,
+                                                  @Param("formId") Integer formId,
+                                                  Pageable page);
+
+    // Position of an inbox cursor : [createdAt, formId] of the message, nothing when it does not exist
+    @Query("SELECT c.createdAt, c.form.formId FROM Communication c WHERE c.communicationId = :communicationId")
+    List<Object[]> findPosition(@Param("communicationId") Integer communicationId);
+
+    // Position of a cursor message, empty when it does not exist or belongs to another form
+    @Query("SELECT c.createdAt FROM Communication c WHERE c.communicationId = :communicationId AND c.form.formId = :formId")
+    Optional<LocalDateTime> findCreatedAtInForm(@Param("communicationId") Integer communicationId,
+                                                @Param("formId") Integer formId);
     
     // Find unread messages for a specific user
     List<Communication> findByReceiverAndIsReadFalse(User receiver);
@@ -22,4 +101,25 @@ public interface CommunicationRepository extends JpaRepository<Communication, In
     
     // Find unread messages for a specific user and form
     List<Communication> findByReceiverAndFormAndIsReadFalse(User receiver, MedicalForm form);
-}
\ No newline at end of file
+
+    // One statement instead of loading the conversation, only unread rows are touched
+    @Transactional
+    @Modifying
+    @Query("UPDATE Communication c SET c.isRead = true " +
+           "WHERE c.receiver.userId = :receiverId AND c.form.formId = :formId AND c.isRead = false")
+    int markReadForReceiver(@Param("formId") Integer formId, @Param("receiverId") Integer receiverId);
+
+    // Notification data of new messages : [communicationId, receiverId, senderName, formId, patientName]
+    @Query("SELECT c.communicationId, c.receiver.userId, s.name, f.formId, p.name FROM Communication c " +
+           "JOIN c.sender s JOIN c.form f JOIN f.patient p WHERE c.communicationId IN :communicationIds")
+    List<Object[]> findNotificationInfo(@Param("communicationIds") List<Integer> communicationIds);
+
+    // Unread counters : [formId, count] for one receiver, [receiverId, formId, count] for a batch of them
+    @Query("SELECT c.form.formId, COUNT(c) FROM Communication c " +
+           "WHERE c.receiver.userId = :receiverId AND c.isRead = false GROUP BY c.form.formId")
+    List<Object[]> countUnreadByFormForReceiver(@Param("receiverId") Integer receiverId);
+
+    @Query("SELECT c.receiver.userId, c.form.formId, COUNT(c) FROM Communication c " +
+           "WHERE c.receiver.userId IN :receiverIds AND c.isRead = false GROUP BY c.receiver.userId, c.form.formId")
+    List<Object[]> countUnreadByFormForReceivers(@Param("receiverIds") List<Integer> receiverIds);
+}
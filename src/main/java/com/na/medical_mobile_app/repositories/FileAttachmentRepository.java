@@ -1,8 +1,13 @@
 package com.na.medical_mobile_app.repositories;
 
 import com.na.medical_mobile_app.entities.*;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -18,4 +23,25 @@ public interface FileAttachmentRepository extends JpaRepository<FileAttachment,
     List<FileAttachment> findByFileNameContainingIgnoreCase(String fileName);
     List<FileAttachment> findByFileSizeGreaterThan(Long size);
     List<FileAttachment> findByUploadedByAndUploadedAtBetween(User uploadedBy, LocalDateTime start, LocalDateTime end);
+
+    // Attachments that may still be stored in the legacy whole-file format, in id order after afterId
+    @Query("SELECT a.attachmentId FROM FileAttachment a " +
+           "WHERE (a.encryptionFormat IS NULL OR a.encryptionFormat = :legacy) AND a.attachmentId > :afterId " +
+           "ORDER BY a.attachmentId")
+    List<Integer> findLegacyEncryptedIds(@Param("legacy") EncryptionFormat legacy,
+                                         @Param("afterId") Integer afterId,
+                                         Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FileAttachment a SET a.encryptionFormat = :format, a.keyId = :keyId WHERE a.attachmentId = :attachmentId")
+    int updateEncryption(@Param("attachmentId") Integer attachmentId,
+                         @Param("format") EncryptionFormat format,
+                         @Param("keyId") String keyId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE FileAttachment a SET a.renditionStatus = :status WHERE a.attachmentId = :attachmentId")
+    int updateRenditionStatus(@Param("attachmentId") Integer attachmentId,
+                              @Param("status") RenditionStatus status);
 }
\ No newline at end of file
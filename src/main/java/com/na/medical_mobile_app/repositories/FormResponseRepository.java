@@ -4,6 +4,8 @@ import com.na.medical_mobile_app.entities.FormResponse;
 import com.na.medical_mobile_app.entities.MedicalForm;
 import com.na.medical_mobile_app.entities.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -15,4 +17,9 @@ public interface FormResponseRepository extends JpaRepository<FormResponse, Inte
     List<FormResponse> findByResponder(User responder);
     Optional<FormResponse> findTopByFormOrderByCreatedAtDesc(MedicalForm form);
     boolean existsByForm(MedicalForm form);
+
+    // Notification data of saved responses : [responseId, doctorId, responderName, formId, patientName]
+    @Query("SELECT r.responseId, m.doctor.userId, u.name, m.formId, p.name FROM FormResponse r " +
+           "JOIN r.responder u JOIN r.form m JOIN m.patient p WHERE r.responseId IN :responseIds")
+    List<Object[]> findNotificationInfo(@Param("responseIds") List<Integer> responseIds);
 }
\ No newline at end of file
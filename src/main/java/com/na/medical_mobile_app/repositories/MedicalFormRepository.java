@@ -2,8 +2,11 @@ package com.na.medical_mobile_app.repositories;
 
 import com.na.medical_mobile_app.entities.*;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -44,4 +47,30 @@ public interface MedicalFormRepository extends JpaRepository<MedicalForm, Intege
            "LEFT JOIN FETCH m.assignedTo " +
            "ORDER BY m.createdAt DESC")
     List<MedicalForm> findAllWithPdfInfo();
+
+    // Notification data of submitted forms : [formId, assignedToId, doctorName, patientName]
+    @Query("SELECT m.formId, a.userId, d.name, p.name FROM MedicalForm m " +
+           "JOIN m.doctor d JOIN m.patient p LEFT JOIN m.assignedTo a WHERE m.formId IN :formIds")
+    List<Object[]> findNotificationInfo(@Param("formIds") List<Integer> formIds);
+
+    // Only touches the PDF columns so a background render never overwrites status or assignment
+    @Transactional
+    @Modifying
+    // Returns 0 when the form went out of date again while the PDF was rendered (newer pdfVersion)
+    @Query("UPDATE MedicalForm m SET m.pdfGenerated = true, m.pdfGeneratedAt = :generatedAt, " +
+           "m.pdfFileName = :fileName, m.pdfFilePath = :filePath " +
+           "WHERE m.formId = :formId AND m.pdfVersion = :pdfVersion")
+    int markPdfGenerated(@Param("formId") Integer formId,
+                         @Param("pdfVersion") Integer pdfVersion,
+                         @Param("generatedAt") LocalDateTime generatedAt,
+                         @Param("fileName") String fileName,
+                         @Param("filePath") String filePath);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MedicalForm m SET m.pdfGenerated = false, m.pdfVersion = m.pdfVersion + 1 WHERE m.formId = :formId")
+    int markPdfStale(@Param("formId") Integer formId);
+
+    @Query("SELECT m.pdfFilePath FROM MedicalForm m WHERE m.formId = :formId")
+    Optional<String> findPdfFilePath(@Param("formId") Integer formId);
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.entities.NotificationArchive;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface NotificationArchiveRepository extends JpaRepository<NotificationArchive, Integer> {
+
+    // INSERT ... SELECT, the rows never go through the application
+    @Transactional
+    @Modifying
+    @Query("INSERT INTO NotificationArchive (notificationId, userId, notificationType, relatedId, relatedType, " +
+           "eventCount, createdAt, archivedAt) " +
+           "SELECT n.notificationId, n.user.userId, n.notificationType, n.relatedId, n.relatedType, " +
+           "n.eventCount, n.createdAt, :archivedAt FROM Notification n " +
+           "WHERE n.notificationId IN :notificationIds AND n.isRead = true")
+    int archive(@Param("notificationIds") List<Integer> notificationIds, @Param("archivedAt") LocalDateTime archivedAt);
+}
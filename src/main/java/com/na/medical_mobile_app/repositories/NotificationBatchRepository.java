@@ -0,0 +1,14 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.entities.Notification;
+
+import java.util.List;
+
+public interface NotificationBatchRepository {
+
+    /**
+     * Inserts the notifications with multi-row INSERT statements and sets their generated ids.
+     * Hibernate cannot batch inserts of IDENTITY ids, it would run one statement per notification.
+     */
+    void insertAll(List<Notification> notifications);
+}
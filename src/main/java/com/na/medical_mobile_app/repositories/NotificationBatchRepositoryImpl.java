@@ -0,0 +1,56 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.entities.Notification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs on the connection of the current JPA transaction, so the rows commit or roll back with it
+public class NotificationBatchRepositoryImpl implements NotificationBatchRepository {
+
+    // 10 parameters a row, well below the 32767 bind parameters PostgreSQL accepts per statement
+    private static final int ROWS_PER_STATEMENT = 500;
+
+    private static final String NEXT_IDS = "SELECT nextval(pg_get_serial_sequence('notifications', 'notification_id')) " +
+            "FROM generate_series(1, ?)";
+
+    private static final String INSERT = "INSERT INTO notifications " +
+            "(notification_id, user_id, title, message, notification_type, related_id, related_type, is_read, created_at, event_count) VALUES ";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAll(List<Notification> notifications) {
+        for (int start = 0; start < notifications.size(); start += ROWS_PER_STATEMENT) {
+            List<Notification> chunk = notifications.subList(start, Math.min(start + ROWS_PER_STATEMENT, notifications.size()));
+
+            // Ids taken from the column's sequence up front and inserted with the rows, so each notification
+            // knows its own id without relying on the order RETURNING gives the rows back in
+            List<Integer> ids = jdbcTemplate.queryForList(NEXT_IDS, Integer.class, chunk.size());
+
+            StringBuilder sql = new StringBuilder(INSERT);
+            List<Object> args = new ArrayList<>(chunk.size() * 10);
+            for (int i = 0; i < chunk.size(); i++) {
+                Notification notification = chunk.get(i);
+                sql.append(args.isEmpty() ? "" : ",").append("(?,?,?,?,?,?,?,?,?,?)");
+                args.add(ids.get(i));
+                args.add(notification.getUser().getUserId());
+                args.add(notification.getTitle());
+                args.add(notification.getMessage());
+                args.add(notification.getNotificationType() != null ? notification.getNotificationType().name() : null);
+                args.add(notification.getRelatedId());
+                args.add(notification.getRelatedType());
+                args.add(notification.getIsRead());
+                args.add(notification.getCreatedAt());
+                args.add(notification.getEventCount());
+            }
+            jdbcTemplate.update(sql.toString(), args.toArray());
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setNotificationId(ids.get(i));
+            }
+        }
+    }
+}
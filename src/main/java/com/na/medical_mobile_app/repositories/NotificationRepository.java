@@ -1,19 +1,124 @@
 package com.na.medical_mobile_app.repositories;
 
+import com.na.medical_mobile_app.DTOs.NotificationDTO;
 import com.na.medical_mobile_app.entities.Notification;
 import com.na.medical_mobile_app.entities.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface NotificationRepository extends JpaRepository<Notification, Integer> {
+public interface NotificationRepository extends JpaRepository<Notification, Integer>, NotificationBatchRepository {
+
+    String NOTIFICATION_DTO = "SELECT new com.na.medical_mobile_app.DTOs.NotificationDTO(" +
+            "n.notificationId, n.title, n.message, n.notificationType, n.relatedId, n.relatedType, n.isRead, " +
+            "n.createdAt, n.eventCount) FROM Notification n ";
+
     List<Notification> findByUserOrderByCreatedAtDesc(User user);
     
     List<Notification> findByUserAndIsReadOrderByCreatedAtDesc(User user, Boolean isRead);
     
     @Query("SELECT COUNT(n) FROM Notification n WHERE n.user = ?1 AND n.isRead = false")
     Integer countUnreadNotifications(User user);
-}
\ No newline at end of file
+
+    @Query("SELECT COUNT(n) FROM Notification n WHERE n.user.userId = :userId AND n.isRead = false")
+    long countUnreadForUser(@Param("userId") Integer userId);
+
+    // [userId, count] for the users of the batch that have unread notifications
+    @Query("SELECT n.user.userId, COUNT(n) FROM Notification n " +
+           "WHERE n.user.userId IN :userIds AND n.isRead = false GROUP BY n.user.userId")
+    List<Object[]> countUnreadByUsers(@Param("userIds") List<Integer> userIds);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE Notification n SET n.isRead = true WHERE n.user.userId = :userId AND n.isRead = false")
+    int markAllReadForUser(@Param("userId") Integer userId);
+
+    @Query(NOTIFICATION_DTO + "WHERE n.notificationId = :notificationId")
+    Optional<NotificationDTO> findDtoById(@Param("notificationId") Integer notificationId);
+
+    // Keyset pages on (createdAt, notificationId), newest first, all notifications or the unread ones only
+    @Query(NOTIFICATION_DTO + "WHERE n.user.userId = :userId ORDER BY n.createdAt DESC, n.notificationId DESC")
+    List<NotificationDTO> findPage(@Param("userId") Integer userId, Pageable page);
+
+    @Query(NOTIFICATION_DTO + "WHERE n.user.userId = :userId " +
+           "AND (n.createdAt, n.notificationId) < (:createdAt, :notificationId) " +
+           "ORDER BY n.createdAt DESC, n.notificationId DESC")
+    List<NotificationDTO> findPageBefore(@Param("userId") Integer userId,
+                                         @Param("createdAt") LocalDateTime createdAt,
+                                         @Param("notificationId") Integer notificationId,
+                                         Pageable page);
+
+    @Query(NOTIFICATION_DTO + "WHERE n.user.userId = :userId AND n.isRead = false " +
+           "ORDER BY n.createdAt DESC, n.notificationId DESC")
+    List<NotificationDTO> findUnreadPage(@Param("userId") Integer userId, Pageable page);
+
+    @Query(NOTIFICATION_DTO + "WHERE n.user.userId = :userId AND n.isRead = false " +
+           "AND (n.createdAt, n.notificationId) < (:createdAt, :notificationId) " +
+           "ORDER BY n.createdAt DESC, n.notificationId DESC")
+    List<NotificationDTO> findUnreadPageBefore(@Param("userId") Integer userId,
+                                               @Param("createdAt") LocalDateTime createdAt,
+                                               @Param("notificationId") Integer notificationId,
+                                               Pageable page);
+
+    // Position of a cursor notification, empty when it does not exist or belongs to someone else
+    @Query("SELECT n.createdAt FROM Notification n WHERE n.notificationId = :notificationId AND n.user.userId = :userId")
+    Optional<LocalDateTime> findCreatedAtForUser(@Param("notificationId") Integer notificationId,
+                                                 @Param("userId") Integer userId);
+
+    // Stream snapshot : the latest unread notifications
+    @Query(NOTIFICATION_DTO + "WHERE n.user.userId = :userId AND n.isRead = false ORDER BY n.createdAt DESC")
+    List<NotificationDTO> findLatestUnread(@Param("userId") Integer userId, Pageable page);
+
+    // Stream resume : what was created or coalesced after the last event the client received, oldest first.
+    // Coalescing moves createdAt forward, so an updated notification comes back here under its own id
+    @Query(NOTIFICATION_DTO + "WHERE n.user.userId = :userId " +
+           "AND (n.createdAt, n.notificationId) > (:createdAt, :notificationId) " +
+           "ORDER BY n.createdAt ASC, n.notificationId ASC")
+    List<NotificationDTO> findChangedAfter(@Param("userId") Integer userId,
+                                           @Param("createdAt") LocalDateTime createdAt,
+                                           @Param("notificationId") Integer notificationId,
+                                           Pageable page);
+
+    // Unread notifications recent enough to absorb new events : [notificationId, userId, relatedType, relatedId, eventCount]
+    @Query("SELECT n.notificationId, n.user.userId, n.relatedType, n.relatedId, n.eventCount FROM Notification n " +
+           "WHERE n.user.userId IN :userIds AND n.isRead = false AND n.createdAt >= :since ORDER BY n.notificationId ASC")
+    List<Object[]> findCoalescable(@Param("userIds") Collection<Integer> userIds, @Param("since") LocalDateTime since);
+
+    // Returns 0 when the notification was read in the meantime, the events then get a notification of their own
+    @Transactional
+    @Modifying
+    @Query("UPDATE Notification n SET n.eventCount = :eventCount, n.title = :title, n.message = :message, " +
+           "n.createdAt = :createdAt WHERE n.notificationId = :notificationId AND n.isRead = false")
+    int coalesce(@Param("notificationId") Integer notificationId,
+                 @Param("eventCount") Integer eventCount,
+                 @Param("title") String title,
+                 @Param("message") String message,
+                 @Param("createdAt") LocalDateTime createdAt);
+
+    // Retention : read notifications older than the cutoff, oldest first, a bounded batch at a time.
+    // Read in order from idx_notifications_read_created, the scan stops at the batch size
+    @Query("SELECT n.notificationId FROM Notification n WHERE n.isRead = true AND n.createdAt < :cutoff " +
+           "ORDER BY n.createdAt ASC, n.notificationId ASC")
+    List<Integer> findArchivable(@Param("cutoff") LocalDateTime cutoff, Pageable page);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM Notification n WHERE n.notificationId IN :notificationIds AND n.isRead = true")
+    int deleteRead(@Param("notificationIds") List<Integer> notificationIds);
+
+    // Returns 0 when it was already read, so a read is only counted once
+    @Transactional
+    @Modifying
+    @Query("UPDATE Notification n SET n.isRead = true WHERE n.notificationId = :notificationId AND n.isRead = false")
+    int markRead(@Param("notificationId") Integer notificationId);
+}
@@ -0,0 +1,45 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.entities.OutboxEvent;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Oldest events first, rows locked by another dispatcher (other node) are skipped rather than waited for.
+    // Dead letters (attempt cap reached) are left out
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM OutboxEvent e WHERE e.attempts < :maxAttempts ORDER BY e.eventId ASC")
+    List<OutboxEvent> lockNextBatch(@Param("maxAttempts") int maxAttempts, Pageable page);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM OutboxEvent e WHERE e.eventId = :eventId AND e.attempts < :maxAttempts")
+    List<OutboxEvent> lockEvent(@Param("eventId") Long eventId, @Param("maxAttempts") int maxAttempts);
+
+    @Query("SELECT e.eventId FROM OutboxEvent e WHERE e.attempts < :maxAttempts ORDER BY e.eventId ASC")
+    List<Long> findNextEventIds(@Param("maxAttempts") int maxAttempts, Pageable page);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.attempts = e.attempts + 1, e.lastError = :error WHERE e.eventId = :eventId")
+    int recordFailure(@Param("eventId") Long eventId, @Param("error") String error);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.eventId IN :eventIds")
+    int deleteByEventIds(@Param("eventIds") List<Long> eventIds);
+}
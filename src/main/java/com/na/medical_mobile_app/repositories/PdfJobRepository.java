@@ -0,0 +1,69 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.entities.PdfJob;
+import com.na.medical_mobile_app.entities.PdfJobStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface PdfJobRepository extends JpaRepository<PdfJob, Integer> {
+    long countByStatus(PdfJobStatus status);
+    boolean existsByFormIdAndStatus(Integer formId, PdfJobStatus status);
+    Optional<PdfJob> findTopByFormIdOrderByCreatedAtDesc(Integer formId);
+
+    @Query("SELECT j.jobId FROM PdfJob j WHERE j.status = :status AND j.nextAttemptAt <= :now ORDER BY j.nextAttemptAt ASC")
+    List<Integer> findDueJobIds(@Param("status") PdfJobStatus status, @Param("now") LocalDateTime now, Pageable pageable);
+
+    // Skipped (returns 0) when the form already has a pending job, committed or not : pending_form_id is unique
+    @Transactional
+    @Modifying
+    @Query("INSERT INTO PdfJob (formId, pendingFormId, status, reason, attempts, createdAt, nextAttemptAt) " +
+           "VALUES (:formId, :formId, :pending, :reason, 0, :now, :now) ON CONFLICT DO NOTHING")
+    int insertPendingJob(@Param("formId") Integer formId,
+                         @Param("reason") String reason,
+                         @Param("now") LocalDateTime now,
+                         @Param("pending") PdfJobStatus pending);
+
+    // Conditional update so that only one worker (or node) can take a given job
+    @Transactional
+    @Modifying
+    @Query("UPDATE PdfJob j SET j.status = :running, j.startedAt = :now, j.attempts = j.attempts + 1, " +
+           "j.pendingFormId = null WHERE j.jobId = :jobId AND j.status = :pending")
+    int claimJob(@Param("jobId") Integer jobId,
+                 @Param("now") LocalDateTime now,
+                 @Param("pending") PdfJobStatus pending,
+                 @Param("running") PdfJobStatus running);
+
+    // Jobs left RUNNING by a crashed worker
+    @Query("SELECT j.jobId FROM PdfJob j WHERE j.status = :running AND j.startedAt < :cutoff")
+    List<Integer> findStaleJobIds(@Param("cutoff") LocalDateTime cutoff, @Param("running") PdfJobStatus running);
+
+    // Back to the queue (retry, stale job) unless the form has a pending job already, which renders it anyway.
+    // Throws a constraint violation if one was inserted meanwhile
+    @Transactional
+    @Modifying
+    @Query("UPDATE PdfJob j SET j.status = :pending, j.pendingFormId = j.formId, j.nextAttemptAt = :nextAttemptAt, " +
+           "j.lastError = :error WHERE j.jobId = :jobId AND j.status <> :pending " +
+           "AND NOT EXISTS (SELECT p.jobId FROM PdfJob p WHERE p.pendingFormId = j.formId)")
+    int requeueJob(@Param("jobId") Integer jobId,
+                   @Param("nextAttemptAt") LocalDateTime nextAttemptAt,
+                   @Param("error") String error,
+                   @Param("pending") PdfJobStatus pending);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE PdfJob j SET j.status = :done, j.finishedAt = :now, j.lastError = :note WHERE j.jobId = :jobId")
+    int closeJob(@Param("jobId") Integer jobId,
+                 @Param("now") LocalDateTime now,
+                 @Param("note") String note,
+                 @Param("done") PdfJobStatus done);
+}
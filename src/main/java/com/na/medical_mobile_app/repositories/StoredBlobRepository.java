@@ -0,0 +1,45 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.entities.StoredBlob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+
+    // Blocks while the garbage collector holds the row, so a blob is never reused and deleted at the same time
+    @Transactional
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.lastUsedAt = :now WHERE b.contentHash = :hash")
+    int touch(@Param("hash") String hash, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.referenceCount = b.referenceCount + 1, b.lastUsedAt = :now WHERE b.contentHash = :hash")
+    int addReference(@Param("hash") String hash, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.referenceCount = b.referenceCount - 1, b.lastUsedAt = :now " +
+           "WHERE b.contentHash = :hash AND b.referenceCount > 0")
+    int releaseReference(@Param("hash") String hash, @Param("now") LocalDateTime now);
+
+    @Query("SELECT b.contentHash FROM StoredBlob b WHERE b.referenceCount = 0 AND b.lastUsedAt < :cutoff " +
+           "ORDER BY b.lastUsedAt")
+    List<String> findCollectableHashes(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM StoredBlob b WHERE b.contentHash = :hash")
+    Optional<StoredBlob> findForUpdate(@Param("hash") String hash);
+}
@@ -0,0 +1,48 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.entities.UploadSession;
+import com.na.medical_mobile_app.entities.UploadStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+    List<UploadSession> findByStatusInAndUpdatedAtBefore(List<UploadStatus> statuses, LocalDateTime cutoff);
+
+    // Conditional on the offset the chunks were appended at : two requests, even on two nodes, cannot both move it
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession u SET u.receivedBytes = :received, u.updatedAt = :now " +
+           "WHERE u.uploadId = :uploadId AND u.receivedBytes = :expected AND u.status = :inProgress")
+    int advanceOffset(@Param("uploadId") String uploadId,
+                      @Param("expected") Long expected,
+                      @Param("received") Long received,
+                      @Param("inProgress") UploadStatus inProgress,
+                      @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession u SET u.status = :completed, u.updatedAt = :now " +
+           "WHERE u.uploadId = :uploadId AND u.receivedBytes = u.totalLength AND u.status = :inProgress")
+    int markCompleted(@Param("uploadId") String uploadId,
+                      @Param("now") LocalDateTime now,
+                      @Param("inProgress") UploadStatus inProgress,
+                      @Param("completed") UploadStatus completed);
+
+    // Conditional so that one finished upload can only be attached to one form
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession u SET u.status = :consumed, u.updatedAt = :now " +
+           "WHERE u.uploadId = :uploadId AND u.status = :completed")
+    int markConsumed(@Param("uploadId") String uploadId,
+                     @Param("now") LocalDateTime now,
+                     @Param("completed") UploadStatus completed,
+                     @Param("consumed") UploadStatus consumed);
+}
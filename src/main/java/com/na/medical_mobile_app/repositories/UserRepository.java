@@ -36,4 +36,12 @@ public interface UserRepository extends JpaRepository<User, Integer> {
     
     // New method to find active neurologists
     List<User> findByRoleInAndIsActiveTrue(List<Role> roles);
+
+    // Token checks : [userId, tokenVersion, isActive] of every user, no entity loaded
+    @Query("SELECT u.userId, u.tokenVersion, u.isActive FROM User u")
+    List<Object[]> findTokenStates();
+
+    // Same for one user, when a token names a user the token cache does not hold
+    @Query("SELECT u.userId, u.tokenVersion, u.isActive FROM User u WHERE u.userId = :userId")
+    List<Object[]> findTokenState(@Param("userId") Integer userId);
 }
\ No newline at end of file
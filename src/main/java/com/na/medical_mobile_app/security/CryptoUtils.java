@@ -3,11 +3,23 @@ package com.na.medical_mobile_app.security;
 import javax.crypto.SecretKey;
 import java.io.FileInputStream;
 import java.io.ObjectInputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class CryptoUtils {
 
+    /** Key id written into encrypted file headers for secret.key */
+    public static final String DEFAULT_KEY_ID = "default";
+
+    /**
+     * Reads secret.key from disk. Only meant for startup, use {@link KeyRing} for per-request crypto.
+     */
     public static SecretKey loadSecretKey() throws Exception {
-        try (FileInputStream fis = new FileInputStream("secret.key");
+        return loadSecretKey(Paths.get("secret.key"));
+    }
+
+    public static SecretKey loadSecretKey(Path path) throws Exception {
+        try (FileInputStream fis = new FileInputStream(path.toFile());
              ObjectInputStream ois = new ObjectInputStream(fis)) {
             return (SecretKey) ois.readObject();
         }
@@ -0,0 +1,21 @@
+package com.na.medical_mobile_app.security;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decrypted view of an attachment, read from the encrypted file or from the in-memory cache.
+ * Must be closed once the streams opened from it are done.
+ */
+public interface DecryptedContent extends Closeable {
+
+    long getLength();
+
+    /** Plaintext bytes [start, end) */
+    InputStream openStream(long start, long end) throws IOException;
+
+    default InputStream openStream() throws IOException {
+        return openStream(0, getLength());
+    }
+}
@@ -0,0 +1,356 @@
+package com.na.medical_mobile_app.security;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * On-disk container for encrypted attachments.
+ *
+ * Layout : header, then the plaintext cut into chunks of {@code chunkSize} bytes, each sealed with AES-GCM
+ * (ciphertext followed by a 16 byte tag). A chunk can be located and decrypted on its own, so any byte range
+ * is readable without touching the rest of the file.
+ *
+ * Header : magic "MCE1" | version (1) | key id length (1) | key id | chunk size (4) | nonce prefix (8) | plaintext length (8)
+ *
+ * The IV of chunk i is the file's random nonce prefix followed by i. Each chunk authenticates the header
+ * (minus the length, which is only known once a stream is closed), its index and whether it is the last one,
+ * so chunks cannot be reordered, swapped between files or cut off at the end.
+ */
+public final class EncryptedFileFormat {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int TAG_LENGTH = 16;
+    private static final byte[] MAGIC = {'M', 'C', 'E', '1'};
+    private static final byte VERSION = 1;
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> THREAD_CIPHER = new ThreadLocal<>();
+
+    private EncryptedFileFormat() {}
+
+    //-----------------------------------Header------------------------------------------------------------------------
+    public static class Header {
+        private final String keyId;
+        private final int chunkSize;
+        private final byte[] noncePrefix;
+        private long plaintextLength;
+
+        Header(String keyId, int chunkSize, byte[] noncePrefix, long plaintextLength) {
+            this.keyId = keyId;
+            this.chunkSize = chunkSize;
+            this.noncePrefix = noncePrefix;
+            this.plaintextLength = plaintextLength;
+        }
+
+        public static Header create(String keyId, int chunkSize, long plaintextLength) {
+            byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            RANDOM.nextBytes(noncePrefix);
+            return new Header(keyId, chunkSize, noncePrefix, plaintextLength);
+        }
+
+        public String getKeyId() { return keyId; }
+        public int getChunkSize() { return chunkSize; }
+        public long getPlaintextLength() { return plaintextLength; }
+        void setPlaintextLength(long plaintextLength) { this.plaintextLength = plaintextLength; }
+
+        public int length() {
+            return MAGIC.length + 2 + keyIdBytes().length + 4 + NONCE_PREFIX_LENGTH + 8;
+        }
+
+        /** An empty file still has one (empty) chunk, so truncation to zero is detected too */
+        public long chunkCount() {
+            return Math.max(1, (plaintextLength + chunkSize - 1) / chunkSize);
+        }
+
+        public long chunkOffset(long index) {
+            return length() + index * (long) (chunkSize + TAG_LENGTH);
+        }
+
+        public int plaintextChunkLength(long index) {
+            return (int) Math.min(chunkSize, plaintextLength - index * chunkSize);
+        }
+
+        /** Size of the whole file once every chunk is written */
+        public long encryptedLength() {
+            return chunkOffset(chunkCount() - 1) + plaintextChunkLength(chunkCount() - 1) + TAG_LENGTH;
+        }
+
+        public byte[] toBytes() {
+            return ByteBuffer.allocate(length())
+                    .put(authenticatedPart())
+                    .putLong(plaintextLength)
+                    .array();
+        }
+
+        private byte[] authenticatedPart() {
+            byte[] id = keyIdBytes();
+            return ByteBuffer.allocate(length() - 8)
+                    .put(MAGIC)
+                    .put(VERSION)
+                    .put((byte) id.length)
+                    .put(id)
+                    .putInt(chunkSize)
+                    .put(noncePrefix)
+                    .array();
+        }
+
+        private byte[] keyIdBytes() {
+            return keyId.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads the header at the start of the channel.
+     * Returns null when the file does not start with the magic, i.e. it is a legacy whole-file AES stream.
+     */
+    public static Header readHeader(SeekableByteChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(MAGIC.length + 2);
+        if (readFully(channel, fixed, 0) < fixed.capacity()) {
+            return null;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        fixed.flip().get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+        byte version = fixed.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported encrypted file version: " + version);
+        }
+        int keyIdLength = fixed.get() & 0xff;
+
+        ByteBuffer rest = ByteBuffer.allocate(keyIdLength + 4 + NONCE_PREFIX_LENGTH + 8);
+        if (readFully(channel, rest, fixed.capacity()) < rest.capacity()) {
+            throw new IOException("Truncated encrypted file header");
+        }
+        rest.flip();
+        byte[] keyId = new byte[keyIdLength];
+        rest.get(keyId);
+        int chunkSize = rest.getInt();
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        rest.get(noncePrefix);
+        long plaintextLength = rest.getLong();
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE || plaintextLength < 0) {
+            throw new IOException("Corrupt encrypted file header");
+        }
+        return new Header(new String(keyId, StandardCharsets.UTF_8), chunkSize, noncePrefix, plaintextLength);
+    }
+
+    //-----------------------------------Chunk crypto------------------------------------------------------------------
+    public static Cipher newCipher() throws GeneralSecurityException {
+        return Cipher.getInstance("AES/GCM/NoPadding");
+    }
+
+    /** GCM cipher reused by the calling thread, it is re-initialised with a fresh IV for every chunk */
+    public static Cipher threadCipher() throws GeneralSecurityException {
+        Cipher cipher = THREAD_CIPHER.get();
+        if (cipher == null) {
+            cipher = newCipher();
+            THREAD_CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+
+    public static byte[] encryptChunk(Cipher cipher, SecretKey key, Header header, long index, boolean last,
+                                      byte[] data, int offset, int length) throws GeneralSecurityException {
+        initChunk(cipher, Cipher.ENCRYPT_MODE, key, header, index, last);
+        return cipher.doFinal(data, offset, length);
+    }
+
+    public static byte[] decryptChunk(Cipher cipher, SecretKey key, Header header, long index,
+                                      byte[] data, int offset, int length) throws GeneralSecurityException {
+        initChunk(cipher, Cipher.DECRYPT_MODE, key, header, index, index == header.chunkCount() - 1);
+        return cipher.doFinal(data, offset, length);
+    }
+
+    private static void initChunk(Cipher cipher, int mode, SecretKey key, Header header, long index, boolean last)
+            throws GeneralSecurityException {
+        byte[] iv = ByteBuffer.allocate(12).put(header.noncePrefix).putInt((int) index).array();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+        cipher.updateAAD(header.authenticatedPart());
+        cipher.updateAAD(ByteBuffer.allocate(9).putLong(index).put((byte) (last ? 1 : 0)).array());
+    }
+
+    //-----------------------------------Writing-----------------------------------------------------------------------
+    /**
+     * Opens a stream that encrypts everything written to it into a new file at {@code target}.
+     * The plaintext length is not needed up front, it is written into the header on close.
+     */
+    public static OutputStream newEncryptingStream(Path target, String keyId, SecretKey key) throws IOException {
+        return new EncryptingOutputStream(target, Header.create(keyId, DEFAULT_CHUNK_SIZE, 0), key, null, 1);
+    }
+
+    /**
+     * Same as above, but chunks are collected in batches of {@code batchSize} and sealed in parallel on {@code pool}.
+     * They are still written in order. Memory use is batchSize chunks per stream.
+     */
+    public static OutputStream newEncryptingStream(Path target, String keyId, SecretKey key,
+                                                   ExecutorService pool, int batchSize) throws IOException {
+        return new EncryptingOutputStream(target, Header.create(keyId, DEFAULT_CHUNK_SIZE, 0), key, pool, batchSize);
+    }
+
+    private static class EncryptingOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+        private final Header header;
+        private final SecretKey key;
+        private final ExecutorService pool;
+        private final int batchSize;
+        // Full chunks known not to be the last one, waiting to be sealed as a batch
+        private final List<byte[]> pending = new ArrayList<>();
+        private final Deque<byte[]> spare = new ArrayDeque<>();
+        private byte[] chunk;
+        private int buffered;
+        private long index;
+        private long total;
+        private boolean closed;
+
+        EncryptingOutputStream(Path target, Header header, SecretKey key, ExecutorService pool, int batchSize) throws IOException {
+            this.header = header;
+            this.key = key;
+            this.pool = pool;
+            this.batchSize = pool != null ? Math.max(1, batchSize) : 1;
+            this.chunk = new byte[header.getChunkSize()];
+            this.channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(channel, ByteBuffer.wrap(header.toBytes()));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                // A full chunk is only queued once more data shows up, the last one is sealed on close
+                if (buffered == chunk.length) {
+                    pending.add(chunk);
+                    chunk = spare.isEmpty() ? new byte[header.getChunkSize()] : spare.pop();
+                    buffered = 0;
+                    if (pending.size() >= batchSize) {
+                        sealPending();
+                    }
+                }
+                int count = Math.min(len, chunk.length - buffered);
+                System.arraycopy(b, off, chunk, buffered, count);
+                buffered += count;
+                total += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        private void sealPending() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            try {
+                if (pending.size() == 1) {
+                    writeFully(channel, ByteBuffer.wrap(encryptChunk(threadCipher(), key, header, index, false,
+                            pending.get(0), 0, pending.get(0).length)));
+                } else {
+                    List<Callable<byte[]>> tasks = new ArrayList<>();
+                    for (int i = 0; i < pending.size(); i++) {
+                        byte[] data = pending.get(i);
+                        long chunkIndex = index + i;
+                        tasks.add(() -> encryptChunk(threadCipher(), key, header, chunkIndex, false, data, 0, data.length));
+                    }
+                    for (Future<byte[]> sealed : pool.invokeAll(tasks)) {
+                        writeFully(channel, ByteBuffer.wrap(sealed.get()));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while encrypting", e);
+            } catch (GeneralSecurityException | ExecutionException e) {
+                throw new IOException("Could not encrypt chunk", e);
+            }
+            index += pending.size();
+            spare.addAll(pending);
+            pending.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                sealPending();
+                try {
+                    writeFully(channel, ByteBuffer.wrap(encryptChunk(threadCipher(), key, header, index, true, chunk, 0, buffered)));
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Could not encrypt chunk " + index, e);
+                }
+                header.setPlaintextLength(total);
+                writeFully(channel, ByteBuffer.wrap(header.toBytes()), 0);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    //-----------------------------------Channel helpers---------------------------------------------------------------
+    static int readFully(SeekableByteChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (!(channel instanceof FileChannel fileChannel)) {
+            // Seek and read must not interleave with another reader of the same channel
+            synchronized (channel) {
+                channel.position(position);
+                int total = 0;
+                while (buffer.hasRemaining()) {
+                    int read = channel.read(buffer);
+                    if (read == -1) {
+                        break;
+                    }
+                    total += read;
+                }
+                return total;
+            }
+        }
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = fileChannel.read(buffer, position + total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    public static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.na.medical_mobile_app.security;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Random-access reader for encrypted attachments.
+ * Understands both the chunked AES-GCM container ({@link EncryptedFileFormat}) and the legacy files
+ * written with {@code Cipher.getInstance("AES")}. The legacy format is ECB, so its blocks can be decrypted
+ * independently as well. Only one chunk is held in memory at a time whatever range is read.
+ * The channel may come from any blob store, reads are positional so a remote store only fetches what is needed.
+ */
+public class EncryptedFileReader implements DecryptedContent {
+
+    private static final int AES_BLOCK_SIZE = 16;
+    private static final int LEGACY_READ_SIZE = 64 * 1024;
+    // Ciphers are re-initialised for each block run, so one per thread is enough
+    private static final ThreadLocal<Cipher> LEGACY_CIPHER = new ThreadLocal<>();
+
+    private final SeekableByteChannel channel;
+    private final EncryptedFileFormat.Header header;
+    private final SecretKey key;
+    private final long plaintextLength;
+
+    private EncryptedFileReader(SeekableByteChannel channel, EncryptedFileFormat.Header header, SecretKey key,
+                                long plaintextLength) {
+        this.channel = channel;
+        this.header = header;
+        this.key = key;
+        this.plaintextLength = plaintextLength;
+    }
+
+    /** Takes ownership of the channel, it is closed with the reader */
+    public static EncryptedFileReader open(SeekableByteChannel channel, KeyRing keyRing) throws Exception {
+        try {
+            EncryptedFileFormat.Header header = EncryptedFileFormat.readHeader(channel);
+            if (header != null) {
+                return new EncryptedFileReader(channel, header, keyRing.getKey(header.getKeyId()),
+                        header.getPlaintextLength());
+            }
+            SecretKey key = keyRing.getKey(CryptoUtils.DEFAULT_KEY_ID);
+            return new EncryptedFileReader(channel, null, key, legacyPlaintextLength(channel, key));
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long getPlaintextLength() { return plaintextLength; }
+    @Override
+    public long getLength() { return plaintextLength; }
+    public boolean isLegacy() { return header == null; }
+    public String getKeyId() { return header != null ? header.getKeyId() : CryptoUtils.DEFAULT_KEY_ID; }
+
+    /**
+     * Decrypts plaintext bytes [start, end). Only the chunks covering that range are read.
+     */
+    @Override
+    public InputStream openStream(long start, long end) throws IOException {
+        if (start < 0 || end > plaintextLength || start > end) {
+            throw new IllegalArgumentException("Invalid range " + start + "-" + end + " for length " + plaintextLength);
+        }
+        return header != null ? new ChunkStream(start, end) : new LegacyStream(start, end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    //-----------------------------------Common stream logic-----------------------------------------------------------
+    private abstract class RangeStream extends InputStream {
+        private final long end;
+        private long position;
+        private byte[] current = new byte[0];
+        private int currentOffset;
+
+        RangeStream(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        /** Loads the decrypted data holding {@code position}, returns the offset of position inside it */
+        abstract int load(long position) throws IOException;
+
+        void setCurrent(byte[] data) { this.current = data; }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (currentOffset >= current.length) {
+                currentOffset = load(position);
+            }
+            int count = (int) Math.min(Math.min(len, current.length - currentOffset), end - position);
+            System.arraycopy(current, currentOffset, b, off, count);
+            currentOffset += count;
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            current = new byte[0];
+            currentOffset = 0;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(current.length - currentOffset, end - position);
+        }
+    }
+
+    //-----------------------------------Chunked AES-GCM---------------------------------------------------------------
+    private class ChunkStream extends RangeStream {
+        private final byte[] encrypted;
+
+        ChunkStream(long start, long end) {
+            super(start, end);
+            this.encrypted = new byte[header.getChunkSize() + EncryptedFileFormat.TAG_LENGTH];
+        }
+
+        @Override
+        int load(long position) throws IOException {
+            long index = position / header.getChunkSize();
+            int length = header.plaintextChunkLength(index) + EncryptedFileFormat.TAG_LENGTH;
+            ByteBuffer buffer = ByteBuffer.wrap(encrypted, 0, length);
+            if (EncryptedFileFormat.readFully(channel, buffer, header.chunkOffset(index)) < length) {
+                throw new IOException("Encrypted file is truncated at chunk " + index);
+            }
+            try {
+                setCurrent(EncryptedFileFormat.decryptChunk(
+                        EncryptedFileFormat.threadCipher(), key, header, index, encrypted, 0, length));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Chunk " + index + " failed authentication", e);
+            }
+            return (int) (position - index * header.getChunkSize());
+        }
+    }
+
+    //-----------------------------------Legacy whole-file AES (ECB)---------------------------------------------------
+    private class LegacyStream extends RangeStream {
+        private final byte[] encrypted = new byte[LEGACY_READ_SIZE];
+
+        LegacyStream(long start, long end) {
+            super(start, end);
+        }
+
+        @Override
+        int load(long position) throws IOException {
+            long blockStart = position - (position % AES_BLOCK_SIZE);
+            int length = (int) Math.min(LEGACY_READ_SIZE, channel.size() - blockStart);
+            ByteBuffer buffer = ByteBuffer.wrap(encrypted, 0, length);
+            if (EncryptedFileFormat.readFully(channel, buffer, blockStart) < length) {
+                throw new IOException("Legacy encrypted file is truncated");
+            }
+            try {
+                // Padding bytes past plaintextLength are never handed out
+                Cipher cipher = legacyCipher();
+                cipher.init(Cipher.DECRYPT_MODE, key);
+                setCurrent(cipher.doFinal(encrypted, 0, length));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Could not decrypt legacy file", e);
+            }
+            return (int) (position - blockStart);
+        }
+    }
+
+    private static Cipher legacyCipher() throws GeneralSecurityException {
+        Cipher cipher = LEGACY_CIPHER.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            LEGACY_CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+
+    private static long legacyPlaintextLength(SeekableByteChannel channel, SecretKey key) throws Exception {
+        long size = channel.size();
+        if (size == 0 || size % AES_BLOCK_SIZE != 0) {
+            throw new IOException("Not a valid encrypted file (size " + size + ")");
+        }
+        ByteBuffer lastBlock = ByteBuffer.allocate(AES_BLOCK_SIZE);
+        EncryptedFileFormat.readFully(channel, lastBlock, size - AES_BLOCK_SIZE);
+        Cipher cipher = legacyCipher();
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        byte[] plain = cipher.doFinal(lastBlock.array());
+        int padding = plain[AES_BLOCK_SIZE - 1] & 0xff;
+        if (padding < 1 || padding > AES_BLOCK_SIZE) {
+            throw new IOException("Legacy encrypted file has invalid padding");
+        }
+        return size - padding;
+    }
+}
@@ -0,0 +1,206 @@
+package com.na.medical_mobile_app.security;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Attachment encryption keys, loaded once at startup and kept in memory.
+ *
+ * secret.key is the "default" key; rotated keys live in {@code crypto.keys.directory} as {@code <keyId>.key},
+ * and the file {@code active} there names the key used for new files. Every encrypted file records its key id,
+ * so older keys stay available for reading after a rotation and nothing has to be re-encrypted.
+ * An unknown key id triggers one reload of the directory, which picks up a rotation done by another node
+ * sharing the same directory.
+ *
+ * The directory also holds {@code content-id.secret}, the HMAC key naming the blobs of the content store.
+ */
+@Component
+public class KeyRing {
+
+    private static final String KEY_SUFFIX = ".key";
+    private static final String ACTIVE_FILE = "active";
+    private static final String CONTENT_ID_FILE = "content-id.secret";
+
+    @Value("${crypto.keys.directory:keys}")
+    private String keysDirectory;
+
+    private final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+    private volatile String activeKeyId = CryptoUtils.DEFAULT_KEY_ID;
+    private volatile SecretKey contentIdKey;
+
+    @PostConstruct
+    public void load() throws Exception {
+        Path legacyKey = Paths.get("secret.key");
+        if (Files.exists(legacyKey)) {
+            keys.put(CryptoUtils.DEFAULT_KEY_ID, CryptoUtils.loadSecretKey(legacyKey));
+        } else {
+            System.err.println("⚠️ secret.key not found, files encrypted with the default key cannot be read");
+        }
+        reload();
+        System.out.println("🔑 Key ring loaded: " + keys.size() + " key(s), active key: " + activeKeyId);
+    }
+
+    private synchronized void reload() throws Exception {
+        Path directory = Paths.get(keysDirectory);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + KEY_SUFFIX)) {
+            for (Path file : files) {
+                String keyId = file.getFileName().toString();
+                keyId = keyId.substring(0, keyId.length() - KEY_SUFFIX.length());
+                if (!keys.containsKey(keyId)) {
+                    keys.put(keyId, CryptoUtils.loadSecretKey(file));
+                }
+            }
+        }
+        Path active = directory.resolve(ACTIVE_FILE);
+        if (Files.exists(active)) {
+            String keyId = Files.readString(active, StandardCharsets.UTF_8).trim();
+            if (!keys.containsKey(keyId)) {
+                throw new IllegalStateException("Active key " + keyId + " has no key file");
+            }
+            activeKeyId = keyId;
+        }
+    }
+
+    //-----------------------------------Lookups-----------------------------------------------------------------------
+    public SecretKey getKey(String keyId) throws Exception {
+        SecretKey key = keys.get(keyId);
+        if (key == null) {
+            reload();
+            key = keys.get(keyId);
+        }
+        if (key == null) {
+            throw new IllegalStateException("Unknown encryption key: " + keyId);
+        }
+        return key;
+    }
+
+    public String getActiveKeyId() { return activeKeyId; }
+
+    public SecretKey getActiveKey() throws Exception {
+        return getKey(activeKeyId);
+    }
+
+    public Set<String> getKeyIds() {
+        return new TreeSet<>(keys.keySet());
+    }
+
+    //-----------------------------------Content ids-------------------------------------------------------------------
+    /**
+     * HMAC-SHA256 key of the content store ids, created by the first node that needs it.
+     * Never rotated : with a new key, new uploads would no longer match the blobs already stored.
+     */
+    public SecretKey getContentIdKey() throws Exception {
+        SecretKey key = contentIdKey;
+        if (key == null) {
+            synchronized (this) {
+                if (contentIdKey == null) {
+                    contentIdKey = loadOrCreateContentIdKey();
+                }
+                key = contentIdKey;
+            }
+        }
+        return key;
+    }
+
+    private SecretKey loadOrCreateContentIdKey() throws Exception {
+        Path directory = Paths.get(keysDirectory);
+        Path keyFile = directory.resolve(CONTENT_ID_FILE);
+        if (!Files.exists(keyFile)) {
+            SecretKey key = KeyGenerator.getInstance("HmacSHA256").generateKey();
+            Files.createDirectories(directory);
+            Path temp = directory.resolve(CONTENT_ID_FILE + "." + UUID.randomUUID() + ".tmp");
+            try {
+                writeTemp(temp, out -> {
+                    try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                        oos.writeObject(key);
+                    }
+                });
+                // A link is only created if absent : when two nodes race, both end up reading the first one's key
+                Files.createLink(keyFile, temp);
+                System.out.println("🔑 Created the content id key");
+            } catch (FileAlreadyExistsException e) {
+                // Created by another node in the meantime
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return CryptoUtils.loadSecretKey(keyFile);
+    }
+
+    //-----------------------------------Rotation----------------------------------------------------------------------
+    /**
+     * Generates a new AES-256 key and makes it the active one. Files already written keep their key.
+     * @return The new key id
+     */
+    public synchronized String rotate() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        SecretKey key = generator.generateKey();
+        String keyId = "k" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+        if (keys.containsKey(keyId)) {
+            throw new IllegalStateException("A key was already rotated in this second, try again");
+        }
+
+        Path directory = Paths.get(keysDirectory);
+        Files.createDirectories(directory);
+        Path keyFile = directory.resolve(keyId + KEY_SUFFIX);
+        writeAtomically(keyFile, out -> {
+            try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+                oos.writeObject(key);
+            }
+        });
+        // The key file must exist before anything points at it
+        keys.put(keyId, key);
+        writeAtomically(directory.resolve(ACTIVE_FILE), out -> out.write(keyId.getBytes(StandardCharsets.UTF_8)));
+        activeKeyId = keyId;
+
+        System.out.println("🔑 Rotated encryption key, new active key: " + keyId);
+        return keyId;
+    }
+
+    private interface FileWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private void writeAtomically(Path target, FileWriter writer) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        writeTemp(temp, writer);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeTemp(Path temp, FileWriter writer) throws IOException {
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            writer.write(out);
+        }
+        try {
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.na.medical_mobile_app.security;
+
+import com.na.medical_mobile_app.entities.User;
+import com.na.medical_mobile_app.repositories.UserRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token version and active flag of every user, what {@link JwtRequestFilter} checks a token against
+ * instead of loading its user. A token is refused once its user is inactive or its version is older
+ * than the user's, which is how an admin edit or deactivation revokes the tokens already issued.
+ *
+ * Loaded with one projection query at startup and reloaded periodically, which also picks up edits made on other nodes.
+ * Edits made here update it straight away. Versions only grow, so a reload never undoes a newer entry.
+ * A user the cache does not hold is looked up on its own; a user that does not exist, or that cannot be read, is refused.
+ */
+@Component
+public class UserTokenCache {
+
+    private record TokenState(int version, boolean active) {}
+
+    // Deleted users : no version is recent enough
+    private static final TokenState REVOKED = new TokenState(Integer.MAX_VALUE, false);
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private final Map<Integer, TokenState> states = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
+    public boolean isCurrent(Integer userId, Integer version) {
+        TokenState state = states.get(userId);
+        if (state == null) {
+            state = load(userId);
+        }
+        return state.active() && version != null && version >= state.version();
+    }
+
+    /** Called after the user has been created or edited and saved */
+    public void update(User user) {
+        put(user.getUserId(), user.getTokenVersion(), Boolean.TRUE.equals(user.getIsActive()));
+    }
+
+    /** Called after the user has been deleted */
+    public void revoke(Integer userId) {
+        states.put(userId, REVOKED);
+    }
+
+    private void put(Integer userId, int version, boolean active) {
+        states.merge(userId, new TokenState(version, active),
+                (current, fresh) -> fresh.version() >= current.version() ? fresh : current);
+    }
+
+    // Cache miss : a user created on another node since the last reload, or a deleted user
+    private TokenState load(Integer userId) {
+        try {
+            List<Object[]> rows = userRepository.findTokenState(userId);
+            if (rows.isEmpty()) {
+                states.put(userId, REVOKED);
+            } else {
+                Object[] row = rows.get(0);
+                put(userId, row[1] != null ? (Integer) row[1] : 0, Boolean.TRUE.equals(row[2]));
+            }
+            return states.get(userId);
+        } catch (Exception e) {
+            // Refused, not cached : the next request tries again
+            System.err.println("❌ Error loading token state of user " + userId + ": " + e.getMessage());
+            return REVOKED;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.user-cache.refresh-ms:60000}")
+    public void reload() {
+        try {
+            Set<Integer> loaded = new HashSet<>();
+            for (Object[] row : userRepository.findTokenStates()) {
+                Integer userId = (Integer) row[0];
+                put(userId, row[1] != null ? (Integer) row[1] : 0, Boolean.TRUE.equals(row[2]));
+                loaded.add(userId);
+            }
+            // Users deleted on another node. An entry added meanwhile only costs one lookup of its user
+            states.keySet().removeIf(userId -> !loaded.contains(userId));
+        } catch (Exception e) {
+            // The previous states stay in use, users missing from them are looked up one by one
+            System.err.println("❌ Error loading user token states: " + e.getMessage());
+        }
+    }
+}
@@ -10,6 +10,7 @@ import com.na.medical_mobile_app.repositories.CityRepository;
 import com.na.medical_mobile_app.repositories.GovernorateRepository;
 import com.na.medical_mobile_app.repositories.UserRepository;
 import com.na.medical_mobile_app.security.PasswordGenerator;
+import com.na.medical_mobile_app.security.UserTokenCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -31,6 +32,8 @@ public class AdminService {
     private CityRepository cityRepository;
     @Autowired
     private DoctorHelperService doctorHelperService;
+    @Autowired
+    private UserTokenCache userTokenCache;
 
 
 //-----------------------------------Creating a doctor--------------------------------------------------------------------
@@ -54,8 +57,11 @@ public ResponseEntity<?> createDoctor(DoctorCreationRequest request) {
             doctorHelperService.populateDoctorFields(existingUser, request);
             existingUser.setPassword(hashedPassword);
             existingUser.setIsActive(true);
+            // Tokens issued before the reactivation stay revoked
+            existingUser.setTokenVersion(existingUser.getTokenVersion() + 1);
             existingUser.setUpdatedAt(LocalDateTime.now());
             userRepository.save(existingUser);
+            userTokenCache.update(existingUser);
 
             DoctorResponseDTO responseDTO = new DoctorResponseDTO(
                     existingUser.getName(),
@@ -78,6 +84,7 @@ public ResponseEntity<?> createDoctor(DoctorCreationRequest request) {
         doctor.setIsActive(true);
         doctor.setCreatedAt(LocalDateTime.now());
         userRepository.save(doctor);
+        userTokenCache.update(doctor);
 
         DoctorResponseDTO responseDTO = new DoctorResponseDTO(
                 doctor.getName(),
@@ -134,6 +141,33 @@ public ResponseEntity<?> createDoctor(DoctorCreationRequest request) {
         }
 
         userRepository.delete(user);
+        userTokenCache.revoke(id);
         return ResponseEntity.ok("Demande de création de compte supprimée avec succès.");
     }
+//--------------------------------------------Deactivate a user---------------------------------------------------------------
+    /**
+     * Deactivates the account and revokes its tokens : the version bump makes every token already issued stale,
+     * on this node straight away and on the others at their next cache reload.
+     */
+    public ResponseEntity<?> deactivateUser(Integer id) {
+        User user = userRepository.findById(id).orElse(null);
+
+        if (user == null)
+        {
+            return ResponseEntity.badRequest().body("Aucun utilisateur trouvé.");
+        }
+        if (!Boolean.TRUE.equals(user.getIsActive()))
+        {
+            return ResponseEntity.badRequest().body("Compte déjà désactivé.");
+        }
+
+        user.setIsActive(false);
+        user.setTokenVersion(user.getTokenVersion() + 1);
+        user.setUpdatedAt(LocalDateTime.now());
+        userRepository.save(user);
+        userTokenCache.update(user);
+
+        System.out.println("🔒 Deactivated user: " + user.getEmail());
+        return ResponseEntity.ok("Compte désactivé avec succès.");
+    }
 }
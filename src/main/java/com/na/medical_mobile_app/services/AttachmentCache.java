@@ -0,0 +1,346 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.security.DecryptedContent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decrypted attachments kept off-heap (direct buffers), keyed by attachment id.
+ *
+ * Bounded by total bytes with LRU eviction, and every entry expires a fixed time after it was loaded
+ * whatever its use, so decrypted PHI never stays in memory for long. Buffers are zeroed when the last
+ * reader is done with an evicted entry; a stream in progress keeps its entry alive until it is closed.
+ *
+ * A miss never waits for a decryption : it is served from the encrypted file, chunk by chunk, and a full-body
+ * read also queues the attachment to be decrypted into the cache in the background. Range reads (video seeks)
+ * don't fill it, so they keep their one-chunk memory bound.
+ */
+@Component
+public class AttachmentCache {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${attachments.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${attachments.cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${attachments.cache.max-entry-bytes:67108864}")
+    private long maxEntryBytes;
+
+    @Value("${attachments.cache.ttl-minutes:10}")
+    private long ttlMinutes;
+
+    @Value("${attachments.cache.fill-threads:1}")
+    private int fillThreads;
+
+    @Value("${attachments.cache.fill-queue-capacity:50}")
+    private int fillQueueCapacity;
+
+    // Access ordered, the first entry is the least recently used one. Guarded by "this"
+    private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private ThreadPoolExecutor fillExecutor;
+    // Attachments queued or being decrypted, one fill per attachment until it is done
+    private final Set<Integer> filling = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong tooLarge = new AtomicLong();
+
+    public interface Loader {
+        DecryptedContent open() throws Exception;
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        fillExecutor = new ThreadPoolExecutor(fillThreads, fillThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(fillQueueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "attachment-cache-fill-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        fillExecutor.shutdownNow();
+    }
+
+    //-----------------------------------Lookups-----------------------------------------------------------------------
+    /**
+     * Returns the cached content, or opens it through {@code loader}. With {@code fill}, a miss also queues the
+     * attachment to be decrypted into the cache for the next requests. The caller closes what is returned.
+     */
+    public DecryptedContent getOrLoad(Integer attachmentId, Loader loader, boolean fill) throws Exception {
+        if (!enabled) {
+            return loader.open();
+        }
+        DecryptedContent cached = lookup(attachmentId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        if (fill) {
+            scheduleFill(attachmentId, loader);
+        }
+        return loader.open();
+    }
+
+    private void scheduleFill(Integer attachmentId, Loader loader) {
+        if (!filling.add(attachmentId)) {
+            return;
+        }
+        try {
+            fillExecutor.execute(() -> {
+                try {
+                    fill(attachmentId, loader);
+                } catch (Exception e) {
+                    System.err.println("⚠️ Could not cache attachment " + attachmentId + ": " + e.getMessage());
+                } finally {
+                    filling.remove(attachmentId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full : this one stays uncached, a later read queues it again
+            filling.remove(attachmentId);
+        }
+    }
+
+    private void fill(Integer attachmentId, Loader loader) throws Exception {
+        synchronized (this) {
+            Entry entry = entries.get(attachmentId);
+            if (entry != null && !entry.isExpired()) {
+                return;
+            }
+        }
+        try (DecryptedContent source = loader.open()) {
+            if (source.getLength() > maxEntryBytes || source.getLength() > maxBytes) {
+                tooLarge.incrementAndGet();
+                return;
+            }
+            store(attachmentId, decrypt(source));
+        }
+    }
+
+    private synchronized DecryptedContent lookup(Integer attachmentId) {
+        Entry entry = entries.get(attachmentId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            remove(attachmentId);
+            expirations.incrementAndGet();
+            return null;
+        }
+        return entry.newHandle();
+    }
+
+    private ByteBuffer decrypt(DecryptedContent source) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) source.getLength());
+        byte[] chunk = new byte[COPY_BUFFER_SIZE];
+        try (InputStream in = source.openStream()) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.put(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            wipe(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private synchronized void store(Integer attachmentId, ByteBuffer buffer) {
+        remove(attachmentId);
+        Entry entry = new Entry(buffer, System.currentTimeMillis() + ttlMinutes * 60_000);
+        entries.put(attachmentId, entry);
+        totalBytes += entry.size;
+        loads.incrementAndGet();
+
+        Iterator<Map.Entry<Integer, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Integer, Entry> candidate = eldest.next();
+            if (candidate.getValue() == entry) {
+                continue;
+            }
+            eldest.remove();
+            totalBytes -= candidate.getValue().size;
+            candidate.getValue().release();
+            evictions.incrementAndGet();
+        }
+    }
+
+    //-----------------------------------Eviction----------------------------------------------------------------------
+    /** Drops an attachment, e.g. when it is deleted. Streams already open finish normally. */
+    public synchronized void evict(Integer attachmentId) {
+        if (remove(attachmentId)) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    private boolean remove(Integer attachmentId) {
+        Entry entry = entries.remove(attachmentId);
+        if (entry == null) {
+            return false;
+        }
+        totalBytes -= entry.size;
+        entry.release();
+        return true;
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpired() {
+        List<Integer> expired = new ArrayList<>();
+        synchronized (this) {
+            entries.forEach((id, entry) -> {
+                if (entry.isExpired()) {
+                    expired.add(id);
+                }
+            });
+            expired.forEach(this::remove);
+        }
+        expirations.addAndGet(expired.size());
+    }
+
+    //-----------------------------------Metrics-----------------------------------------------------------------------
+    public Map<String, Object> getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", totalBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("loads", loads.get());
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("tooLarge", tooLarge.get());
+        stats.put("filling", filling.size());
+        return stats;
+    }
+
+    private static void wipe(ByteBuffer buffer) {
+        byte[] zeros = new byte[COPY_BUFFER_SIZE];
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put(zeros, 0, Math.min(zeros.length, buffer.remaining()));
+        }
+    }
+
+    //-----------------------------------Entries-----------------------------------------------------------------------
+    private static class Entry {
+        private final ByteBuffer buffer;
+        private final long size;
+        private final long expiresAt;
+        // One reference for the cache itself plus one per open handle
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Entry(ByteBuffer buffer, long expiresAt) {
+            this.buffer = buffer;
+            this.size = buffer.capacity();
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+        // Only called under the cache lock while the cache still holds its reference
+        Handle newHandle() {
+            references.incrementAndGet();
+            return new Handle(this);
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                wipe(buffer);
+            }
+        }
+    }
+
+    private static class Handle implements DecryptedContent {
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Handle(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public long getLength() {
+            return entry.size;
+        }
+
+        @Override
+        public InputStream openStream(long start, long end) {
+            if (start < 0 || end > entry.size || start > end) {
+                throw new IllegalArgumentException("Invalid range " + start + "-" + end + " for length " + entry.size);
+            }
+            ByteBuffer view = entry.buffer.asReadOnlyBuffer();
+            view.limit((int) end).position((int) start);
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return view.hasRemaining() ? view.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (!view.hasRemaining()) {
+                        return -1;
+                    }
+                    int count = Math.min(len, view.remaining());
+                    view.get(b, off, count);
+                    return count;
+                }
+
+                @Override
+                public int available() {
+                    return view.remaining();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                entry.release();
+            }
+        }
+    }
+}
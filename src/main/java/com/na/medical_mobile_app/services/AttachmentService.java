@@ -1,33 +1,102 @@
 package com.na.medical_mobile_app.services;
 import com.na.medical_mobile_app.DTOs.MedicalFormRequest;
+import com.na.medical_mobile_app.DTOs.StagedAttachment;
+import com.na.medical_mobile_app.entities.EncryptionFormat;
 import com.na.medical_mobile_app.entities.FileAttachment;
+import com.na.medical_mobile_app.entities.FormStatus;
 import com.na.medical_mobile_app.entities.MedicalForm;
 import com.na.medical_mobile_app.entities.User;
 import com.na.medical_mobile_app.repositories.FileAttachmentRepository;
 import com.na.medical_mobile_app.repositories.MedicalFormRepository;
 import com.na.medical_mobile_app.security.CryptoUtils;
+import com.na.medical_mobile_app.security.DecryptedContent;
+import com.na.medical_mobile_app.security.EncryptedFileFormat;
+import com.na.medical_mobile_app.security.EncryptedFileReader;
+import com.na.medical_mobile_app.security.KeyRing;
+import com.na.medical_mobile_app.storage.BlobStore;
+import com.na.medical_mobile_app.utils.LimitedInputStream;
+import com.na.medical_mobile_app.utils.Mp4FastStart;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
 import javax.crypto.SecretKey;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import org.springframework.web.multipart.MultipartFile;
 
 @Service
 public class AttachmentService {
 
+    public static final long MAX_MRI_PHOTO_SIZE = 10 * 1024 * 1024;
+    public static final long MAX_SEIZURE_VIDEO_SIZE = 50 * 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     @Autowired
     private FileAttachmentRepository fileAttachmentRepository;
     @Autowired
     private MedicalFormRepository medicalFormRepository;
+    @Autowired
+    private KeyRing keyRing;
+    @Autowired
+    private AttachmentCache attachmentCache;
+    @Autowired
+    private ContentStoreService contentStoreService;
+    @Autowired
+    @Qualifier("attachmentBlobStore")
+    private BlobStore attachmentStore;
 
+    // 0 means one thread per core
+    @Value("${attachments.encryption.parallelism:0}")
+    private int encryptionParallelism;
+
+    // Bounded pool sealing chunks for every upload, so concurrent uploads share the cores instead of oversubscribing
+    private ForkJoinPool chunkPool;
+    // Runs whole files side by side (MRI photo and video of one submission)
+    private ExecutorService fileExecutor;
+
+    @PostConstruct
+    public void startEncryptionPools() {
+        int parallelism = encryptionParallelism > 0 ? encryptionParallelism : Runtime.getRuntime().availableProcessors();
+        chunkPool = new ForkJoinPool(parallelism);
+        AtomicInteger threadCount = new AtomicInteger();
+        fileExecutor = Executors.newFixedThreadPool(Math.max(2, parallelism / 2), runnable -> {
+            Thread thread = new Thread(runnable, "attachment-encrypt-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stopEncryptionPools() {
+        fileExecutor.shutdown();
+        chunkPool.shutdown();
+    }
 
 
   //----------------------------------Attachement by ID-------------------------------------------------------------------------
@@ -37,88 +106,327 @@ public class AttachmentService {
   }
 
     //-------------------------------Extracting the actual attachement to controller-----------------------------------------------
+    /**
+     * Opens the attachment for streaming or range reads, from the decrypted cache when it is there.
+     * {@code fullBody} : the whole file is about to be read, worth caching for the next requests.
+     * The caller closes the returned content.
+     */
+    public DecryptedContent openAttachmentContent(FileAttachment attachment, boolean fullBody) throws Exception {
+        return attachmentCache.getOrLoad(attachment.getAttachmentId(), () -> openAttachmentReader(attachment), fullBody);
+    }
+
+    public EncryptedFileReader openAttachmentReader(FileAttachment attachment) throws Exception {
+        return EncryptedFileReader.open(attachmentStore.openChannel(attachment.getFilePath()), keyRing);
+    }
+
  public byte[] getDecryptedAttachmentBytes(Integer attachmentId) throws Exception {
      FileAttachment attachment = fileAttachmentRepository.findById(attachmentId)
              .orElseThrow(() -> new IllegalArgumentException("Attachment not found"));
 
-     Path path = Paths.get("encrypted-uploads").resolve(attachment.getFilePath());
-     byte[] encryptedBytes = Files.readAllBytes(path);
+     // Reads both the chunked format and legacy whole-file AES
+     try (DecryptedContent content = openAttachmentContent(attachment, true);
+          InputStream in = content.openStream()) {
+         return in.readAllBytes();
+     }
+ }
 
-     SecretKey key = CryptoUtils.loadSecretKey();
-     Cipher cipher = Cipher.getInstance("AES");
-     cipher.init(Cipher.DECRYPT_MODE, key);
+//---------------------------------Deleting an attachment-----------------------------------------------------------------------
+    /**
+     * Deletes an attachment of a form not yet reviewed, by the doctor who submitted the form.
+     * The files and the cached copy go once the transaction has committed : a rollback leaves them in place.
+     */
+    @Transactional
+    public void deleteAttachment(Integer attachmentId, User user) {
+        FileAttachment attachment = fileAttachmentRepository.findById(attachmentId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Attachment not found: " + attachmentId));
+        MedicalForm form = attachment.getForm();
+        if (form == null || !form.getDoctor().getUserId().equals(user.getUserId())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You don't have permission to delete this attachment");
+        }
+        if (form.getStatus() != FormStatus.SUBMITTED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "The form is already being reviewed");
+        }
 
-     return cipher.doFinal(encryptedBytes);
- }
+        // The form cascades to its attachments, it must not save this one again on flush
+        form.getAttachments().remove(attachment);
+        fileAttachmentRepository.delete(attachment);
+        // A shared blob is deleted by the garbage collector once nothing references it
+        String ownedFile = null;
+        if (attachment.getContentHash() != null) {
+            contentStoreService.releaseReference(attachment.getContentHash());
+        } else {
+            ownedFile = attachment.getFilePath();
+        }
+
+        String filePath = ownedFile;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                attachmentCache.evict(attachmentId);
+                if (filePath != null) {
+                    deleteStoredFiles(filePath);
+                }
+            }
+        });
+        System.out.println("🗑️ Deleted attachment " + attachmentId);
+    }
 
+    // Left behind on failure : an orphan file costs space, not correctness
+    private void deleteStoredFiles(String filePath) {
+        try {
+            attachmentStore.delete(filePath);
+            for (String renditionKey : ImageRenditionService.renditionKeys(filePath)) {
+                attachmentStore.delete(renditionKey);
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not delete " + filePath + ": " + e.getMessage());
+        }
+    }
 
-//---------------------------------Saving an encrypted attachement--------------------------------------------------------------
 
-    public void encryptAndSaveFile(InputStream fileInputStream, String encryptedFileName) throws Exception {
-        SecretKey secretKey = CryptoUtils.loadSecretKey();
+//---------------------------------Saving an encrypted attachement--------------------------------------------------------------
 
-        Cipher cipher = Cipher.getInstance("AES");
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+    /**
+     * Writes the stream as a chunked AES-GCM file (see EncryptedFileFormat).
+     * Chunks are sealed in parallel on the shared chunk pool and written in order.
+     */
+    public void encryptAndSaveFile(InputStream fileInputStream, Path outputPath) throws Exception {
+        // Keys come from the in-memory key ring, no disk access here
+        String keyId = keyRing.getActiveKeyId();
+        SecretKey secretKey = keyRing.getKey(keyId);
 
-        Path outputPath = Paths.get("encrypted-uploads", encryptedFileName);
         Files.createDirectories(outputPath.getParent());
 
-        try (FileOutputStream fos = new FileOutputStream(outputPath.toFile());
-             CipherOutputStream cos = new CipherOutputStream(fos, cipher)) {
-
-            byte[] buffer = new byte[4096];
+        try (OutputStream out = EncryptedFileFormat.newEncryptingStream(
+                outputPath, keyId, secretKey, chunkPool, chunkPool.getParallelism() * 2)) {
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
             int bytesRead;
             while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                cos.write(buffer, 0, bytesRead);
+                out.write(buffer, 0, bytesRead);
             }
         }
     }
-//---------------------------------Saving attachments : First submission M->N------------------------------------------------
-    public List<FileAttachment> saveAttachments(  MedicalForm medicalForm,
-                                                  MultipartFile mriPhoto,
-                                                  MultipartFile seizureVideo,
-                                                  User uploadedBy) throws Exception{
-        List<FileAttachment> attachments = new ArrayList<>();
+//---------------------------------Staging attachments : upload stage, no transaction----------------------------------------
+    /**
+     * Encrypts the uploaded files to disk without touching the database.
+     * If one file fails, the ones already written are removed before rethrowing.
+     */
+    public List<StagedAttachment> stageAttachments(MultipartFile mriPhoto, MultipartFile seizureVideo) throws Exception {
+        List<Callable<StagedAttachment>> tasks = new ArrayList<>();
+        if (mriPhoto != null && !mriPhoto.isEmpty()) {
+            tasks.add(() -> stageFile(mriPhoto));
+        }
+        if (seizureVideo != null && !seizureVideo.isEmpty()) {
+            tasks.add(() -> stageFile(seizureVideo));
+        }
+        if (tasks.size() <= 1) {
+            List<StagedAttachment> staged = new ArrayList<>();
+            for (Callable<StagedAttachment> task : tasks) {
+                staged.add(task.call());
+            }
+            return staged;
+        }
+
+        // Both files are encrypted at the same time, each on its own thread
+        List<StagedAttachment> staged = new ArrayList<>();
+        Exception failure = null;
+        for (Future<StagedAttachment> result : fileExecutor.invokeAll(tasks)) {
+            try {
+                staged.add(result.get());
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        if (failure != null) {
+            discardStagedAttachments(staged);
+            throw failure;
+        }
+        return staged;
+    }
+
+    private StagedAttachment stageFile(MultipartFile file) throws Exception {
+        try (InputStream in = file.getInputStream()) {
+            StagedAttachment staged = storeContent(in, Long.MAX_VALUE, null, file.getOriginalFilename(), file.getContentType());
+            System.out.println("🔒 Staged " + file.getOriginalFilename() + " as " + staged.getStoredFileName());
+            return staged;
+        }
+    }
+
+    /**
+     * Encrypts a part read straight off the request body. The size is unknown up front,
+     * so the limit is enforced while reading and the partial file is removed if it is exceeded.
+     */
+    public StagedAttachment stageStream(InputStream in, String originalFileName, String mimeType,
+                                        long maxBytes, String limitMessage) throws Exception {
+        StagedAttachment staged = storeContent(in, maxBytes, limitMessage, originalFileName, mimeType);
+        System.out.println("🔒 Streamed " + originalFileName + " as " + staged.getStoredFileName() + " (" + staged.getFileSize() + " bytes)");
+        return staged;
+    }
+
+    /**
+     * Encrypts to a local temp file while hashing the plaintext on the way through, then files it in the
+     * content store under the content id of that hash. Content already stored is not kept twice, the temp file is dropped.
+     * Videos get their moov box moved to the front first, the hash is then the one of the remuxed file.
+     */
+    private StagedAttachment storeContent(InputStream in, long maxBytes, String limitMessage,
+                                          String originalFileName, String mimeType) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        LimitedInputStream limited = new LimitedInputStream(in, maxBytes, limitMessage);
+        Path tempFile = contentStoreService.newTempFile();
+        String blobKey;
+        String contentHash;
+        Mp4FastStart.MediaInfo mediaInfo;
         try {
+            encryptAndSaveFile(new DigestInputStream(limited, digest), tempFile);
+            contentHash = contentStoreService.contentId(digest.digest());
+            MessageDigest remuxDigest = MessageDigest.getInstance("SHA-256");
+            Path remuxed = tempFile.resolveSibling(tempFile.getFileName() + ".faststart");
+            mediaInfo = prepareVideo(tempFile, remuxed, mimeType, remuxDigest);
+            if (mediaInfo != null && mediaInfo.isRemuxed()) {
+                Files.move(remuxed, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                contentHash = contentStoreService.contentId(remuxDigest.digest());
+            }
+            blobKey = contentStoreService.commit(contentHash, tempFile, limited.getCount());
+        } catch (Exception e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        StagedAttachment staged = new StagedAttachment(originalFileName, blobKey, mimeType, limited.getCount());
+        staged.setContentHash(contentHash);
+        staged.setMediaInfo(mediaInfo);
+        // The stored blob, not the temp file : content already stored may have been encrypted with another key
+        describeStoredFile(staged);
+        return staged;
+    }
 
-                if (mriPhoto != null && !mriPhoto.isEmpty()) {
-                    String encryptedFileName = "mri_photo_" + System.currentTimeMillis() + ".enc";
-                    encryptAndSaveFile(mriPhoto.getInputStream(), encryptedFileName);
-
-                    FileAttachment mriAttachment = createAttachment(
-                            medicalForm,
-                            mriPhoto.getOriginalFilename(),
-                            encryptedFileName,
-                            mriPhoto.getContentType(),
-                            mriPhoto.getSize(),
-                            uploadedBy
-                    );
-                    attachments.add(fileAttachmentRepository.save(mriAttachment));
+//---------------------------------Video fast-start : moov before mdat------------------------------------------------------
+    /**
+     * For MP4 / QuickTime videos in a local encrypted file : returns duration, resolution and codec, and when
+     * the moov box comes after the media data writes a copy with moov in front to {@code remuxed}, so playback
+     * can start from the first range request (isRemuxed() is then true and the caller swaps the files).
+     * {@code remuxDigest}, when given, receives the new plaintext. Returns null for anything that is not an MP4.
+     * Never fails the upload, a file that can't be remuxed is kept as it is.
+     */
+    public Mp4FastStart.MediaInfo prepareVideo(Path encryptedFile, Path remuxed, String mimeType, MessageDigest remuxDigest) {
+        if (mimeType == null || !mimeType.startsWith("video/")) {
+            return null;
+        }
+        try {
+            Mp4FastStart.MediaInfo mediaInfo;
+            try (EncryptedFileReader reader = EncryptedFileReader.open(
+                    FileChannel.open(encryptedFile, StandardOpenOption.READ), keyRing)) {
+                Mp4FastStart.Analysis analysis = Mp4FastStart.analyze(reader);
+                if (analysis == null) {
+                    return null;
                 }
-
-                if (seizureVideo != null && !seizureVideo.isEmpty()) {
-                    String encryptedFileName = "seizure_video_" + System.currentTimeMillis() + ".enc";
-                    encryptAndSaveFile(seizureVideo.getInputStream(), encryptedFileName);
-
-                    FileAttachment videoAttachment = createAttachment(
-                            medicalForm,
-                            seizureVideo.getOriginalFilename(),
-                            encryptedFileName,
-                            seizureVideo.getContentType(),
-                            seizureVideo.getSize(),
-                            uploadedBy
-                    );
-                    attachments.add(fileAttachmentRepository.save(videoAttachment));
+                mediaInfo = analysis.getMediaInfo();
+                if (!analysis.needsFastStart()) {
+                    return mediaInfo;
+                }
+                String keyId = keyRing.getActiveKeyId();
+                OutputStream encrypted = EncryptedFileFormat.newEncryptingStream(
+                        remuxed, keyId, keyRing.getKey(keyId), chunkPool, chunkPool.getParallelism() * 2);
+                try (OutputStream out = remuxDigest != null ? new DigestOutputStream(encrypted, remuxDigest) : encrypted) {
+                    Mp4FastStart.remux(reader, analysis, out);
                 }
+            }
+            mediaInfo.setRemuxed(true);
+            System.out.println("🎬 Moved moov to the front of " + encryptedFile.getFileName());
+            return mediaInfo;
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not prepare video " + encryptedFile.getFileName() + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(remuxed);
+            } catch (IOException ignored) {
+                // left for the temp file sweep
+            }
+            return null;
+        }
+    }
 
+    /** Reads video metadata of a stored attachment, e.g. a finished resumable upload. Null if not an MP4 */
+    public Mp4FastStart.MediaInfo probeVideo(String key, String mimeType) {
+        if (mimeType == null || !mimeType.startsWith("video/")) {
+            return null;
         }
-        catch (Exception e) {
-            e.printStackTrace();
+        try (EncryptedFileReader reader = EncryptedFileReader.open(attachmentStore.openChannel(key), keyRing)) {
+            Mp4FastStart.Analysis analysis = Mp4FastStart.analyze(reader);
+            return analysis != null ? analysis.getMediaInfo() : null;
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not read video metadata of " + key + ": " + e.getMessage());
+            return null;
         }
+    }
 
+//---------------------------------Persisting staged attachments : database stage--------------------------------------------
+    /**
+     * Creates the FileAttachment rows for files written by {@link #stageAttachments}.
+     * Meant to be called from inside the submission transaction.
+     */
+    public List<FileAttachment> persistStagedAttachments(MedicalForm medicalForm,
+                                                         List<StagedAttachment> stagedAttachments,
+                                                         User uploadedBy) {
+        List<FileAttachment> attachments = new ArrayList<>();
+        for (StagedAttachment staged : stagedAttachments) {
+            FileAttachment attachment = createAttachment(
+                    medicalForm,
+                    staged.getOriginalFileName(),
+                    staged.getStoredFileName(),
+                    staged.getMimeType(),
+                    staged.getFileSize(),
+                    uploadedBy
+            );
+            attachment.setEncryptionFormat(staged.getEncryptionFormat());
+            attachment.setKeyId(staged.getKeyId());
+            if (staged.getMediaInfo() != null) {
+                attachment.setDurationMs(staged.getMediaInfo().getDurationMs());
+                attachment.setWidth(staged.getMediaInfo().getWidth());
+                attachment.setHeight(staged.getMediaInfo().getHeight());
+                attachment.setCodec(staged.getMediaInfo().getCodec());
+            }
+            if (staged.getContentHash() != null) {
+                attachment.setContentHash(staged.getContentHash());
+                contentStoreService.addReference(staged.getContentHash());
+            }
+            attachments.add(fileAttachmentRepository.save(attachment));
+        }
         return attachments;
     }
 
+//---------------------------------Compensation : removing orphaned encrypted files------------------------------------------
+    public void discardStagedAttachments(List<StagedAttachment> stagedAttachments) {
+        for (StagedAttachment staged : stagedAttachments) {
+            if (staged.getUploadId() != null) {
+                // Still owned by its upload session, the client may reference it again
+                continue;
+            }
+            if (staged.getContentHash() != null) {
+                // Possibly shared with other attachments, the garbage collector removes it if unreferenced
+                continue;
+            }
+            try {
+                attachmentStore.delete(staged.getStoredFileName());
+                System.out.println("🧹 Removed orphaned file: " + staged.getStoredFileName());
+            } catch (IOException e) {
+                System.err.println("⚠️ Could not remove orphaned file " + staged.getStoredFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+//---------------------------------Saving attachments : First submission M->N------------------------------------------------
+    public List<FileAttachment> saveAttachments(  MedicalForm medicalForm,
+                                                  MultipartFile mriPhoto,
+                                                  MultipartFile seizureVideo,
+                                                  User uploadedBy) throws Exception{
+        List<StagedAttachment> staged = stageAttachments(mriPhoto, seizureVideo);
+        try {
+            return persistStagedAttachments(medicalForm, staged, uploadedBy);
+        } catch (Exception e) {
+            discardStagedAttachments(staged);
+            throw e;
+        }
+    }
+
  //---------------------------------Creating an attachement in the right form : 1st M->N-------------------------------------
     private FileAttachment createAttachment(MedicalForm medicalForm, String fileName, String filePath, String mimeType, Long fileSize, User uploadedBy) {
         FileAttachment attachment = new FileAttachment();
@@ -142,6 +450,17 @@ public class AttachmentService {
 
         return attachment;
     }
+ // Records format and key from the file header, while staging : the submission transaction does no storage I/O.
+ // Files from resumable uploads started before the chunked format may still be legacy
+    public void describeStoredFile(StagedAttachment staged) {
+        try (SeekableByteChannel channel = attachmentStore.openChannel(staged.getStoredFileName())) {
+            EncryptedFileFormat.Header header = EncryptedFileFormat.readHeader(channel);
+            staged.setEncryptionFormat(header != null ? EncryptionFormat.AES_GCM_CHUNKED : EncryptionFormat.AES_ECB_LEGACY);
+            staged.setKeyId(header != null ? header.getKeyId() : CryptoUtils.DEFAULT_KEY_ID);
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not read header of " + staged.getStoredFileName() + ": " + e.getMessage());
+        }
+    }
  //------------------------------------Getting the right attachment Form : N->M--------------------------------------------
          public List<String> extractFilePaths(List<FileAttachment> attachments) {
              return attachments.stream()
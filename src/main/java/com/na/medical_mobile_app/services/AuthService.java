@@ -7,10 +7,9 @@ import com.na.medical_mobile_app.entities.Role;
 import com.na.medical_mobile_app.entities.User;
 import com.na.medical_mobile_app.repositories.UserRepository;
 import com.na.medical_mobile_app.security.JwtTokenUtil;
-import com.na.medical_mobile_app.security.JwtUserDetailsService;
+import com.na.medical_mobile_app.security.UserTokenCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
@@ -38,7 +37,7 @@ public class AuthService {
     private JwtTokenUtil jwtTokenUtil;
 
     @Autowired
-    private JwtUserDetailsService userDetailsService;
+    private UserTokenCache userTokenCache;
 
 
     public ResponseEntity<?> login(LoginRequest loginRequest) {
@@ -56,9 +55,8 @@ public class AuthService {
                 return ResponseEntity.status(401).body("Email ou mot de passe invalide");
             }
 
-            // Generate JWT token
-            UserDetails userDetails = userDetailsService.loadUserByUsername(user.getEmail());
-            String token = jwtTokenUtil.generateToken(userDetails);
+            // Generate JWT token, it carries the id, role and token version checked by JwtRequestFilter
+            String token = jwtTokenUtil.generateToken(user);
 
             LoginResponse response = new LoginResponse(
                     "Connexion réussie",
@@ -117,6 +115,7 @@ public class AuthService {
             
             logger.info("Saving admin user to database...");
             userRepository.save(newAdmin);
+            userTokenCache.update(newAdmin);
             
             logger.info("Admin registration successful for: {}", request.email);
             Map<String, String> response = new HashMap<>();
@@ -0,0 +1,91 @@
+package com.na.medical_mobile_app.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Deletes stored blobs no attachment references any more, and temp files left behind by interrupted uploads.
+ * Blobs get a grace period after their last use so a submission between staging and commit keeps its file.
+ */
+@Component
+public class BlobGarbageCollector {
+
+    @Autowired
+    private ContentStoreService contentStoreService;
+
+    @Value("${attachments.blobs.gc-grace-minutes:60}")
+    private long graceMinutes;
+
+    @Value("${attachments.blobs.gc-batch-size:100}")
+    private int batchSize;
+
+    @Scheduled(initialDelay = 120000, fixedDelayString = "${attachments.blobs.gc-interval-ms:3600000}")
+    public void collectGarbage() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(graceMinutes);
+        int collected = 0;
+        try {
+            List<String> candidates;
+            do {
+                candidates = contentStoreService.findCollectable(cutoff, batchSize);
+                int collectedInBatch = 0;
+                for (String contentHash : candidates) {
+                    try {
+                        if (contentStoreService.collect(contentHash, cutoff)) {
+                            collectedInBatch++;
+                        }
+                    } catch (Exception e) {
+                        System.err.println("⚠️ Could not collect blob " + contentHash + ": " + e.getMessage());
+                    }
+                }
+                collected += collectedInBatch;
+                // Everything skipped or failed, the next run will see them again
+                if (collectedInBatch == 0) {
+                    break;
+                }
+            } while (candidates.size() == batchSize);
+        } catch (Exception e) {
+            System.err.println("❌ Error collecting unreferenced blobs: " + e.getMessage());
+        }
+
+        int removedTemp = purgeTempFiles();
+        if (collected > 0 || removedTemp > 0) {
+            System.out.println("🧹 Collected " + collected + " unreferenced blobs and " + removedTemp + " stale temp files");
+        }
+    }
+
+    private int purgeTempFiles() {
+        Path tempDirectory = contentStoreService.getTempDirectory();
+        if (!Files.isDirectory(tempDirectory)) {
+            return 0;
+        }
+        Instant cutoff = Instant.now().minus(graceMinutes, ChronoUnit.MINUTES);
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDirectory)) {
+            for (Path file : files) {
+                try {
+                    // Directories hold other files, e.g. resumable uploads in progress
+                    if (Files.isRegularFile(file) && Files.getLastModifiedTime(file).toInstant().isBefore(cutoff)
+                            && Files.deleteIfExists(file)) {
+                        removed++;
+                    }
+                } catch (IOException e) {
+                    System.err.println("⚠️ Could not remove temp file " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not list " + tempDirectory + ": " + e.getMessage());
+        }
+        return removed;
+    }
+}
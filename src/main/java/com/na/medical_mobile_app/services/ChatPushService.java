@@ -0,0 +1,169 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.DTOs.ChatMessageDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Pushes new chat messages to the clients watching a form, over STOMP (/topic/forms/{formId}/messages)
+ * or, for clients that cannot keep a WebSocket open, over Server-Sent Events.
+ * Messages are published once their transaction has committed, so a client never sees a message it cannot load.
+ * Messages saved on another node are republished here by {@link ClusterEventRelay}.
+ */
+@Service
+public class ChatPushService {
+
+    /** Published by {@link CommunicationService} when a message has been saved */
+    public record MessageCreated(ChatMessageDTO message) {}
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${chat.push.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs;
+
+    @Value("${chat.push.threads:2}")
+    private int threads;
+
+    @Value("${chat.push.queue-capacity:1000}")
+    private int queueCapacity;
+
+    // SSE subscribers per form
+    private final Map<Integer, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "chat-push-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdown();
+        emitters.values().forEach(set -> set.forEach(SseEmitter::complete));
+    }
+
+    //-----------------------------------Publishing--------------------------------------------------------------------
+    /**
+     * Runs after the commit of the transaction that saved the message, or straight away when there was none.
+     * Delivery happens on the push threads so a slow SSE client never holds up the request that sent the message.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageCreated(MessageCreated event) {
+        try {
+            executor.execute(() -> deliver(event.message()));
+        } catch (RejectedExecutionException e) {
+            // Clients catch up with the next history load
+            System.err.println("⚠️ Chat push queue full, message " + event.message().getMessageId() + " not pushed");
+        }
+    }
+
+    private void deliver(ChatMessageDTO message) {
+        Integer formId = message.getFormId();
+        try {
+            messagingTemplate.convertAndSend("/topic/forms/" + formId + "/messages", message);
+        } catch (Exception e) {
+            System.err.println("❌ STOMP push failed for form " + formId + ": " + e.getMessage());
+        }
+
+        sendToSubscribers(formId, () -> SseEmitter.event()
+                .id(String.valueOf(message.getMessageId()))
+                .name("message")
+                .data(message, MediaType.APPLICATION_JSON));
+    }
+
+    /** Tells the sender side which messages were read, on /topic/forms/{formId}/receipts or as "receipt" events */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessagesRead(CommunicationService.MessagesRead receipt) {
+        try {
+            executor.execute(() -> {
+                try {
+                    messagingTemplate.convertAndSend("/topic/forms/" + receipt.formId() + "/receipts", receipt);
+                } catch (Exception e) {
+                    System.err.println("❌ STOMP receipt failed for form " + receipt.formId() + ": " + e.getMessage());
+                }
+                sendToSubscribers(receipt.formId(), () -> SseEmitter.event()
+                        .name("receipt")
+                        .data(receipt, MediaType.APPLICATION_JSON));
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("⚠️ Chat push queue full, read receipt for form " + receipt.formId() + " not pushed");
+        }
+    }
+
+    // An event builder can only be built once, hence one per subscriber
+    private void sendToSubscribers(Integer formId, Supplier<SseEmitter.SseEventBuilder> event) {
+        Set<SseEmitter> subscribers = emitters.get(formId);
+        if (subscribers == null) {
+            return;
+        }
+        for (SseEmitter emitter : subscribers) {
+            try {
+                emitter.send(event.get());
+            } catch (IOException | IllegalStateException e) {
+                remove(formId, emitter);
+            }
+        }
+    }
+
+    //-----------------------------------SSE fallback------------------------------------------------------------------
+    public SseEmitter subscribe(Integer formId) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        emitters.compute(formId, (id, set) -> {
+            Set<SseEmitter> subscribers = set != null ? set : new CopyOnWriteArraySet<>();
+            subscribers.add(emitter);
+            return subscribers;
+        });
+        emitter.onCompletion(() -> remove(formId, emitter));
+        emitter.onTimeout(() -> remove(formId, emitter));
+        emitter.onError(error -> remove(formId, emitter));
+        return emitter;
+    }
+
+    private void remove(Integer formId, SseEmitter emitter) {
+        emitters.computeIfPresent(formId, (id, set) -> {
+            set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    // A periodic comment line keeps proxies from closing idle streams and detects clients that went away
+    @Scheduled(fixedDelayString = "${chat.push.sse-heartbeat-ms:25000}")
+    public void heartbeat() {
+        emitters.forEach((formId, subscribers) -> {
+            for (SseEmitter emitter : subscribers) {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    remove(formId, emitter);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,222 @@
+package com.na.medical_mobile_app.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.na.medical_mobile_app.repositories.CommunicationRepository;
+import com.na.medical_mobile_app.repositories.NotificationRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Carries the push events (chat messages and receipts, notification changes) to the other app nodes through
+ * Postgres LISTEN / NOTIFY, so a stream or STOMP session held on one node hears about changes committed on another,
+ * e.g. a notification created by the outbox dispatcher running elsewhere.
+ *
+ * The NOTIFY is sent in the transaction that publishes the event, so Postgres delivers it only if it commits.
+ * It carries ids, not the DTOs (payloads are limited to 8000 bytes) : the receiving nodes read the message or
+ * notification back and publish the same event locally, where the unread counters, the notification streams and
+ * the chat push listen for it as for their own.
+ *
+ * One pooled connection is kept for LISTEN. Events committed while it reconnects are not relayed : streams
+ * catch up with Last-Event-ID, counters with their periodic recount. Without Postgres the relay stays off and
+ * delivery is single-node.
+ */
+@Service
+public class ClusterEventRelay {
+
+    private static final String CHANNEL = "app_push_events";
+
+    // Events from this node are skipped when they come back
+    private final String nodeId = UUID.randomUUID().toString();
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private CommunicationRepository communicationRepository;
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Value("${cluster.relay.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cluster.relay.poll-ms:5000}")
+    private int pollMs;
+
+    @Value("${cluster.relay.reconnect-delay-ms:5000}")
+    private long reconnectDelayMs;
+
+    private volatile boolean running;
+    private volatile Thread listener;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            System.out.println("ℹ️ Cluster event relay disabled, pushes reach the clients of this node only");
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listen, "cluster-event-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+    }
+
+    //-----------------------------------Sending-----------------------------------------------------------------------
+    @EventListener
+    public void onMessageCreated(ChatPushService.MessageCreated event) {
+        send("message", payload -> payload.put("messageId", event.message().getMessageId()));
+    }
+
+    @EventListener
+    public void onMessagesRead(CommunicationService.MessagesRead event) {
+        send("receipt", payload -> payload.put("formId", event.formId())
+                .put("readerId", event.readerId())
+                .put("count", event.count())
+                .put("readAt", event.readAt().toString()));
+    }
+
+    @EventListener
+    public void onNotificationCreated(NotificationService.NotificationCreated event) {
+        send("notification-created", payload -> payload.put("userId", event.userId())
+                .put("notificationId", event.notification().getNotificationId()));
+    }
+
+    @EventListener
+    public void onNotificationUpdated(NotificationService.NotificationUpdated event) {
+        send("notification-updated", payload -> payload.put("userId", event.userId())
+                .put("notificationId", event.notification().getNotificationId()));
+    }
+
+    @EventListener
+    public void onNotificationsRead(NotificationService.NotificationsRead event) {
+        send("notifications-read", payload -> payload.put("userId", event.userId()).put("count", event.count()));
+    }
+
+    @EventListener
+    public void onNotificationDeleted(NotificationService.NotificationDeleted event) {
+        send("notification-deleted", payload -> payload.put("userId", event.userId()).put("wasUnread", event.wasUnread()));
+    }
+
+    private interface PayloadWriter {
+        void write(ObjectNode payload);
+    }
+
+    private void send(String type, PayloadWriter writer) {
+        // Events republished by the listener came from another node, they are not sent back
+        if (!running || Thread.currentThread() == listener) {
+            return;
+        }
+        ObjectNode payload = objectMapper.createObjectNode().put("node", nodeId).put("type", type);
+        writer.write(payload);
+        try {
+            // In the caller's transaction when there is one : delivered on commit, dropped on rollback
+            jdbcTemplate.query("SELECT pg_notify(?, ?)", (RowCallbackHandler) row -> { }, CHANNEL, payload.toString());
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not relay " + type + " event to the other nodes: " + e.getMessage());
+        }
+    }
+
+    //-----------------------------------Receiving---------------------------------------------------------------------
+    private void listen() {
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                PGConnection postgres;
+                try {
+                    postgres = connection.unwrap(PGConnection.class);
+                } catch (SQLException e) {
+                    System.out.println("ℹ️ Database is not Postgres, pushes reach the clients of this node only");
+                    running = false;
+                    return;
+                }
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                System.out.println("✅ Listening for push events of the other nodes");
+                while (running) {
+                    PGNotification[] notifications = postgres.getNotifications(pollMs);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        receive(notification.getParameter());
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("❌ Cluster event listener lost its connection: " + e.getMessage());
+                try {
+                    Thread.sleep(reconnectDelayMs);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Published with no transaction on this thread, so the transactional listeners run straight away
+    private void receive(String json) {
+        try {
+            JsonNode payload = objectMapper.readTree(json);
+            if (nodeId.equals(payload.path("node").asText())) {
+                return;
+            }
+            switch (payload.path("type").asText()) {
+                case "message" -> communicationRepository.findMessageById(payload.get("messageId").asInt())
+                        .ifPresent(message -> eventPublisher.publishEvent(new ChatPushService.MessageCreated(message)));
+                case "receipt" -> eventPublisher.publishEvent(new CommunicationService.MessagesRead(
+                        payload.get("formId").asInt(), payload.get("readerId").asInt(),
+                        payload.get("count").asInt(), LocalDateTime.parse(payload.get("readAt").asText())));
+                case "notification-created" -> notificationRepository.findDtoById(payload.get("notificationId").asInt())
+                        .ifPresent(notification -> eventPublisher.publishEvent(
+                                new NotificationService.NotificationCreated(payload.get("userId").asInt(), notification)));
+                case "notification-updated" -> notificationRepository.findDtoById(payload.get("notificationId").asInt())
+                        .ifPresent(notification -> eventPublisher.publishEvent(
+                                new NotificationService.NotificationUpdated(payload.get("userId").asInt(), notification)));
+                case "notifications-read" -> eventPublisher.publishEvent(new NotificationService.NotificationsRead(
+                        payload.get("userId").asInt(), payload.get("count").asInt()));
+                case "notification-deleted" -> eventPublisher.publishEvent(new NotificationService.NotificationDeleted(
+                        payload.get("userId").asInt(), payload.get("wasUnread").asBoolean()));
+                default -> System.err.println("⚠️ Unknown push event from another node: " + json);
+            }
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not handle push event from another node: " + e.getMessage());
+        }
+    }
+}
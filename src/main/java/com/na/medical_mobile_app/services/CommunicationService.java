@@ -1,10 +1,11 @@
 package com.na.medical_mobile_app.services;
 
 import com.na.medical_mobile_app.DTOs.ChatMessageDTO;
+import com.na.medical_mobile_app.DTOs.ConversationDTO;
 import com.na.medical_mobile_app.entities.Communication;
 import com.na.medical_mobile_app.entities.MedicalForm;
 import com.na.medical_mobile_app.entities.MessageType;
-import com.na.medical_mobile_app.entities.NotificationType;
+import com.na.medical_mobile_app.entities.OutboxEventType;
 import com.na.medical_mobile_app.entities.Role;
 import com.na.medical_mobile_app.entities.User;
 
@@ -12,22 +13,33 @@ import java.util.List;
 import com.na.medical_mobile_app.repositories.CommunicationRepository;
 import com.na.medical_mobile_app.repositories.MedicalFormRepository;
 import com.na.medical_mobile_app.repositories.UserRepository;
+import com.na.medical_mobile_app.security.DecryptedContent;
+import com.na.medical_mobile_app.storage.BlobStore;
+import com.na.medical_mobile_app.storage.LocalBlobStore;
+import com.na.medical_mobile_app.utils.AudioMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -35,6 +47,9 @@ import java.util.UUID;
 @Transactional
 public class CommunicationService {
 
+    /** Read receipt : everything {@code readerId} had received in the form up to {@code readAt} is read */
+    public record MessagesRead(Integer formId, Integer readerId, int count, LocalDateTime readAt) {}
+
     @Autowired
     private CommunicationRepository communicationRepository;
     
@@ -45,7 +60,23 @@ public class CommunicationService {
     private UserRepository userRepository;
     
     @Autowired
-    private NotificationService notificationService;
+    private OutboxService outboxService;
+
+    @Autowired
+    @Qualifier("audioBlobStore")
+    private BlobStore audioStore;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Value("${chat.history.default-page-size:50}")
+    private int defaultPageSize;
+
+    @Value("${chat.history.max-page-size:200}")
+    private int maxPageSize;
     
     /**
      * Send a new message
@@ -97,65 +128,97 @@ public class CommunicationService {
         Communication savedCommunication = communicationRepository.save(communication);
         System.out.println("Saved communication with ID: " + savedCommunication.getCommunicationId());
         
-        // Create notification for the receiver
-        System.out.println("Creating notification...");
-        notificationService.createChatNotification(savedCommunication);
+        // Notification for the receiver, created by the outbox dispatcher once this commits
+        outboxService.record(OutboxEventType.MESSAGE_SENT, savedCommunication.getCommunicationId());
         
-        // Convert to DTO and return
+        // Convert to DTO, push it to the open chats once committed and return
         ChatMessageDTO dto = convertToDTO(savedCommunication);
+        eventPublisher.publishEvent(new ChatPushService.MessageCreated(dto));
         System.out.println("Returning DTO with ID: " + dto.getMessageId());
         return dto;
     }
     
     /**
-     * Get all messages for a form
+     * Get all messages for a form, as DTO projections in a single query
      */
     public List<ChatMessageDTO> getMessagesForForm(Integer formId) {
-        MedicalForm form = medicalFormRepository.findById(formId)
-                .orElseThrow(() -> new RuntimeException("Form not found with ID: " + formId));
-                
-        List<Communication> communications = communicationRepository.findByFormOrderByCreatedAtAsc(form);
-        
-        List<ChatMessageDTO> chatMessages = new ArrayList<>();
-        for (Communication communication : communications) {
-            chatMessages.add(convertToDTO(communication));
+        if (!medicalFormRepository.existsById(formId)) {
+            throw new RuntimeException("Form not found with ID: " + formId);
         }
-        
-        return chatMessages;
+        return communicationRepository.findMessagesByForm(formId);
+    }
+
+    /**
+     * One page of a form's chat, oldest first, keyset paginated on (createdAt, communicationId) :
+     * no cursor gives the latest messages, beforeId the page older than that message (scrolling back)
+     * and afterId the messages newer than it (paging forward, or catching up after a reconnect).
+     * A page shorter than the limit means there is nothing more in that direction.
+     */
+    public List<ChatMessageDTO> getMessagesForForm(Integer formId, Integer beforeId, Integer afterId, Integer limit) {
+        if (beforeId != null && afterId != null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "beforeId and afterId cannot be combined");
+        }
+        if (!medicalFormRepository.existsById(formId)) {
+            throw new RuntimeException("Form not found with ID: " + formId);
+        }
+        int size = Math.max(1, Math.min(limit != null ? limit : defaultPageSize, maxPageSize));
+        Pageable page = PageRequest.of(0, size);
+
+        if (afterId != null) {
+            return communicationRepository.findMessagesByFormAfter(formId, findCursor(formId, afterId), afterId, page);
+        }
+        List<ChatMessageDTO> messages = beforeId != null
+                ? communicationRepository.findMessagesByFormBefore(formId, findCursor(formId, beforeId), beforeId, page)
+                : communicationRepository.findLatestMessagesByForm(formId, page);
+        // Fetched newest first to stop at the limit, returned in reading order
+        List<ChatMessageDTO> ordered = new ArrayList<>(messages);
+        Collections.reverse(ordered);
+        return ordered;
+    }
+
+    private LocalDateTime findCursor(Integer formId, Integer messageId) {
+        return communicationRepository.findCreatedAtInForm(messageId, formId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Message " + messageId + " is not part of form " + formId));
     }
     
     /**
-     * Mark messages as read
+     * The user's chat inbox, one entry per form they sent or received messages in, latest activity first.
+     * Keyset paginated on (last message time, formId) : beforeMessageId is the lastMessageId of the last
+     * entry already shown. A conversation that gets a new message meanwhile moves to the top of the first page.
      */
-    public void markMessagesAsRead(Integer formId, Integer userId) {
-        MedicalForm form = medicalFormRepository.findById(formId)
-                .orElseThrow(() -> new RuntimeException("Form not found with ID: " + formId));
-                
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("User not found with ID: " + userId));
-                
-        List<Communication> communications = communicationRepository.findByFormOrderByCreatedAtAsc(form);
-        
-        for (Communication communication : communications) {
-            if (communication.getReceiver().getUserId().equals(userId) && !communication.getIsRead()) {
-                communication.setIsRead(true);
-            }
+    public List<ConversationDTO> getConversations(Integer userId, Integer beforeMessageId, Integer limit) {
+        int size = Math.max(1, Math.min(limit != null ? limit : defaultPageSize, maxPageSize));
+        Pageable page = PageRequest.of(0, size);
+
+        if (beforeMessageId == null) {
+            return communicationRepository.findConversations(userId, page);
         }
-        
-        communicationRepository.saveAll(communications);
+        List<Object[]> position = communicationRepository.findPosition(beforeMessageId);
+        if (position.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Message not found with ID: " + beforeMessageId);
+        }
+        return communicationRepository.findConversationsBefore(userId,
+                (LocalDateTime) position.get(0)[0], (Integer) position.get(0)[1], page);
     }
     
     /**
-     * Count unread messages for a form and user
+     * Mark the messages a user received in a form as read, in one UPDATE. Returns how many were unread;
+     * when there were some a {@link MessagesRead} receipt is published for the sender and the counters.
+     */
+    public int markMessagesAsRead(Integer formId, Integer userId) {
+        int count = communicationRepository.markReadForReceiver(formId, userId);
+        if (count > 0) {
+            eventPublisher.publishEvent(new MessagesRead(formId, userId, count, LocalDateTime.now()));
+        }
+        return count;
+    }
+    
+    /**
+     * Count unread messages for a form and user, from the in-memory counters
      */
     public Integer countUnreadMessagesForForm(Integer formId, Integer userId) {
-        MedicalForm form = medicalFormRepository.findById(formId)
-                .orElseThrow(() -> new RuntimeException("Form not found with ID: " + formId));
-                
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("User not found with ID: " + userId));
-                
-        return communicationRepository.countByReceiverAndFormAndIsReadFalse(user, form);
+        return unreadCounterService.getUnreadMessages(userId, formId);
     }
     
     /**
@@ -182,6 +245,7 @@ public class CommunicationService {
         if (communication.getFilePath() != null) {
             dto.setFilePath(communication.getFilePath());
         }
+        dto.setDurationMs(communication.getDurationMs());
         
         // Set reply to ID if present
         if (communication.getReplyTo() != null) {
@@ -220,6 +284,7 @@ public class CommunicationService {
         
         // Save audio file
         String filePath = saveAudioFile(audioFile);
+        AudioMetadata.AudioInfo audioInfo = readAudioInfo(filePath);
         
         // Create and save the communication
         Communication communication = new Communication();
@@ -229,28 +294,29 @@ public class CommunicationService {
         communication.setContent("Voice message");
         communication.setMessageType(MessageType.AUDIO);
         communication.setFilePath(filePath);
+        communication.setFileSize(audioFile.getSize());
+        if (audioInfo != null) {
+            communication.setDurationMs(audioInfo.getDurationMs());
+            communication.setCodec(audioInfo.getCodec());
+        }
         communication.setCreatedAt(LocalDateTime.now());
         communication.setIsRead(false);
         
         Communication savedCommunication = communicationRepository.save(communication);
         
-        // Create notification for the receiver
-        notificationService.createChatNotification(savedCommunication);
+        // Notification for the receiver, created by the outbox dispatcher once this commits
+        outboxService.record(OutboxEventType.MESSAGE_SENT, savedCommunication.getCommunicationId());
         
-        return convertToDTO(savedCommunication);
+        ChatMessageDTO dto = convertToDTO(savedCommunication);
+        eventPublisher.publishEvent(new ChatPushService.MessageCreated(dto));
+        return dto;
     }
     
     /**
-     * Save audio file to disk
+     * Save audio file to the audio blob store
      */
     private String saveAudioFile(MultipartFile audioFile) {
         try {
-            // Create audio directory if it doesn't exist
-            Path audioDir = Paths.get("audio-messages");
-            if (!Files.exists(audioDir)) {
-                Files.createDirectories(audioDir);
-            }
-            
             // Generate unique filename
             String originalFilename = audioFile.getOriginalFilename();
             String extension = originalFilename != null && originalFilename.contains(".")
@@ -259,8 +325,9 @@ public class CommunicationService {
             String filename = "audio_" + UUID.randomUUID().toString() + extension;
             
             // Save file
-            Path filePath = audioDir.resolve(filename);
-            Files.copy(audioFile.getInputStream(), filePath);
+            try (InputStream in = audioFile.getInputStream()) {
+                audioStore.put(filename, in, audioFile.getSize());
+            }
             
             return filename;
         } catch (IOException e) {
@@ -269,30 +336,99 @@ public class CommunicationService {
     }
     
     /**
-     * Get audio file for a voice message
+     * Reads duration and codec from the stored file, through ranged reads so only the headers are fetched
      */
-    public ResponseEntity<Resource> getAudioFile(Integer messageId) {
+    private AudioMetadata.AudioInfo readAudioInfo(String key) {
         try {
-            Communication communication = communicationRepository.findById(messageId)
-                    .orElseThrow(() -> new RuntimeException("Message not found with ID: " + messageId));
-            
-            if (communication.getMessageType() != MessageType.AUDIO || communication.getFilePath() == null) {
-                throw new RuntimeException("Message is not an audio message or file path is missing");
+            long length = audioStore.size(key);
+            DecryptedContent content = new DecryptedContent() {
+                @Override
+                public long getLength() { return length; }
+
+                @Override
+                public InputStream openStream(long start, long end) throws IOException {
+                    return audioStore.getRange(key, start, end);
+                }
+
+                @Override
+                public void close() {}
+            };
+            return AudioMetadata.read(content);
+        } catch (Exception e) {
+            System.err.println("⚠️ Could not read audio metadata of " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Get audio file for a voice message, with "Range: bytes=..." support so players can seek.
+     * A local file is returned as a Resource : Spring answers the Range header itself (206, several ranges, 416).
+     * Other stores read only the requested range.
+     */
+    public ResponseEntity<?> getAudioFile(Integer messageId, String rangeHeader) {
+        Communication communication = communicationRepository.findById(messageId).orElse(null);
+        if (communication == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (communication.getMessageType() != MessageType.AUDIO || communication.getFilePath() == null) {
+            return ResponseEntity.badRequest().body("Message is not an audio message or file path is missing");
+        }
+
+        String key = communication.getFilePath();
+        String contentType = AudioMetadata.contentType(communication.getCodec(), key);
+        try {
+            if (audioStore instanceof LocalBlobStore localStore) {
+                return ResponseEntity.ok()
+                        .header(HttpHeaders.CONTENT_TYPE, contentType)
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + key + "\"")
+                        .body(new FileSystemResource(localStore.getPath(key)));
             }
-            
-            Path filePath = Paths.get("audio-messages").resolve(communication.getFilePath());
-            Resource resource = new UrlResource(filePath.toUri());
-            
-            if (!resource.exists()) {
-                throw new RuntimeException("Audio file not found");
+            return streamAudioRange(key, contentType, rangeHeader);
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            System.err.println("❌ Error serving audio file " + key + ": " + e.getMessage());
+            return ResponseEntity.internalServerError().body("Failed to get audio file");
+        }
+    }
+
+    // A single range is enough for players, several are answered with the whole file
+    private ResponseEntity<?> streamAudioRange(String key, String contentType, String rangeHeader) throws IOException {
+        long length = audioStore.size(key);
+        long start = 0;
+        long end = length;
+        boolean partial = false;
+        if (rangeHeader != null) {
+            try {
+                List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+                if (ranges.size() == 1) {
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length) + 1;
+                    partial = true;
+                }
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+                        .build();
             }
-            
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType("audio/mpeg"))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + communication.getFilePath() + "\"")
-                    .body(resource);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to get audio file: " + e.getMessage());
         }
+
+        long from = start;
+        long to = end;
+        StreamingResponseBody body = out -> {
+            try (InputStream in = audioStore.getRange(key, from, to)) {
+                in.transferTo(out);
+            }
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(partial ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, contentType)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + key + "\"")
+                .contentLength(end - start);
+        if (partial) {
+            response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+        }
+        return response.body(body);
     }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.entities.StoredBlob;
+import com.na.medical_mobile_app.repositories.StoredBlobRepository;
+import com.na.medical_mobile_app.security.KeyRing;
+import com.na.medical_mobile_app.storage.BlobStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.crypto.Mac;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Content-addressed store for encrypted attachments.
+ *
+ * Blobs are stored in the attachment blob store as <contentId>.enc, the content id being an HMAC of the SHA-256
+ * of their plaintext, so the same MRI submitted twice is stored once. Keyed with a secret of the {@link KeyRing},
+ * so a blob name can't be matched against the hash of a known document by whoever lists the bucket.
+ * Blobs stored before were named by the plain SHA-256 : they are still read and collected through their row,
+ * only new uploads of the same content no longer reuse them. Every FileAttachment pointing at a blob holds one reference;
+ * blobs left without references are deleted by {@link BlobGarbageCollector} after a grace period.
+ */
+@Service
+public class ContentStoreService {
+
+    @Autowired
+    private StoredBlobRepository storedBlobRepository;
+
+    @Autowired
+    @Qualifier("attachmentBlobStore")
+    private BlobStore attachmentStore;
+
+    @Autowired
+    private KeyRing keyRing;
+
+    // Node-local scratch space for uploads being encrypted, before their hash is known
+    @Value("${storage.spool-directory:${storage.local.attachments-directory:encrypted-uploads}/.spool}")
+    private String spoolDirectory;
+
+    //-----------------------------------Paths-------------------------------------------------------------------------
+    /** Id of a plaintext in the store, from its SHA-256 : hex HMAC-SHA256 under the key ring's content id key */
+    public String contentId(byte[] sha256) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(keyRing.getContentIdKey());
+        return HexFormat.of().formatHex(mac.doFinal(sha256));
+    }
+
+    public String blobKey(String contentHash) {
+        return contentHash + ".enc";
+    }
+
+    /** Under the local store's directory by default, so committing to it is a link, not a copy */
+    public Path newTempFile() throws IOException {
+        Path directory = getTempDirectory();
+        Files.createDirectories(directory);
+        return directory.resolve(UUID.randomUUID() + ".enc");
+    }
+
+    /** Temp files left there longer than the grace period are removed by {@link BlobGarbageCollector} */
+    public Path getTempDirectory() {
+        return Paths.get(spoolDirectory);
+    }
+
+    /** Resumable uploads still receiving chunks, kept apart from the temp files : they live much longer */
+    public Path getUploadDirectory() {
+        return getTempDirectory().resolve("uploads");
+    }
+
+    //-----------------------------------Storing-----------------------------------------------------------------------
+    /**
+     * Files an encrypted temp file under the content id of its plaintext and returns the blob key.
+     * If the content is already stored the temp file is dropped and the existing blob is reused.
+     * The blob has no reference until {@link #addReference} is called by the transaction creating the attachment.
+     */
+    public String commit(String contentHash, Path tempFile, long fileSize) throws IOException {
+        String blobKey = blobKey(contentHash);
+
+        // Refreshing lastUsedAt keeps the collector away until the attachment row references the blob
+        int touched = storedBlobRepository.touch(contentHash, LocalDateTime.now());
+        if (touched == 1 && attachmentStore.exists(blobKey)) {
+            Files.deleteIfExists(tempFile);
+            System.out.println("♻️ Reusing stored blob " + contentHash.substring(0, 12));
+            return blobKey;
+        }
+
+        // Stored only if absent, an existing blob may be in use : then it is the one kept, either way it holds
+        // the same plaintext. The collector deletes a blob with its row locked, touch waits for it to finish
+        if (!attachmentStore.putFileIfAbsent(blobKey, tempFile)) {
+            Files.deleteIfExists(tempFile);
+            System.out.println("♻️ Reusing blob stored concurrently " + contentHash.substring(0, 12));
+        }
+        if (touched == 0) {
+            StoredBlob blob = new StoredBlob();
+            blob.setContentHash(contentHash);
+            blob.setFilePath(blobKey);
+            blob.setFileSize(fileSize);
+            blob.setReferenceCount(0);
+            blob.setCreatedAt(LocalDateTime.now());
+            blob.setLastUsedAt(LocalDateTime.now());
+            try {
+                storedBlobRepository.save(blob);
+            } catch (DataIntegrityViolationException e) {
+                // Inserted by a concurrent upload of the same content
+                storedBlobRepository.touch(contentHash, LocalDateTime.now());
+            }
+        }
+        return blobKey;
+    }
+
+    //-----------------------------------References--------------------------------------------------------------------
+    /** Meant to be called from inside the transaction that creates the attachment row */
+    public void addReference(String contentHash) {
+        if (storedBlobRepository.addReference(contentHash, LocalDateTime.now()) != 1) {
+            throw new IllegalStateException("Stored blob " + contentHash + " no longer exists");
+        }
+    }
+
+    public void releaseReference(String contentHash) {
+        if (storedBlobRepository.releaseReference(contentHash, LocalDateTime.now()) != 1) {
+            System.err.println("⚠️ Stored blob " + contentHash + " had no reference to release");
+        }
+    }
+
+    //-----------------------------------Garbage collection------------------------------------------------------------
+    public List<String> findCollectable(LocalDateTime cutoff, int limit) {
+        return storedBlobRepository.findCollectableHashes(cutoff, PageRequest.of(0, limit));
+    }
+
+    /**
+     * Deletes a blob if it is still unreferenced and unused since the cutoff. The row stays locked until the
+     * file is gone, so an upload of the same content waits and then stores it again instead of reusing it.
+     */
+    @Transactional
+    public boolean collect(String contentHash, LocalDateTime cutoff) throws IOException {
+        Optional<StoredBlob> locked = storedBlobRepository.findForUpdate(contentHash);
+        if (locked.isEmpty()) {
+            return false;
+        }
+        StoredBlob blob = locked.get();
+        if (blob.getReferenceCount() > 0 || blob.getLastUsedAt() == null || !blob.getLastUsedAt().isBefore(cutoff)) {
+            return false;
+        }
+        attachmentStore.delete(blob.getFilePath());
+        for (String renditionKey : ImageRenditionService.renditionKeys(blob.getFilePath())) {
+            attachmentStore.delete(renditionKey);
+        }
+        storedBlobRepository.delete(blob);
+        return true;
+    }
+}
@@ -5,6 +5,7 @@ import com.na.medical_mobile_app.DTOs.DoctorCreationRequest;
 import com.na.medical_mobile_app.entities.User;
 
 import com.na.medical_mobile_app.repositories.UserRepository;
+import com.na.medical_mobile_app.security.UserTokenCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -20,6 +21,9 @@ public class DoctorService {
     @Autowired
     private DoctorHelperService doctorHelperService;
 
+    @Autowired
+    private UserTokenCache userTokenCache;
+
     //------------------------------------------Requesting an account creation---------------------------------------------------
     public ResponseEntity<?> requestAccount(DoctorCreationRequest request) {
         // Use getter methods
@@ -39,6 +43,7 @@ public class DoctorService {
         doctorRequest.setCreatedAt(LocalDateTime.now());
 
         userRepository.save(doctorRequest);
+        userTokenCache.update(doctorRequest);
 
         return ResponseEntity.ok("Demande de création de compte reçue, en attente de validation admin.");
     }
@@ -0,0 +1,143 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.entities.EncryptionFormat;
+import com.na.medical_mobile_app.entities.FileAttachment;
+import com.na.medical_mobile_app.repositories.FileAttachmentRepository;
+import com.na.medical_mobile_app.security.EncryptedFileFormat;
+import com.na.medical_mobile_app.security.EncryptedFileReader;
+import com.na.medical_mobile_app.security.KeyRing;
+import com.na.medical_mobile_app.storage.BlobStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rewrites attachments still stored as legacy whole-file AES into the chunked AES-GCM format.
+ * Runs in small batches on its own thread so the shared scheduler thread is never blocked.
+ * Each file is rewritten to a local temp file and then replaces the original in the blob store, readers
+ * detect the format from the file itself, so they keep working while a file is being migrated.
+ */
+@Service
+public class EncryptionMigrationService {
+
+    @Autowired
+    private FileAttachmentRepository fileAttachmentRepository;
+
+    @Autowired
+    private KeyRing keyRing;
+
+    @Autowired
+    @Qualifier("attachmentBlobStore")
+    private BlobStore attachmentStore;
+
+    @Autowired
+    private ContentStoreService contentStoreService;
+
+    @Value("${attachments.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${attachments.migration.batch-size:20}")
+    private int batchSize;
+
+    private ExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // Resumes after the last id seen, so files that keep failing don't block the rest
+    private volatile int lastAttachmentId;
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "attachment-migration");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    @Scheduled(initialDelay = 60000, fixedDelayString = "${attachments.migration.interval-ms:300000}")
+    public void scheduleBatch() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        executor.submit(() -> {
+            try {
+                migrateBatch();
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    private void migrateBatch() {
+        List<Integer> ids = fileAttachmentRepository.findLegacyEncryptedIds(
+                EncryptionFormat.AES_ECB_LEGACY, lastAttachmentId, PageRequest.of(0, batchSize));
+        if (ids.isEmpty()) {
+            // Start over next time, retrying anything that failed
+            lastAttachmentId = 0;
+            return;
+        }
+
+        int migrated = 0;
+        for (Integer id : ids) {
+            lastAttachmentId = id;
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                FileAttachment attachment = fileAttachmentRepository.findById(id).orElse(null);
+                if (attachment == null) {
+                    continue;
+                }
+                String keyId = migrateFile(attachment.getFilePath());
+                fileAttachmentRepository.updateEncryption(id, EncryptionFormat.AES_GCM_CHUNKED, keyId);
+                migrated++;
+            } catch (Exception e) {
+                System.err.println("⚠️ Could not migrate attachment " + id + ": " + e.getMessage());
+            }
+        }
+        System.out.println("🔄 Migrated " + migrated + "/" + ids.size() + " attachments to the chunked format");
+    }
+
+    /**
+     * Rewrites one file in the chunked format with the active key. Files already migrated are left untouched.
+     * @return The key id the file is now encrypted with
+     */
+    public String migrateFile(String key) throws Exception {
+        Path temp = contentStoreService.newTempFile();
+        try (EncryptedFileReader reader = EncryptedFileReader.open(attachmentStore.openChannel(key), keyRing)) {
+            if (!reader.isLegacy()) {
+                return reader.getKeyId();
+            }
+            String keyId = keyRing.getActiveKeyId();
+            try (InputStream in = reader.openStream();
+                 OutputStream out = EncryptedFileFormat.newEncryptingStream(temp, keyId, keyRing.getKey(keyId))) {
+                in.transferTo(out);
+            }
+            attachmentStore.putFile(key, temp);
+            return keyId;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
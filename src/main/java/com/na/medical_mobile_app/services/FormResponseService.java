@@ -34,7 +34,10 @@ public class FormResponseService {
     private UserService userService;
 
     @Autowired
-    private NotificationService notificationService;
+    private OutboxService outboxService;
+
+    @Autowired
+    private PdfJobService pdfJobService;
 
     /**
      * Check if user has permission to access this form
@@ -138,14 +141,11 @@ public class FormResponseService {
         FormResponse savedResponse = formResponseRepository.save(response);
         System.out.println("✅ Form response saved with ID: " + savedResponse.getResponseId());
 
-        // Create notification for the doctor
-        try {
-            notificationService.createFormResponseNotification(savedResponse);
-            System.out.println("✅ Notification created for doctor");
-        } catch (Exception e) {
-            System.err.println("⚠️ Failed to create notification: " + e.getMessage());
-            
-        }
+        // The PDF shows the form status, render it again
+        pdfJobService.enqueue(form, "RESPONSE_SAVED");
+
+        // Notification for the doctor, created by the outbox dispatcher once this commits
+        outboxService.record(OutboxEventType.RESPONSE_SAVED, savedResponse.getResponseId());
 
 
         System.out.println("🎉 Form response submission completed successfully");
@@ -0,0 +1,333 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.entities.FileAttachment;
+import com.na.medical_mobile_app.entities.MedicalForm;
+import com.na.medical_mobile_app.entities.RenditionStatus;
+import com.na.medical_mobile_app.repositories.FileAttachmentRepository;
+import com.na.medical_mobile_app.security.DecryptedContent;
+import com.na.medical_mobile_app.security.EncryptedFileFormat;
+import com.na.medical_mobile_app.security.EncryptedFileReader;
+import com.na.medical_mobile_app.security.KeyRing;
+import com.na.medical_mobile_app.storage.BlobStore;
+import com.na.medical_mobile_app.utils.ExifOrientation;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downscaled JPEG previews of image attachments (MRI photos), so list and review screens do not
+ * download the full photo to show a thumbnail.
+ *
+ * Renditions are encrypted like the original and stored next to it in the attachment blob store
+ * (<key>.thumb.enc, <key>.screen.enc); "full" is the original itself. They are generated after the
+ * submission is committed, on a small bounded pool. When the queue is full, or a preview is asked for
+ * before it exists, the original is served and the rendition is generated on demand.
+ */
+@Service
+public class ImageRenditionService {
+
+    private static final int EXIF_SCAN_BYTES = 128 * 1024;
+    private static final float JPEG_QUALITY = 0.8f;
+
+    public enum Size {
+        THUMB("thumb", 256), SCREEN("screen", 1280);
+
+        private final String parameter;
+        private final int maxDimension;
+
+        Size(String parameter, int maxDimension) {
+            this.parameter = parameter;
+            this.maxDimension = maxDimension;
+        }
+
+        public String getParameter() { return parameter; }
+        public int getMaxDimension() { return maxDimension; }
+
+        /** null for "full" or no parameter : the original */
+        public static Size fromParameter(String value) {
+            if (value == null || value.isEmpty() || value.equalsIgnoreCase("full")) {
+                return null;
+            }
+            for (Size size : values()) {
+                if (size.parameter.equalsIgnoreCase(value)) {
+                    return size;
+                }
+            }
+            throw new IllegalArgumentException("Unknown size: " + value + " (thumb, screen or full)");
+        }
+    }
+
+    @Autowired
+    private FileAttachmentRepository fileAttachmentRepository;
+    @Autowired
+    private AttachmentService attachmentService;
+    @Autowired
+    private ContentStoreService contentStoreService;
+    @Autowired
+    private KeyRing keyRing;
+    @Autowired
+    @Qualifier("attachmentBlobStore")
+    private BlobStore attachmentStore;
+
+    @Value("${attachments.renditions.threads:2}")
+    private int threads;
+
+    @Value("${attachments.renditions.queue-capacity:100}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+    // Attachments queued or being rendered, so repeated preview requests don't queue the same work
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void start() {
+        // ImageIO would otherwise cache decrypted image data in temp files on disk
+        ImageIO.setUseCache(false);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "image-rendition-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    //-----------------------------------Keys--------------------------------------------------------------------------
+    public static String renditionKey(String originalKey, Size size) {
+        String base = originalKey.endsWith(".enc") ? originalKey.substring(0, originalKey.length() - 4) : originalKey;
+        return base + "." + size.getParameter() + ".enc";
+    }
+
+    public static List<String> renditionKeys(String originalKey) {
+        List<String> keys = new ArrayList<>();
+        for (Size size : Size.values()) {
+            keys.add(renditionKey(originalKey, size));
+        }
+        return keys;
+    }
+
+    //-----------------------------------Scheduling--------------------------------------------------------------------
+    /** Called once the submission is committed */
+    public void scheduleForForm(MedicalForm form) {
+        for (FileAttachment attachment : fileAttachmentRepository.findByForm(form)) {
+            schedule(attachment);
+        }
+    }
+
+    public void schedule(FileAttachment attachment) {
+        if (!isImage(attachment) || attachment.getRenditionStatus() != null) {
+            return;
+        }
+        Integer attachmentId = attachment.getAttachmentId();
+        if (!pending.add(attachmentId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(attachmentId);
+                } finally {
+                    pending.remove(attachmentId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(attachmentId);
+            System.out.println("⚠️ Rendition queue full, attachment " + attachmentId + " will be rendered on demand");
+        }
+    }
+
+    private boolean isImage(FileAttachment attachment) {
+        return attachment.getMimeType() != null && attachment.getMimeType().startsWith("image/");
+    }
+
+    //-----------------------------------Serving-----------------------------------------------------------------------
+    /** Only valid once the attachment's renditionStatus is READY. The caller closes the returned content. */
+    public DecryptedContent openRendition(FileAttachment attachment, Size size) throws Exception {
+        return EncryptedFileReader.open(attachmentStore.openChannel(renditionKey(attachment.getFilePath(), size)), keyRing);
+    }
+
+    //-----------------------------------Generating--------------------------------------------------------------------
+    private void generate(Integer attachmentId) {
+        FileAttachment attachment = fileAttachmentRepository.findById(attachmentId).orElse(null);
+        if (attachment == null || attachment.getRenditionStatus() != null) {
+            return;
+        }
+        try {
+            // Deduplicated content shares its blob, and so its renditions
+            if (renditionsExist(attachment.getFilePath())) {
+                fileAttachmentRepository.updateRenditionStatus(attachmentId, RenditionStatus.READY);
+                return;
+            }
+
+            BufferedImage decoded;
+            int orientation;
+            try (EncryptedFileReader reader = attachmentService.openAttachmentReader(attachment)) {
+                try (InputStream head = reader.openStream(0, Math.min(reader.getLength(), EXIF_SCAN_BYTES))) {
+                    orientation = ExifOrientation.read(head.readAllBytes());
+                }
+                try (InputStream in = reader.openStream();
+                     ImageInputStream imageIn = ImageIO.createImageInputStream(in)) {
+                    decoded = decode(imageIn, Size.SCREEN.getMaxDimension());
+                }
+            }
+            if (decoded == null) {
+                fileAttachmentRepository.updateRenditionStatus(attachmentId, RenditionStatus.UNSUPPORTED);
+                System.out.println("⚠️ No renditions for attachment " + attachmentId + ": unsupported image format");
+                return;
+            }
+
+            BufferedImage screen = ExifOrientation.apply(scaleToFit(decoded, Size.SCREEN.getMaxDimension()), orientation);
+            BufferedImage thumb = scaleToFit(screen, Size.THUMB.getMaxDimension());
+            storeRendition(renditionKey(attachment.getFilePath(), Size.SCREEN), screen);
+            storeRendition(renditionKey(attachment.getFilePath(), Size.THUMB), thumb);
+
+            fileAttachmentRepository.updateRenditionStatus(attachmentId, RenditionStatus.READY);
+            System.out.println("🖼️ Renditions ready for attachment " + attachmentId);
+        } catch (IIOException e) {
+            // Corrupt file or a variant ImageIO can't decode (e.g. CMYK JPEG), the original is still served
+            fileAttachmentRepository.updateRenditionStatus(attachmentId, RenditionStatus.UNSUPPORTED);
+            System.out.println("⚠️ No renditions for attachment " + attachmentId + ": " + e.getMessage());
+        } catch (Exception e) {
+            // Left unset, the next preview request tries again
+            System.err.println("❌ Error rendering attachment " + attachmentId + ": " + e.getMessage());
+        }
+    }
+
+    private boolean renditionsExist(String originalKey) throws IOException {
+        for (String key : renditionKeys(originalKey)) {
+            if (!attachmentStore.exists(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes with source subsampling so that a 12MP photo never sits in memory at full size.
+     * The result is still at least twice the target, the final downscale smooths it. Returns null if no reader fits.
+     */
+    private BufferedImage decode(ImageInputStream imageIn, int targetDimension) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(imageIn, true, true);
+            int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+            int subsampling = Math.max(1, longest / (targetDimension * 2));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /** Halves with bilinear filtering until close to the target, then one last bilinear step. Always RGB. */
+    private BufferedImage scaleToFit(BufferedImage source, int maxDimension) {
+        double scale = Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * scale));
+
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            if (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+                width /= 2;
+                height /= 2;
+            } else {
+                width = targetWidth;
+                height = targetHeight;
+            }
+            current = resize(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private BufferedImage resize(BufferedImage source, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // Transparent PNGs end up on white, JPEG has no alpha
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    private void storeRendition(String key, BufferedImage image) throws Exception {
+        byte[] jpeg = encodeJpeg(image);
+        Path temp = contentStoreService.newTempFile();
+        try {
+            String keyId = keyRing.getActiveKeyId();
+            try (OutputStream out = EncryptedFileFormat.newEncryptingStream(temp, keyId, keyRing.getKey(keyId))) {
+                out.write(jpeg);
+            }
+            attachmentStore.putFile(key, temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,119 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.DTOs.MedicalFormRequest;
+import com.na.medical_mobile_app.DTOs.StagedAttachment;
+import com.na.medical_mobile_app.entities.*;
+import com.na.medical_mobile_app.repositories.MedicalFormRepository;
+import com.na.medical_mobile_app.repositories.PatientRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Database stage of a medical form submission.
+ * Everything here runs in one short transaction: the files are already encrypted
+ * on disk before it starts. The notification event is written with the form and dispatched after it commits.
+ */
+@Service
+public class MedicalFormPersistenceService {
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private MedicalFormRepository medicalFormRepository;
+
+    @Autowired
+    private PatientService patientService;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private NeurologistAssignmentService neurologistAssignmentService;
+
+    @Autowired
+    private PdfJobService pdfJobService;
+
+    @Autowired
+    private ResumableUploadService resumableUploadService;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    /**
+     * Persists patient, form, attachment rows, neurologist assignment, PDF job and notification event atomically
+     * @param symptomsSummary The pre-built symptoms text for the form
+     * @return The saved form, with its attachments set
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public MedicalForm persistSubmission(MedicalFormRequest request,
+                                         String symptomsSummary,
+                                         List<StagedAttachment> stagedAttachments,
+                                         User doctor,
+                                         User uploadedBy) throws Exception {
+        // Patient population
+        Patient patient;
+        try {
+            patient = patientService.findOrCreatePatient(request);
+            System.out.println("✅ Patient processed: " + patient.getName());
+        } catch (Exception e) {
+            System.err.println("❌ Error processing patient: " + e.getMessage());
+            throw new Exception("Error processing patient: " + e.getMessage());
+        }
+
+        // The improved neurologist assignment service
+        User neurologue;
+        try {
+            neurologue = neurologistAssignmentService.assignNeurologistToForm(patient, request);
+            System.out.println("✅ Neurologist assigned: " + (neurologue != null ? neurologue.getName() : "None"));
+        } catch (Exception e) {
+            System.err.println("❌ Error assigning neurologist: " + e.getMessage());
+            throw new Exception("Error assigning neurologist: " + e.getMessage());
+        }
+
+        // Create medical form
+        MedicalForm medicalForm = new MedicalForm();
+        medicalForm.setPatient(patient);
+        medicalForm.setDateFirstSeizure(request.firstSeizureDate);
+        medicalForm.setDateLastSeizure(request.lastSeizureDate);
+        medicalForm.setTotalSeizures(request.totalSeizures);
+        medicalForm.setAverageSeizureDuration(request.seizureDuration);
+        medicalForm.setSeizureFrequency(request.seizureFrequency);
+        medicalForm.setCreatedAt(LocalDateTime.now());
+        medicalForm.setStatus(FormStatus.SUBMITTED);
+        medicalForm.setDoctor(doctor);
+        medicalForm.setAssignedTo(neurologue);
+        medicalForm.setSymptoms(symptomsSummary);
+
+        // Initialize PDF fields
+        medicalForm.setPdfGenerated(false);
+        medicalForm.setPdfGeneratedAt(null);
+        medicalForm.setPdfFileName(null);
+        medicalForm.setPdfFilePath(null);
+
+        medicalForm = medicalFormRepository.save(medicalForm);
+        System.out.println("✅ Medical form saved with ID: " + medicalForm.getFormId());
+
+        // Link the already encrypted files
+        List<FileAttachment> attachments = attachmentService.persistStagedAttachments(medicalForm, stagedAttachments, uploadedBy);
+        medicalForm.setAttachments(attachments);
+        resumableUploadService.markConsumed(stagedAttachments);
+        System.out.println("✅ Attachments saved: " + attachments.size() + " files");
+
+        // Update patient's referring doctor
+        patient.setReferringDoctor(doctor);
+        patientRepository.save(patient);
+
+        // Committed together with the form, rendered later by the PDF worker
+        pdfJobService.enqueue(medicalForm, "FORM_SUBMITTED");
+
+        // Same for the neurologist's notification, created by the outbox dispatcher
+        outboxService.record(OutboxEventType.FORM_SUBMITTED, medicalForm.getFormId());
+
+        return medicalForm;
+    }
+}
@@ -1,17 +1,25 @@
 // services/MedicalFormService.java - COMPLETE CORRECTED VERSION
 package com.na.medical_mobile_app.services;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.na.medical_mobile_app.DTOs.MedicalFormRequest;
+import com.na.medical_mobile_app.DTOs.StagedAttachment;
 import com.na.medical_mobile_app.entities.*;
 import com.na.medical_mobile_app.repositories.MedicalFormRepository;
-import com.na.medical_mobile_app.repositories.PatientRepository;
+import com.na.medical_mobile_app.utils.LimitedInputStream;
+import com.na.medical_mobile_app.utils.MultipartStreamParser;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -20,14 +28,17 @@ import java.util.Optional;
 @Transactional
 public class MedicalFormService {
 
-    @Autowired
-    private PatientRepository patientRepository;
+    private static final int MAX_FORM_JSON_SIZE = 1024 * 1024;
+    private static final int MAX_UPLOAD_ID_SIZE = 64;
+    private static final long MAX_STREAMED_REQUEST_SIZE =
+            AttachmentService.MAX_MRI_PHOTO_SIZE + AttachmentService.MAX_SEIZURE_VIDEO_SIZE + 2 * MAX_FORM_JSON_SIZE;
 
-    @Autowired
-    private MedicalFormRepository medicalFormRepository;
+    private static final ObjectMapper FORM_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
     @Autowired
-    private PatientService patientService;
+    private MedicalFormRepository medicalFormRepository;
 
     @Autowired
     private AttachmentService attachmentService;
@@ -36,23 +47,30 @@ public class MedicalFormService {
     private UserService userService;
 
     @Autowired
-    private NeurologistAssignmentService neurologistAssignmentService;
+    private MedicalFormPersistenceService medicalFormPersistenceService;
+
+    @Autowired
+    private ResumableUploadService resumableUploadService;
     
     @Autowired
-    private NotificationService notificationService;
+    private ImageRenditionService imageRenditionService;
 
     @Autowired
-    private PdfGenerationService pdfGenerationService;
+    private PdfJobService pdfJobService;
 
     @Autowired
     private PdfStorageService pdfStorageService;
 
+    private boolean hasFile(MultipartFile file) {
+        return file != null && !file.isEmpty();
+    }
+
     // File validation method
     private void validateFiles(MultipartFile mriPhoto, MultipartFile seizureVideo) throws Exception {
         // Validate MRI photo
         if (mriPhoto != null && !mriPhoto.isEmpty()) {
             // Check file size (10MB limit)
-            if (mriPhoto.getSize() > 10 * 1024 * 1024) {
+            if (mriPhoto.getSize() > AttachmentService.MAX_MRI_PHOTO_SIZE) {
                 throw new Exception("MRI photo size exceeds 10MB limit");
             }
             
@@ -68,7 +86,7 @@ public class MedicalFormService {
         // Validate seizure video
         if (seizureVideo != null && !seizureVideo.isEmpty()) {
             // Check file size (50MB limit)
-            if (seizureVideo.getSize() > 50 * 1024 * 1024) {
+            if (seizureVideo.getSize() > AttachmentService.MAX_SEIZURE_VIDEO_SIZE) {
                 throw new Exception("Seizure video size exceeds 50MB limit");
             }
             
@@ -154,16 +172,37 @@ public class MedicalFormService {
 
     //-----------------------------------------------Saving the medical form---------------------------------------------------
     /**
-     * Saves a medical form submission including patient information and attachments
+     * Saves a medical form submission including patient information and attachments.
+     * Runs as three stages so that no database connection is held while files are encrypted:
+     * 1. encrypt the uploads to disk (no transaction)
+     * 2. persist patient, form, attachments, assignment and the PDF job in one short transaction
+     * 3. notification once the transaction has committed (the PDF is rendered by the job queue)
+     * If stage 2 fails, the files written in stage 1 are removed.
      * @param request The form data containing all fields from the medical form
      * @return The ID of the saved form submission
      */
-    @Transactional
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Integer saveMedicalForm(
             MedicalFormRequest request,
             MultipartFile mriPhoto,
             MultipartFile seizureVideo,
             User uploadedBy
+    ) throws Exception {
+        return saveMedicalForm(request, mriPhoto, seizureVideo, null, null, uploadedBy);
+    }
+
+    /**
+     * Same as above, but each file may instead reference a finished resumable upload
+     * (see ResumableUploadService). Such files are already encrypted, so stage 1 only checks them.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Integer saveMedicalForm(
+            MedicalFormRequest request,
+            MultipartFile mriPhoto,
+            MultipartFile seizureVideo,
+            String mriUploadId,
+            String seizureVideoUploadId,
+            User uploadedBy
     ) throws Exception {
         if (request == null || request.cinNumber == null) {
             throw new IllegalArgumentException("Request and CIN number cannot be null");
@@ -179,96 +218,150 @@ public class MedicalFormService {
             throw new Exception("File validation failed: " + e.getMessage());
         }
 
-        // Patient population
-        Patient patient;
-        try {
-            patient = patientService.findOrCreatePatient(request);
-            System.out.println("✅ Patient processed: " + patient.getName());
-        } catch (Exception e) {
-            System.err.println("❌ Error processing patient: " + e.getMessage());
-            throw new Exception("Error processing patient: " + e.getMessage());
-        }
-
         // Get the current doctor (sender)
         User defaultUser = userService.getLoggedInUser();
-        
-        // The improved neurologist assignment service
-        User neurologue;
-        try {
-            neurologue = neurologistAssignmentService.assignNeurologistToForm(patient, request);
-            System.out.println("✅ Neurologist assigned: " + (neurologue != null ? neurologue.getName() : "None"));
-        } catch (Exception e) {
-            System.err.println("❌ Error assigning neurologist: " + e.getMessage());
-            throw new Exception("Error assigning neurologist: " + e.getMessage());
-        }
 
-        // Create medical form
-        MedicalForm medicalForm = new MedicalForm();
-        medicalForm.setPatient(patient);
-        medicalForm.setDateFirstSeizure(request.firstSeizureDate);
-        medicalForm.setDateLastSeizure(request.lastSeizureDate);
-        medicalForm.setTotalSeizures(request.totalSeizures);
-        medicalForm.setAverageSeizureDuration(request.seizureDuration);
-        medicalForm.setSeizureFrequency(request.seizureFrequency);
-        medicalForm.setCreatedAt(LocalDateTime.now());
-        medicalForm.setStatus(FormStatus.SUBMITTED);
-        medicalForm.setDoctor(defaultUser);
-        medicalForm.setAssignedTo(neurologue);
-        medicalForm.setSymptoms(buildSymptomsSummary(request));
-
-        // Initialize PDF fields
-        medicalForm.setPdfGenerated(false);
-        medicalForm.setPdfGeneratedAt(null);
-        medicalForm.setPdfFileName(null);
-        medicalForm.setPdfFilePath(null);
-
-        // Save the form first to get an ID
-        try {
-            medicalForm = medicalFormRepository.save(medicalForm);
-            System.out.println("✅ Medical form saved with ID: " + medicalForm.getFormId());
-        } catch (Exception e) {
-            System.err.println("❌ Error saving medical form: " + e.getMessage());
-            throw new Exception("Error saving medical form: " + e.getMessage());
+        if ((hasFile(mriPhoto) && mriUploadId != null) || (hasFile(seizureVideo) && seizureVideoUploadId != null)) {
+            throw new IllegalArgumentException("Provide either a file or an upload ID for each attachment, not both");
         }
 
-        // Handle attachments
+        // Stage 1 : encrypt uploads outside of any transaction
+        List<StagedAttachment> stagedAttachments;
         try {
-            List<FileAttachment> attachments = attachmentService.saveAttachments(medicalForm,
-                    mriPhoto,
-                    seizureVideo,
-                    uploadedBy);
-            medicalForm.setAttachments(attachments);
-            medicalForm = medicalFormRepository.save(medicalForm);
-            System.out.println("✅ Attachments saved: " + attachments.size() + " files");
+            stagedAttachments = new ArrayList<>();
+            if (mriUploadId != null) {
+                stagedAttachments.add(resumableUploadService.stageCompletedUpload(mriUploadId, UploadKind.MRI_PHOTO, uploadedBy));
+            }
+            if (seizureVideoUploadId != null) {
+                stagedAttachments.add(resumableUploadService.stageCompletedUpload(seizureVideoUploadId, UploadKind.SEIZURE_VIDEO, uploadedBy));
+            }
+            stagedAttachments.addAll(attachmentService.stageAttachments(mriPhoto, seizureVideo));
+            System.out.println("✅ Files encrypted: " + stagedAttachments.size() + " files");
         } catch (Exception e) {
             System.err.println("❌ Error saving attachments: " + e.getMessage());
             throw new Exception("Failed to save file attachments: " + e.getMessage());
         }
 
-        // Update patient's referring doctor
+        return completeSubmission(request, stagedAttachments, defaultUser, uploadedBy);
+    }
+
+    /**
+     * Streaming variant of the submission : the multipart body is parsed as it arrives and each file part
+     * is piped straight into the cipher, nothing is spooled to a temp file first.
+     * Size limits are enforced while reading, so an oversized file aborts the request early.
+     * Parts may come in any order; files and upload ids are staged before the form JSON is parsed.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Integer saveMedicalFormFromStream(String contentType, InputStream body, User uploadedBy) throws Exception {
+        System.out.println("🩺 Starting streamed medical form save process...");
+
+        User defaultUser = userService.getLoggedInUser();
+
+        List<StagedAttachment> stagedAttachments = new ArrayList<>();
+        MedicalFormRequest request;
         try {
-            patient.setReferringDoctor(defaultUser);
-            patientRepository.save(patient);
+            InputStream limitedBody = new LimitedInputStream(body, MAX_STREAMED_REQUEST_SIZE, "Request size exceeds limit");
+            MultipartStreamParser parser = new MultipartStreamParser(limitedBody, MultipartStreamParser.extractBoundary(contentType));
+
+            String formJson = null;
+            String mriUploadId = null;
+            String seizureVideoUploadId = null;
+            boolean hasMriPhoto = false;
+            boolean hasSeizureVideo = false;
+
+            MultipartStreamParser.Part part;
+            while ((part = parser.nextPart()) != null) {
+                String name = part.getName() != null ? part.getName() : "";
+                switch (name) {
+                    case "form" -> formJson = part.readString(MAX_FORM_JSON_SIZE);
+                    case "mriUploadId" -> mriUploadId = part.readString(MAX_UPLOAD_ID_SIZE).trim();
+                    case "seizureVideoUploadId" -> seizureVideoUploadId = part.readString(MAX_UPLOAD_ID_SIZE).trim();
+                    case "mriPhoto" -> hasMriPhoto |= stageStreamedPart(part, "image/", "MRI photo",
+                            AttachmentService.MAX_MRI_PHOTO_SIZE, "MRI photo size exceeds 10MB limit", hasMriPhoto, stagedAttachments);
+                    case "seizureVideo" -> hasSeizureVideo |= stageStreamedPart(part, "video/", "Seizure video",
+                            AttachmentService.MAX_SEIZURE_VIDEO_SIZE, "Seizure video size exceeds 50MB limit", hasSeizureVideo, stagedAttachments);
+                    default -> System.out.println("⚠️ Ignoring unexpected part: " + name);
+                }
+            }
+
+            if (formJson == null) {
+                throw new IllegalArgumentException("Missing 'form' part");
+            }
+            if ((hasMriPhoto && isPresent(mriUploadId)) || (hasSeizureVideo && isPresent(seizureVideoUploadId))) {
+                throw new IllegalArgumentException("Provide either a file or an upload ID for each attachment, not both");
+            }
+            if (isPresent(mriUploadId)) {
+                stagedAttachments.add(resumableUploadService.stageCompletedUpload(mriUploadId, UploadKind.MRI_PHOTO, uploadedBy));
+            }
+            if (isPresent(seizureVideoUploadId)) {
+                stagedAttachments.add(resumableUploadService.stageCompletedUpload(seizureVideoUploadId, UploadKind.SEIZURE_VIDEO, uploadedBy));
+            }
+
+            request = FORM_MAPPER.readValue(formJson, MedicalFormRequest.class);
+            if (request == null || request.cinNumber == null) {
+                throw new IllegalArgumentException("Request and CIN number cannot be null");
+            }
+            System.out.println("✅ Files encrypted while streaming: " + stagedAttachments.size() + " files");
         } catch (Exception e) {
-            System.err.println("⚠️ Warning: Failed to update patient's referring doctor: " + e.getMessage());
-            // Continue execution as this is not critical
+            System.err.println("❌ Error reading streamed submission: " + e.getMessage());
+            attachmentService.discardStagedAttachments(stagedAttachments);
+            throw e;
         }
-        
-        // Create notification for the neurologist
+
+        return completeSubmission(request, stagedAttachments, defaultUser, uploadedBy);
+    }
+
+    /**
+     * Returns true when a file was staged. Empty file parts (no file picked) are skipped.
+     */
+    private boolean stageStreamedPart(MultipartStreamParser.Part part, String typePrefix, String label,
+                                      long maxBytes, String limitMessage, boolean alreadyStaged,
+                                      List<StagedAttachment> stagedAttachments) throws Exception {
+        if (!part.isFile() || part.getFileName().isEmpty()) {
+            return false;
+        }
+        if (alreadyStaged) {
+            throw new IllegalArgumentException(label + " was sent more than once");
+        }
+        String contentType = part.getContentType();
+        if (contentType != null && !contentType.startsWith(typePrefix)) {
+            throw new IllegalArgumentException(label + " must be " + (typePrefix.equals("image/") ? "an image" : "a video") + " file. Received: " + contentType);
+        }
+
+        StagedAttachment staged = attachmentService.stageStream(
+                part.getInputStream(), part.getFileName(), contentType, maxBytes, limitMessage);
+        if (staged.getFileSize() == 0) {
+            attachmentService.discardStagedAttachments(List.of(staged));
+            return false;
+        }
+        stagedAttachments.add(staged);
+        return true;
+    }
+
+    private boolean isPresent(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    //-----------------------------------------------Stages 2 and 3, shared by both submission paths-----------------------------
+    private Integer completeSubmission(MedicalFormRequest request, List<StagedAttachment> stagedAttachments,
+                                       User defaultUser, User uploadedBy) throws Exception {
+        // Stage 2 : short transaction, compensate on failure
+        MedicalForm medicalForm;
         try {
-            notificationService.createNewFormNotification(medicalForm);
-            System.out.println("✅ Notification created");
+            medicalForm = medicalFormPersistenceService.persistSubmission(
+                    request, buildSymptomsSummary(request), stagedAttachments, defaultUser, uploadedBy);
         } catch (Exception e) {
-            System.err.println("⚠️ Warning: Failed to create notification: " + e.getMessage());
-            // Continue execution as this is not critical
+            System.err.println("❌ Error saving medical form: " + e.getMessage());
+            attachmentService.discardStagedAttachments(stagedAttachments);
+            throw new Exception("Error saving medical form: " + e.getMessage());
         }
 
-        // Generate and save PDF automatically (in background)
+        // Stage 3 : side effects, the form is already committed (its notification went through the outbox)
         try {
-            generateAndSavePdf(medicalForm);
+            imageRenditionService.scheduleForForm(medicalForm);
         } catch (Exception e) {
-            System.err.println("⚠️ PDF generation failed but form was saved: " + e.getMessage());
-            // Don't throw exception for PDF generation failures
+            // Previews are generated on demand instead
+            System.err.println("⚠️ Warning: Failed to schedule image previews: " + e.getMessage());
         }
 
         System.out.println("✅ Medical form submission completed successfully");
@@ -276,61 +369,26 @@ public class MedicalFormService {
     }
 
     /**
-     * Generate PDF for a medical form and save it to file system
-     */
-    public void generateAndSavePdf(MedicalForm form) {
-        try {
-            System.out.println("Starting PDF generation for form ID: " + form.getFormId());
-            
-            // Generate PDF
-            byte[] pdfData = pdfGenerationService.generateMedicalFormPdf(form);
-            System.out.println("PDF generated successfully, size: " + pdfData.length + " bytes");
-            
-            // Generate filename
-            String fileName = pdfGenerationService.generatePdfFileName(form);
-            System.out.println("Generated PDF filename: " + fileName);
-            
-            // Save to file system
-            String filePath = pdfStorageService.savePdfToFileSystem(pdfData, fileName);
-            System.out.println("PDF saved to: " + filePath);
-            
-            // Update form with PDF information
-            form.setPdfGenerated(true);
-            form.setPdfGeneratedAt(LocalDateTime.now());
-            form.setPdfFileName(fileName);
-            form.setPdfFilePath(filePath);
-            
-            medicalFormRepository.save(form);
-            
-            System.out.println("✅ PDF generation completed successfully for form ID: " + form.getFormId());
-            
-        } catch (Exception e) {
-            System.err.println("❌ Error generating PDF for form ID: " + form.getFormId());
-            e.printStackTrace();
-            // Don't throw exception to avoid breaking form submission
-        }
-    }
-
-    /**
-     * Get PDF data for a medical form
+     * Get PDF data for a medical form.
+     * Returns null when the PDF is not rendered yet; a render job is queued in that case.
      */
     public byte[] getPdfData(Integer formId) throws Exception {
         MedicalForm form = medicalFormRepository.findById(formId)
                 .orElseThrow(() -> new Exception("Form not found with ID: " + formId));
         
-        if (!form.getPdfGenerated() || form.getPdfFilePath() == null) {
-            System.out.println("📄 PDF not found for form ID: " + formId + ", generating now...");
-            // Generate PDF if not already generated
-            generateAndSavePdf(form);
+        if (!Boolean.TRUE.equals(form.getPdfGenerated()) || form.getPdfFilePath() == null) {
+            System.out.println("📄 PDF not ready for form ID: " + formId + ", queueing render");
+            pdfJobService.enqueue(form, "DOWNLOAD_REQUESTED");
+            return null;
         }
         
         try {
-            return pdfStorageService.loadPdfFromFileSystem(form.getPdfFilePath());
+            return pdfStorageService.loadPdf(form.getPdfFilePath());
         } catch (Exception e) {
-            System.err.println("❌ Error loading PDF for form ID: " + formId);
-            // Try to regenerate PDF if loading fails
-            generateAndSavePdf(form);
-            return pdfStorageService.loadPdfFromFileSystem(form.getPdfFilePath());
+            System.err.println("❌ Error loading PDF for form ID: " + formId + ", queueing render");
+            // File is gone, render it again in the background
+            pdfJobService.enqueue(form, "FILE_MISSING");
+            return null;
         }
     }
 
@@ -0,0 +1,56 @@
+package com.na.medical_mobile_app.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * Moves read notifications older than the retention period to notification_archive, so the notifications
+ * table only holds what users still look at. Works in small batches, each its own transaction,
+ * so user requests never wait long on its locks.
+ */
+@Component
+public class NotificationRetentionJob {
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Value("${notifications.retention.enabled:true}")
+    private boolean enabled;
+
+    @Value("${notifications.retention.days:90}")
+    private long retentionDays;
+
+    @Value("${notifications.retention.batch-size:500}")
+    private int batchSize;
+
+    @Value("${notifications.retention.max-batches:200}")
+    private int maxBatches;
+
+    @Scheduled(initialDelay = 300000, fixedDelayString = "${notifications.retention.interval-ms:3600000}")
+    public void archiveReadNotifications() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+        int archived = 0;
+        try {
+            // Capped per run, a large backlog is spread over several runs
+            for (int batch = 0; batch < maxBatches; batch++) {
+                int moved = notificationService.archiveReadBatch(cutoff, batchSize);
+                archived += moved;
+                if (moved < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error archiving notifications: " + e.getMessage());
+        }
+        if (archived > 0) {
+            System.out.println("🗄️ Archived " + archived + " read notifications older than " + retentionDays + " days");
+        }
+    }
+}
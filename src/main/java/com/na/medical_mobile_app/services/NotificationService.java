@@ -1,105 +1,266 @@
 package com.na.medical_mobile_app.services;
 
+import com.na.medical_mobile_app.DTOs.NotificationDTO;
 import com.na.medical_mobile_app.entities.*;
+import com.na.medical_mobile_app.repositories.NotificationArchiveRepository;
 import com.na.medical_mobile_app.repositories.NotificationRepository;
+import com.na.medical_mobile_app.repositories.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 @Transactional
 public class NotificationService {
 
+    /** Published when notifications of a user went from unread to read */
+    public record NotificationsRead(Integer userId, int count) {}
+
+    public record NotificationCreated(Integer userId, NotificationDTO notification) {}
+
+    /** A new event was folded into an unread notification, which keeps its id */
+    public record NotificationUpdated(Integer userId, NotificationDTO notification) {}
+
+    public record NotificationDeleted(Integer userId, boolean wasUnread) {}
+
     @Autowired
     private NotificationRepository notificationRepository;
 
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private NotificationArchiveRepository notificationArchiveRepository;
+
+    @Value("${notifications.coalesce.window-minutes:30}")
+    private long coalesceWindowMinutes;
+
+    @Value("${notifications.page.default-size:50}")
+    private int defaultPageSize;
+
+    @Value("${notifications.page.max-size:200}")
+    private int maxPageSize;
+
     /**
-     * Create a notification for a new form submission
+     * Notification for a new form submission, for the neurologist it was assigned to
      */
-    public Notification createNewFormNotification(MedicalForm form) {
-        User neurologist = form.getAssignedTo();
-        
-        Notification notification = new Notification();
-        notification.setUser(neurologist);
-        notification.setTitle("Nouveau formulaire médical");
-        notification.setMessage("Un nouveau formulaire médical a été soumis par Dr. " + form.getDoctor().getName() + 
-                " pour le patient " + form.getPatient().getName());
-        notification.setNotificationType(NotificationType.NEW_FORM);
-        notification.setRelatedId(form.getFormId());
-        notification.setRelatedType("MEDICAL_FORM");
-        notification.setIsRead(false);
-        notification.setCreatedAt(LocalDateTime.now());
-        
-        return notificationRepository.save(notification);
+    public Notification newFormNotification(Integer neurologistId, Integer formId, String doctorName, String patientName) {
+        return build(neurologistId, "Nouveau formulaire médical",
+                "Un nouveau formulaire médical a été soumis par Dr. " + doctorName + " pour le patient " + patientName,
+                NotificationType.NEW_FORM, formId, "MEDICAL_FORM");
     }
     
     /**
-     * Create a notification for a form response
+     * Notification for a form response, for the doctor who submitted the form
      */
-    public Notification createFormResponseNotification(FormResponse response) {
-        MedicalForm form = response.getForm();
-        User doctor = form.getDoctor();
-        
+    public Notification formResponseNotification(Integer doctorId, Integer formId, String responderName, String patientName) {
+        return build(doctorId, "Réponse à votre formulaire",
+                "Dr. " + responderName + " a répondu à votre formulaire pour le patient " + patientName,
+                NotificationType.UPDATE, formId, "FORM_RESPONSE");
+    }
+    
+    /**
+     * Notification for a chat message, for its receiver
+     */
+    public Notification chatNotification(Integer receiverId, Integer formId, String senderName, String patientName) {
+        return build(receiverId, "Nouveau message",
+                "Dr. " + senderName + " vous a envoyé un message concernant le patient " + patientName,
+                NotificationType.ALERT, formId, "CHAT");
+    }
+    
+    private Notification build(Integer userId, String title, String message, NotificationType type,
+                               Integer relatedId, String relatedType) {
         Notification notification = new Notification();
-        notification.setUser(doctor);
-        notification.setTitle("Réponse à votre formulaire");
-        notification.setMessage("Dr. " + response.getResponder().getName() + 
-                " a répondu à votre formulaire pour le patient " + form.getPatient().getName());
-        notification.setNotificationType(NotificationType.UPDATE);
-        notification.setRelatedId(form.getFormId());
-        notification.setRelatedType("FORM_RESPONSE");
+        // Only the id is needed to insert the row, the reference is never loaded
+        notification.setUser(userRepository.getReferenceById(userId));
+        notification.setTitle(title);
+        notification.setMessage(message);
+        notification.setNotificationType(type);
+        notification.setRelatedId(relatedId);
+        notification.setRelatedType(relatedType);
         notification.setIsRead(false);
         notification.setCreatedAt(LocalDateTime.now());
-        
-        return notificationRepository.save(notification);
+        return notification;
+    }
+    
+    /**
+     * Saves built notifications in the caller's transaction, coalesced on (user, relatedType, relatedId) :
+     * those of the batch with the same key are folded into one, which is then folded into the user's unread
+     * notification with that key if it is younger than the window. A burst of chat messages about a patient
+     * thus leaves one notification with a count. The rest is written with multi-row inserts.
+     */
+    public void createAll(List<Notification> notifications) {
+        if (notifications.isEmpty()) {
+            return;
+        }
+
+        // The latest notification of a key keeps its message and time, and carries the count
+        Map<CoalesceKey, Notification> pending = new LinkedHashMap<>();
+        for (Notification notification : notifications) {
+            pending.merge(keyOf(notification), notification, (first, next) -> {
+                next.setEventCount(first.getEventCount() + next.getEventCount());
+                return next;
+            });
+        }
+
+        if (coalesceWindowMinutes > 0) {
+            Set<Integer> userIds = new HashSet<>();
+            pending.keySet().forEach(key -> userIds.add(key.userId()));
+            Map<CoalesceKey, Object[]> open = new HashMap<>();
+            for (Object[] row : notificationRepository.findCoalescable(userIds,
+                    LocalDateTime.now().minusMinutes(coalesceWindowMinutes))) {
+                // Ordered by id, the latest of several wins
+                open.put(new CoalesceKey((Integer) row[1], (String) row[2], (Integer) row[3]), row);
+            }
+            Iterator<Map.Entry<CoalesceKey, Notification>> entries = pending.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<CoalesceKey, Notification> entry = entries.next();
+                Object[] row = open.get(entry.getKey());
+                if (row == null) {
+                    continue;
+                }
+                Notification notification = entry.getValue();
+                int eventCount = (row[4] != null ? (Integer) row[4] : 1) + notification.getEventCount();
+                String title = titleFor(notification, eventCount);
+                if (notificationRepository.coalesce((Integer) row[0], eventCount, title,
+                        notification.getMessage(), notification.getCreatedAt()) == 1) {
+                    entries.remove();
+                    notification.setNotificationId((Integer) row[0]);
+                    notification.setTitle(title);
+                    notification.setEventCount(eventCount);
+                    eventPublisher.publishEvent(new NotificationUpdated(entry.getKey().userId(), toDTO(notification)));
+                }
+            }
+        }
+
+        List<Notification> inserts = new ArrayList<>(pending.values());
+        for (Notification notification : inserts) {
+            notification.setTitle(titleFor(notification, notification.getEventCount()));
+        }
+        notificationRepository.insertAll(inserts);
+        for (Notification notification : inserts) {
+            eventPublisher.publishEvent(new NotificationCreated(notification.getUser().getUserId(), toDTO(notification)));
+        }
+    }
+
+    private NotificationDTO toDTO(Notification notification) {
+        return new NotificationDTO(notification.getNotificationId(), notification.getTitle(), notification.getMessage(),
+                notification.getNotificationType(), notification.getRelatedId(), notification.getRelatedType(),
+                notification.getIsRead(), notification.getCreatedAt(), notification.getEventCount());
+    }
+
+    private record CoalesceKey(Integer userId, String relatedType, Integer relatedId) {}
+
+    private CoalesceKey keyOf(Notification notification) {
+        return new CoalesceKey(notification.getUser().getUserId(), notification.getRelatedType(), notification.getRelatedId());
+    }
+
+    // "Nouveau message" becomes "3 nouveaux messages" once a burst has been folded in
+    private String titleFor(Notification notification, int eventCount) {
+        return eventCount > 1 && "CHAT".equals(notification.getRelatedType())
+                ? eventCount + " nouveaux messages"
+                : notification.getTitle();
     }
     
     /**
-     * Get all notifications for a user
+     * One page of a user's notifications, newest first, keyset paginated on (createdAt, notificationId) :
+     * beforeId is the last notification of the previous page. A page shorter than the limit is the last one
      */
-    public List<Notification> getUserNotifications(User user) {
-        return notificationRepository.findByUserOrderByCreatedAtDesc(user);
+    public List<NotificationDTO> getUserNotifications(User user, Integer beforeId, Integer limit) {
+        Pageable page = pageOf(limit);
+        if (beforeId == null) {
+            return notificationRepository.findPage(user.getUserId(), page);
+        }
+        return notificationRepository.findPageBefore(user.getUserId(), findCursor(user, beforeId), beforeId, page);
     }
     
     /**
-     * Get unread notifications for a user
+     * One page of a user's unread notifications, same paging as {@link #getUserNotifications}
      */
-    public List<Notification> getUnreadNotifications(User user) {
-        return notificationRepository.findByUserAndIsReadOrderByCreatedAtDesc(user, false);
+    public List<NotificationDTO> getUnreadNotifications(User user, Integer beforeId, Integer limit) {
+        Pageable page = pageOf(limit);
+        if (beforeId == null) {
+            return notificationRepository.findUnreadPage(user.getUserId(), page);
+        }
+        return notificationRepository.findUnreadPageBefore(user.getUserId(), findCursor(user, beforeId), beforeId, page);
+    }
+
+    private Pageable pageOf(Integer limit) {
+        return PageRequest.of(0, Math.max(1, Math.min(limit != null ? limit : defaultPageSize, maxPageSize)));
+    }
+
+    private LocalDateTime findCursor(User user, Integer notificationId) {
+        return notificationRepository.findCreatedAtForUser(notificationId, user.getUserId())
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Notification " + notificationId + " not found"));
     }
     
     /**
      * Count unread notifications for a user
      */
     public Integer countUnreadNotifications(User user) {
-        return notificationRepository.countUnreadNotifications(user);
+        return unreadCounterService.getUnreadNotifications(user.getUserId());
     }
     
     /**
      * Mark a notification as read
      */
     public Notification markAsRead(Integer notificationId) {
+        int changed = notificationRepository.markRead(notificationId);
         Notification notification = notificationRepository.findById(notificationId)
                 .orElseThrow(() -> new RuntimeException("Notification not found"));
         
-        notification.setIsRead(true);
-        return notificationRepository.save(notification);
+        if (changed > 0) {
+            eventPublisher.publishEvent(new NotificationsRead(notification.getUser().getUserId(), changed));
+        }
+        return notification;
     }
     
     /**
-     * Mark all notifications as read for a user
+     * Mark all notifications as read for a user, in one UPDATE. Returns how many were unread
      */
-    public void markAllAsRead(User user) {
-        List<Notification> unreadNotifications = notificationRepository.findByUserAndIsReadOrderByCreatedAtDesc(user, false);
-        
-        for (Notification notification : unreadNotifications) {
-            notification.setIsRead(true);
+    public int markAllAsRead(User user) {
+        int count = notificationRepository.markAllReadForUser(user.getUserId());
+        if (count > 0) {
+            eventPublisher.publishEvent(new NotificationsRead(user.getUserId(), count));
         }
-        
-        notificationRepository.saveAll(unreadNotifications);
+        return count;
+    }
+    
+    /**
+     * Moves one batch of read notifications older than the cutoff to notification_archive, in its own short
+     * transaction so rows are only locked for one batch. Returns the size of the batch
+     */
+    public int archiveReadBatch(LocalDateTime cutoff, int batchSize) {
+        List<Integer> notificationIds = notificationRepository.findArchivable(cutoff, PageRequest.of(0, batchSize));
+        if (notificationIds.isEmpty()) {
+            return 0;
+        }
+        notificationArchiveRepository.archive(notificationIds, LocalDateTime.now());
+        notificationRepository.deleteRead(notificationIds);
+        return notificationIds.size();
     }
     
     /**
@@ -110,27 +271,7 @@ public class NotificationService {
                 .orElseThrow(() -> new RuntimeException("Notification not found"));
         
         notificationRepository.delete(notification);
+        eventPublisher.publishEvent(new NotificationDeleted(notification.getUser().getUserId(),
+                !Boolean.TRUE.equals(notification.getIsRead())));
     }
-    
-    /**
-     * Create a notification for a chat message
-     */
-    public Notification createChatNotification(Communication communication) {
-        MedicalForm form = communication.getForm();
-        User receiver = communication.getReceiver();
-        User sender = communication.getSender();
-        
-        Notification notification = new Notification();
-        notification.setUser(receiver);
-        notification.setTitle("Nouveau message");
-        notification.setMessage("Dr. " + sender.getName() + 
-                " vous a envoyé un message concernant le patient " + form.getPatient().getName());
-        notification.setNotificationType(NotificationType.ALERT);
-        notification.setRelatedId(form.getFormId());
-        notification.setRelatedType("CHAT");
-        notification.setIsRead(false);
-        notification.setCreatedAt(LocalDateTime.now());
-        
-        return notificationRepository.save(notification);
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,247 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.DTOs.NotificationDTO;
+import com.na.medical_mobile_app.repositories.NotificationRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Server-Sent Events stream of a user's notifications, so the badges no longer poll.
+ * On connect the client gets a "snapshot" (unread count and latest unread notifications), or after a reconnect
+ * with Last-Event-ID the "notification" events it missed. Then each new or updated notification is sent as a
+ * "notification" event, and each change of the unread count as a "count" event.
+ *
+ * The id of a "notification" event is "createdAt_notificationId". Coalescing moves createdAt forward, so ids keep
+ * growing even when an older notification is updated, and a missed update is replayed like a missed creation.
+ *
+ * An open stream is only an entry in a map: the servlet request is async, so no thread waits on it.
+ * One scheduled task sends the heartbeats of all streams.
+ * Changes made on another node reach the streams held here through {@link ClusterEventRelay}.
+ */
+@Service
+public class NotificationStreamService {
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Value("${notifications.stream.sse-timeout-ms:1800000}")
+    private long sseTimeoutMs;
+
+    @Value("${notifications.stream.snapshot-size:20}")
+    private int snapshotSize;
+
+    @Value("${notifications.stream.replay-limit:100}")
+    private int replayLimit;
+
+    @Value("${notifications.stream.threads:2}")
+    private int threads;
+
+    @Value("${notifications.stream.queue-capacity:1000}")
+    private int queueCapacity;
+
+    // Streams per user, a user can have several devices open
+    private final Map<Integer, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "notification-push-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdown();
+        emitters.values().forEach(set -> set.forEach(SseEmitter::complete));
+    }
+
+    //-----------------------------------Subscribing-------------------------------------------------------------------
+    /**
+     * Opens a stream for the user. The emitter is registered before the snapshot is read,
+     * so a notification created meanwhile is sent twice at worst, never missed.
+     * @param lastEventId The Last-Event-ID header sent by EventSource when it reconnects, or null
+     */
+    public SseEmitter subscribe(Integer userId, String lastEventId) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        emitters.compute(userId, (id, set) -> {
+            Set<SseEmitter> subscribers = set != null ? set : new CopyOnWriteArraySet<>();
+            subscribers.add(emitter);
+            return subscribers;
+        });
+        emitter.onCompletion(() -> remove(userId, emitter));
+        emitter.onTimeout(() -> remove(userId, emitter));
+        emitter.onError(error -> remove(userId, emitter));
+
+        EventCursor after = parseEventId(userId, lastEventId);
+        try {
+            if (after != null) {
+                for (NotificationDTO notification : notificationRepository.findChangedAfter(
+                        userId, after.createdAt(), after.notificationId(), PageRequest.of(0, replayLimit))) {
+                    emitter.send(notificationEvent(notification));
+                }
+                emitter.send(countEvent(unreadCounterService.getUnreadNotifications(userId)));
+            } else {
+                Map<String, Object> snapshot = new LinkedHashMap<>();
+                snapshot.put("count", unreadCounterService.getUnreadNotifications(userId));
+                snapshot.put("notifications", notificationRepository.findLatestUnread(userId, PageRequest.of(0, snapshotSize)));
+                emitter.send(SseEmitter.event().name("snapshot").data(snapshot, MediaType.APPLICATION_JSON));
+            }
+        } catch (IOException | IllegalStateException e) {
+            remove(userId, emitter);
+        }
+        return emitter;
+    }
+
+    private record EventCursor(LocalDateTime createdAt, Integer notificationId) {}
+
+    private String eventId(NotificationDTO notification) {
+        // Microseconds, what the column keeps
+        return notification.getCreatedAt().truncatedTo(ChronoUnit.MICROS) + "_" + notification.getNotificationId();
+    }
+
+    private EventCursor parseEventId(Integer userId, String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return null;
+        }
+        String value = lastEventId.trim();
+        int separator = value.lastIndexOf('_');
+        try {
+            if (separator < 0) {
+                // Bare notification id, sent by streams opened before ids carried createdAt
+                Integer notificationId = Integer.valueOf(value);
+                return notificationRepository.findCreatedAtForUser(notificationId, userId)
+                        .map(createdAt -> new EventCursor(createdAt, notificationId))
+                        .orElse(null);
+            }
+            return new EventCursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Integer.valueOf(value.substring(separator + 1)));
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private void remove(Integer userId, SseEmitter emitter) {
+        emitters.computeIfPresent(userId, (id, set) -> {
+            set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    //-----------------------------------Publishing--------------------------------------------------------------------
+    // Runs after the unread counters have moved (they listen first), so the count sent is the new one
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNotificationCreated(NotificationService.NotificationCreated event) {
+        push(event.userId(), event.notification(), true);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNotificationUpdated(NotificationService.NotificationUpdated event) {
+        push(event.userId(), event.notification(), false);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNotificationsRead(NotificationService.NotificationsRead event) {
+        push(event.userId(), null, true);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onNotificationDeleted(NotificationService.NotificationDeleted event) {
+        if (event.wasUnread()) {
+            push(event.userId(), null, true);
+        }
+    }
+
+    // Users without an open stream cost nothing
+    private void push(Integer userId, NotificationDTO notification, boolean countChanged) {
+        if (!emitters.containsKey(userId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                if (notification != null) {
+                    sendToUser(userId, () -> notificationEvent(notification));
+                }
+                if (countChanged) {
+                    int count = unreadCounterService.getUnreadNotifications(userId);
+                    sendToUser(userId, () -> countEvent(count));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Clients catch up with the snapshot of their next connection
+            System.err.println("⚠️ Notification push queue full, user " + userId + " not updated");
+        }
+    }
+
+    private SseEmitter.SseEventBuilder notificationEvent(NotificationDTO notification) {
+        return SseEmitter.event()
+                .id(eventId(notification))
+                .name("notification")
+                .data(notification, MediaType.APPLICATION_JSON);
+    }
+
+    private SseEmitter.SseEventBuilder countEvent(int count) {
+        return SseEmitter.event().name("count").data(Map.of("count", count), MediaType.APPLICATION_JSON);
+    }
+
+    // An event builder can only be built once, hence one per stream
+    private void sendToUser(Integer userId, Supplier<SseEmitter.SseEventBuilder> event) {
+        Set<SseEmitter> subscribers = emitters.get(userId);
+        if (subscribers == null) {
+            return;
+        }
+        for (SseEmitter emitter : subscribers) {
+            try {
+                emitter.send(event.get());
+            } catch (IOException | IllegalStateException e) {
+                remove(userId, emitter);
+            }
+        }
+    }
+
+    // A periodic comment line keeps proxies from closing idle streams and detects clients that went away
+    @Scheduled(fixedDelayString = "${notifications.stream.heartbeat-ms:25000}")
+    public void heartbeat() {
+        emitters.forEach((userId, subscribers) -> {
+            for (SseEmitter emitter : subscribers) {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    remove(userId, emitter);
+                }
+            }
+        });
+    }
+}
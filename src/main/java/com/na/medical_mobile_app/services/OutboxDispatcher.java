@@ -0,0 +1,109 @@
+package com.na.medical_mobile_app.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drains the outbox on one background thread. It runs right after a transaction that recorded events commits,
+ * and on a timer for what was left by a failure, a restart or another node.
+ * Wake-ups arriving while a drain is already queued are merged into it.
+ */
+@Component
+public class OutboxDispatcher {
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Value("${notifications.outbox.batch-size:200}")
+    private int batchSize;
+
+    private ExecutorService executor;
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onEventRecorded(OutboxService.EventRecorded event) {
+        wakeUp();
+    }
+
+    @Scheduled(fixedDelayString = "${notifications.outbox.poll-interval-ms:10000}")
+    public void poll() {
+        wakeUp();
+    }
+
+    private void wakeUp() {
+        if (drainQueued.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the events stay in the table for the next start
+                drainQueued.set(false);
+            }
+        }
+    }
+
+    private void drain() {
+        // Cleared first, events committed while draining queue another pass
+        drainQueued.set(false);
+        try {
+            int dispatched;
+            do {
+                dispatched = dispatchNext();
+            } while (dispatched == batchSize);
+        } catch (Exception e) {
+            // Database unreachable or such, what is left is retried on the next poll
+            System.err.println("❌ Error dispatching notification events: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One batch, or when it fails (it rolled back) the same events one by one, each in its own transaction,
+     * so a failing event only costs itself an attempt instead of holding back every event after it.
+     */
+    private int dispatchNext() {
+        try {
+            return outboxService.dispatchBatch(batchSize);
+        } catch (Exception e) {
+            System.err.println("⚠️ Notification event batch failed, dispatching its events one by one: " + e.getMessage());
+        }
+
+        List<Long> eventIds = outboxService.findNextEventIds(batchSize);
+        for (Long eventId : eventIds) {
+            try {
+                outboxService.dispatchEvent(eventId);
+            } catch (Exception e) {
+                String error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+                outboxService.recordFailure(eventId, error);
+                System.err.println("❌ Notification event " + eventId + " failed (max "
+                        + outboxService.getMaxAttempts() + " attempts): " + error);
+            }
+        }
+        return eventIds.size();
+    }
+}
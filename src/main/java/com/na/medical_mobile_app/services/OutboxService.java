@@ -0,0 +1,136 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.entities.Notification;
+import com.na.medical_mobile_app.entities.OutboxEvent;
+import com.na.medical_mobile_app.entities.OutboxEventType;
+import com.na.medical_mobile_app.repositories.CommunicationRepository;
+import com.na.medical_mobile_app.repositories.FormResponseRepository;
+import com.na.medical_mobile_app.repositories.MedicalFormRepository;
+import com.na.medical_mobile_app.repositories.OutboxEventRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transactional outbox of the notification events. {@link #record} is called inside the transaction that saves
+ * the form, message or response, so the event exists exactly when the change does. {@link OutboxDispatcher}
+ * then turns events into notifications in batches, off the request path.
+ */
+@Service
+@Transactional
+public class OutboxService {
+
+    /** Published by {@link #record}, wakes the dispatcher once the transaction has committed */
+    public record EventRecorded(OutboxEventType type) {}
+
+    @Autowired
+    private OutboxEventRepository outboxEventRepository;
+
+    @Autowired
+    private CommunicationRepository communicationRepository;
+
+    @Autowired
+    private MedicalFormRepository medicalFormRepository;
+
+    @Autowired
+    private FormResponseRepository formResponseRepository;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${notifications.outbox.max-attempts:5}")
+    private int maxAttempts;
+
+    //-----------------------------------Recording---------------------------------------------------------------------
+    public void record(OutboxEventType type, Integer aggregateId) {
+        outboxEventRepository.save(new OutboxEvent(type, aggregateId));
+        eventPublisher.publishEvent(new EventRecorded(type));
+    }
+
+    //-----------------------------------Dispatching-------------------------------------------------------------------
+    /**
+     * Creates the notifications of up to {@code batchSize} of the oldest events and deletes those events,
+     * all in one transaction : after a crash the batch is simply dispatched again. Each type is loaded
+     * with one query. Returns the number of events handled.
+     * When the batch fails, {@link OutboxDispatcher} retries its events one by one.
+     */
+    public int dispatchBatch(int batchSize) {
+        return dispatch(outboxEventRepository.lockNextBatch(maxAttempts, PageRequest.of(0, batchSize)));
+    }
+
+    /** Ids of the next events, for dispatching them one by one */
+    public List<Long> findNextEventIds(int batchSize) {
+        return outboxEventRepository.findNextEventIds(maxAttempts, PageRequest.of(0, batchSize));
+    }
+
+    /** Dispatches one event in its own transaction, nothing if another dispatcher holds it or it is gone */
+    public int dispatchEvent(Long eventId) {
+        return dispatch(outboxEventRepository.lockEvent(eventId, maxAttempts));
+    }
+
+    /**
+     * Counts a failed dispatch of the event, called outside the transaction that rolled back.
+     * At {@code notifications.outbox.max-attempts} the event is no longer picked up.
+     */
+    public void recordFailure(Long eventId, String error) {
+        outboxEventRepository.recordFailure(eventId, error);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    private int dispatch(List<OutboxEvent> events) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        Map<OutboxEventType, List<Integer>> idsByType = new EnumMap<>(OutboxEventType.class);
+        List<Long> eventIds = new ArrayList<>();
+        for (OutboxEvent event : events) {
+            idsByType.computeIfAbsent(event.getEventType(), type -> new ArrayList<>()).add(event.getAggregateId());
+            eventIds.add(event.getEventId());
+        }
+
+        // Rows deleted since the event was written have no notification, their events are dropped with the rest
+        List<Notification> notifications = new ArrayList<>();
+        if (idsByType.containsKey(OutboxEventType.FORM_SUBMITTED)) {
+            for (Object[] row : medicalFormRepository.findNotificationInfo(idsByType.get(OutboxEventType.FORM_SUBMITTED))) {
+                // [formId, assignedToId, doctorName, patientName], nobody to tell until a neurologist is assigned
+                if (row[1] != null) {
+                    notifications.add(notificationService.newFormNotification(
+                            (Integer) row[1], (Integer) row[0], (String) row[2], (String) row[3]));
+                }
+            }
+        }
+        if (idsByType.containsKey(OutboxEventType.MESSAGE_SENT)) {
+            for (Object[] row : communicationRepository.findNotificationInfo(idsByType.get(OutboxEventType.MESSAGE_SENT))) {
+                // [communicationId, receiverId, senderName, formId, patientName]
+                notifications.add(notificationService.chatNotification(
+                        (Integer) row[1], (Integer) row[3], (String) row[2], (String) row[4]));
+            }
+        }
+        if (idsByType.containsKey(OutboxEventType.RESPONSE_SAVED)) {
+            for (Object[] row : formResponseRepository.findNotificationInfo(idsByType.get(OutboxEventType.RESPONSE_SAVED))) {
+                // [responseId, doctorId, responderName, formId, patientName]
+                notifications.add(notificationService.formResponseNotification(
+                        (Integer) row[1], (Integer) row[3], (String) row[2], (String) row[4]));
+            }
+        }
+
+        notificationService.createAll(notifications);
+        outboxEventRepository.deleteByEventIds(eventIds);
+        return events.size();
+    }
+}
@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.UUID;
 
 @Service
 public class PdfGenerationService {
@@ -233,10 +234,16 @@ public class PdfGenerationService {
         return date.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
     }
 
+    /**
+     * Unique per render : the pdfVersion tells renders of successive edits apart, and the random suffix two renders
+     * of the same version (a retried job), so a render never overwrites the file the form currently points to.
+     */
     public String generatePdfFileName(MedicalForm form) {
         String patientName = form.getPatient().getName() != null ? 
             form.getPatient().getName().replaceAll("[^a-zA-Z0-9]", "_") : "Patient";
         String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-        return "Formulaire_Medical_" + patientName + "_" + form.getFormId() + "_" + timestamp + ".pdf";
+        String suffix = UUID.randomUUID().toString().substring(0, 8);
+        return "Formulaire_Medical_" + patientName + "_" + form.getFormId() + "_v" + form.getPdfVersion()
+                + "_" + timestamp + "_" + suffix + ".pdf";
     }
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.entities.MedicalForm;
+import com.na.medical_mobile_app.entities.PdfJob;
+import com.na.medical_mobile_app.entities.PdfJobStatus;
+import com.na.medical_mobile_app.repositories.MedicalFormRepository;
+import com.na.medical_mobile_app.repositories.PdfJobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable PDF rendering queue backed by the pdf_jobs table.
+ * Jobs are enqueued in the caller's transaction and rendered later by {@link PdfJobWorker}.
+ */
+@Service
+@Transactional
+public class PdfJobService {
+
+    @Autowired
+    private PdfJobRepository pdfJobRepository;
+
+    @Autowired
+    private MedicalFormRepository medicalFormRepository;
+
+    @Autowired
+    private PdfGenerationService pdfGenerationService;
+
+    @Autowired
+    private PdfStorageService pdfStorageService;
+
+    @Value("${pdf.queue.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${pdf.queue.retry-base-delay-ms:5000}")
+    private long retryBaseDelayMs;
+
+    @Value("${pdf.queue.stale-after-minutes:10}")
+    private long staleAfterMinutes;
+
+    //-----------------------------------Enqueue----------------------------------------------------------------
+    /**
+     * Queues a (re)render of the form's PDF and marks the current PDF as out of date (new pdfVersion).
+     * Does nothing if a render is already waiting for this form : the insert is skipped by the database,
+     * so two concurrent edits cannot both queue one.
+     */
+    public void enqueue(MedicalForm form, String reason) {
+        // In-memory too, so a managed form flushed later by the caller keeps the flag
+        form.setPdfGenerated(false);
+        medicalFormRepository.markPdfStale(form.getFormId());
+
+        if (pdfJobRepository.insertPendingJob(form.getFormId(), reason, LocalDateTime.now(), PdfJobStatus.PENDING) == 0) {
+            System.out.println("📄 PDF job already pending for form ID: " + form.getFormId());
+            return;
+        }
+        System.out.println("📄 PDF job queued for form ID: " + form.getFormId() + " (" + reason + ")");
+    }
+
+    //-----------------------------------Claiming due jobs------------------------------------------------------
+    /**
+     * Takes up to {@code limit} due jobs, moving them to RUNNING.
+     * A job already taken by another worker is simply skipped.
+     */
+    public List<Integer> claimDueJobs(int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Integer> candidates = pdfJobRepository.findDueJobIds(PdfJobStatus.PENDING, now, PageRequest.of(0, limit));
+
+        List<Integer> claimed = new ArrayList<>();
+        for (Integer jobId : candidates) {
+            if (pdfJobRepository.claimJob(jobId, now, PdfJobStatus.PENDING, PdfJobStatus.RUNNING) == 1) {
+                claimed.add(jobId);
+            }
+        }
+        return claimed;
+    }
+
+    //-----------------------------------Rendering--------------------------------------------------------------
+    /**
+     * Renders one claimed job. Runs without a surrounding transaction so that
+     * no connection is held while PDFBox works.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void runJob(Integer jobId) {
+        PdfJob job = pdfJobRepository.findById(jobId).orElse(null);
+        if (job == null) {
+            return;
+        }
+
+        try {
+            MedicalForm form = medicalFormRepository.findById(job.getFormId())
+                    .orElseThrow(() -> new Exception("Form not found with ID: " + job.getFormId()));
+
+            System.out.println("Starting PDF generation for form ID: " + form.getFormId());
+            int pdfVersion = form.getPdfVersion();
+            byte[] pdfData = pdfGenerationService.generateMedicalFormPdf(form);
+            String fileName = pdfGenerationService.generatePdfFileName(form);
+            String filePath = pdfStorageService.savePdf(pdfData, fileName);
+
+            if (medicalFormRepository.markPdfGenerated(form.getFormId(), pdfVersion, LocalDateTime.now(), fileName, filePath) == 0) {
+                // Edited while rendering : this PDF is already outdated, the job queued by the edit renders the new one
+                String current = medicalFormRepository.findPdfFilePath(form.getFormId()).orElse(null);
+                if (current == null || !pdfStorageService.toKey(current).equals(filePath)) {
+                    pdfStorageService.deletePdf(filePath);
+                }
+                pdfJobRepository.closeJob(jobId, LocalDateTime.now(), "Superseded by a newer edit of the form", PdfJobStatus.DONE);
+                System.out.println("📄 PDF of form ID " + form.getFormId() + " outdated while rendering, discarded");
+                return;
+            }
+
+            // The previous rendering is no longer referenced
+            if (form.getPdfFilePath() != null && !pdfStorageService.toKey(form.getPdfFilePath()).equals(filePath)) {
+                pdfStorageService.deletePdf(form.getPdfFilePath());
+            }
+
+            job.setStatus(PdfJobStatus.DONE);
+            job.setFinishedAt(LocalDateTime.now());
+            job.setLastError(null);
+            pdfJobRepository.save(job);
+            System.out.println("✅ PDF generation completed successfully for form ID: " + form.getFormId());
+        } catch (Exception e) {
+            System.err.println("❌ Error generating PDF for form ID: " + job.getFormId() + " - " + e.getMessage());
+            handleFailure(job, e);
+        }
+    }
+
+    /**
+     * Schedules a retry with exponential backoff, or gives up after max attempts
+     */
+    private void handleFailure(PdfJob job, Exception e) {
+        if (job.getAttempts() >= maxAttempts) {
+            job.setLastError(e.getMessage());
+            job.setStatus(PdfJobStatus.FAILED);
+            job.setFinishedAt(LocalDateTime.now());
+            pdfJobRepository.save(job);
+            System.err.println("❌ PDF job " + job.getJobId() + " failed after " + job.getAttempts() + " attempts");
+            return;
+        }
+        long delayMs = retryBaseDelayMs * (1L << Math.min(job.getAttempts() - 1, 10));
+        if (requeue(job.getJobId(), LocalDateTime.now().plusNanos(delayMs * 1_000_000), e.getMessage())) {
+            System.out.println("🔄 PDF job " + job.getJobId() + " will retry in " + delayMs + " ms");
+        }
+    }
+
+    /**
+     * Puts a job back in the queue, or closes it when its form has a pending job already (queued by an edit
+     * while it ran), which renders the form anyway. Each statement runs in its own transaction,
+     * so a lost race on the unique pending_form_id does not abort anything else.
+     */
+    private boolean requeue(Integer jobId, LocalDateTime nextAttemptAt, String error) {
+        try {
+            if (pdfJobRepository.requeueJob(jobId, nextAttemptAt, error, PdfJobStatus.PENDING) == 1) {
+                return true;
+            }
+        } catch (DataIntegrityViolationException e) {
+            // A pending job was queued for the form meanwhile
+        }
+        pdfJobRepository.closeJob(jobId, LocalDateTime.now(), "Superseded by a job pending for the same form", PdfJobStatus.DONE);
+        return false;
+    }
+
+    //-----------------------------------Maintenance & stats----------------------------------------------------
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public int requeueStaleJobs() {
+        LocalDateTime now = LocalDateTime.now();
+        int requeued = 0;
+        for (Integer jobId : pdfJobRepository.findStaleJobIds(now.minusMinutes(staleAfterMinutes), PdfJobStatus.RUNNING)) {
+            if (requeue(jobId, now, null)) {
+                requeued++;
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * Queue depth for the admin dashboard
+     */
+    public Map<String, Object> getQueueStats() {
+        long pending = pdfJobRepository.countByStatus(PdfJobStatus.PENDING);
+        long running = pdfJobRepository.countByStatus(PdfJobStatus.RUNNING);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending);
+        stats.put("running", running);
+        stats.put("failed", pdfJobRepository.countByStatus(PdfJobStatus.FAILED));
+        stats.put("depth", pending + running);
+        return stats;
+    }
+}
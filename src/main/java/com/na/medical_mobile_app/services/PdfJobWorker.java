@@ -0,0 +1,86 @@
+package com.na.medical_mobile_app.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls the pdf_jobs table and renders due jobs on a bounded pool.
+ * Never claims more jobs than it has free threads, so the pool queue stays empty.
+ */
+@Component
+public class PdfJobWorker {
+
+    @Autowired
+    private PdfJobService pdfJobService;
+
+    @Value("${pdf.queue.workers:2}")
+    private int workers;
+
+    private ExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-render-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    @Scheduled(fixedDelayString = "${pdf.queue.poll-interval-ms:2000}")
+    public void pollQueue() {
+        int free = workers - inFlight.get();
+        if (free <= 0) {
+            return;
+        }
+
+        List<Integer> jobIds;
+        try {
+            jobIds = pdfJobService.claimDueJobs(free);
+        } catch (Exception e) {
+            System.err.println("❌ Error polling PDF queue: " + e.getMessage());
+            return;
+        }
+
+        for (Integer jobId : jobIds) {
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    pdfJobService.runJob(jobId);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void recoverStaleJobs() {
+        try {
+            int requeued = pdfJobService.requeueStaleJobs();
+            if (requeued > 0) {
+                System.out.println("🔄 Requeued " + requeued + " stale PDF jobs");
+            }
+        } catch (Exception e) {
+            System.err.println("❌ Error recovering stale PDF jobs: " + e.getMessage());
+        }
+    }
+}
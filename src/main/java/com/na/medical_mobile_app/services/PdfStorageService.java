@@ -1,52 +1,53 @@
 // service/PdfStorageService.java
 package com.na.medical_mobile_app.services;
 
-import org.springframework.beans.factory.annotation.Value;
+import com.na.medical_mobile_app.storage.BlobStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import com.na.medical_mobile_app.entities.MedicalForm;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
 import java.nio.file.Paths;
 
 @Service
 public class PdfStorageService {
 
-    @Value("${pdf.storage.directory:./pdf-storage}")
-    private String storageDirectory;
+    @Autowired
+    @Qualifier("pdfBlobStore")
+    private BlobStore pdfStore;
 
-    public String savePdfToFileSystem(byte[] pdfData, String fileName) throws IOException {
-        // Create storage directory if it doesn't exist
-        Path storagePath = Paths.get(storageDirectory);
-        if (!Files.exists(storagePath)) {
-            Files.createDirectories(storagePath);
-        }
-
-        // Save PDF file
-        Path filePath = storagePath.resolve(fileName);
-        try (FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
-            fos.write(pdfData);
-        }
-
-        return filePath.toString();
+    /**
+     * Saves the PDF in the pdf blob store and returns its key, which is what gets stored on the form
+     */
+    public String savePdf(byte[] pdfData, String fileName) throws IOException {
+        pdfStore.put(fileName, new ByteArrayInputStream(pdfData), pdfData.length);
+        return fileName;
     }
 
-    public byte[] loadPdfFromFileSystem(String filePath) throws IOException {
-        return Files.readAllBytes(Paths.get(filePath));
+    public byte[] loadPdf(String filePath) throws IOException {
+        try (InputStream in = pdfStore.get(toKey(filePath))) {
+            return in.readAllBytes();
+        }
     }
 
-    public boolean deletePdfFile(String filePath) {
+    public boolean deletePdf(String filePath) {
         try {
-            return Files.deleteIfExists(Paths.get(filePath));
+            return pdfStore.delete(toKey(filePath));
         } catch (IOException e) {
             return false;
         }
     }
 
+    /**
+     * Forms rendered before the blob store saved the full path (./pdf-storage/name.pdf), the key is the file name
+     */
+    public String toKey(String filePath) {
+        return Paths.get(filePath).getFileName().toString();
+    }
+
     public String getPdfDownloadUrl(Integer formId) {
         return "/api/pdf/download/" + formId;
     }
-}
\ No newline at end of file
+}
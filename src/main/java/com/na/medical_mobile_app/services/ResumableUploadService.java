@@ -0,0 +1,337 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.DTOs.StagedAttachment;
+import com.na.medical_mobile_app.entities.UploadKind;
+import com.na.medical_mobile_app.entities.UploadSession;
+import com.na.medical_mobile_app.entities.UploadStatus;
+import com.na.medical_mobile_app.entities.User;
+import com.na.medical_mobile_app.repositories.UploadSessionRepository;
+import com.na.medical_mobile_app.security.EncryptedFileFormat;
+import com.na.medical_mobile_app.security.KeyRing;
+import com.na.medical_mobile_app.storage.BlobStore;
+import com.na.medical_mobile_app.utils.Mp4FastStart;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resumable chunked uploads (tus style: create, HEAD for the offset, PATCH to append).
+ *
+ * Each chunk is encrypted as it arrives and appended to a node-local .enc file (under the spool directory), which
+ * is handed to the attachment blob store once complete (a rename with the local store)
+ * and can then be attached to a form without copying. The file uses the same
+ * chunked AES-GCM container as {@link AttachmentService#encryptAndSaveFile}: a 64KB
+ * container chunk is sealed once all of its bytes have arrived. The acknowledged offset
+ * is therefore always a multiple of the container chunk size until completion; a trailing
+ * partial chunk of an interrupted request is dropped and resent by the client.
+ *
+ * No transaction is held while a chunk streams in.
+ */
+@Service
+public class ResumableUploadService {
+
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Autowired
+    private KeyRing keyRing;
+
+    @Autowired
+    @Qualifier("attachmentBlobStore")
+    private BlobStore attachmentStore;
+
+    @Autowired
+    private AttachmentService attachmentService;
+
+    @Autowired
+    private ContentStoreService contentStoreService;
+
+    @Value("${upload.resumable.expiry-hours:24}")
+    private long expiryHours;
+
+    // Uploads currently receiving a PATCH on this node
+    private final Set<String> activeUploads = ConcurrentHashMap.newKeySet();
+
+    //-----------------------------------Creating an upload------------------------------------------------------
+    public UploadSession createUpload(UploadKind kind, String fileName, String mimeType, Long totalLength, User user) throws IOException {
+        if (kind == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Upload kind is required (MRI_PHOTO or SEIZURE_VIDEO)");
+        }
+        if (totalLength == null || totalLength <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Upload-Length must be positive");
+        }
+
+        // Same rules as the multipart submission
+        if (kind == UploadKind.MRI_PHOTO) {
+            if (totalLength > AttachmentService.MAX_MRI_PHOTO_SIZE) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "MRI photo size exceeds 10MB limit");
+            }
+            if (mimeType != null && !mimeType.startsWith("image/")) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "MRI photo must be an image file. Received: " + mimeType);
+            }
+        } else {
+            if (totalLength > AttachmentService.MAX_SEIZURE_VIDEO_SIZE) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Seizure video size exceeds 50MB limit");
+            }
+            if (mimeType != null && !mimeType.startsWith("video/")) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Seizure video must be a video file. Received: " + mimeType);
+            }
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        String storedFileName = "upload_" + uploadId + ".enc";
+        Path path = contentStoreService.getUploadDirectory().resolve(storedFileName);
+        Files.createDirectories(path.getParent());
+        // The length is known up front, so the header is final from the start
+        EncryptedFileFormat.Header header = EncryptedFileFormat.Header.create(
+                keyRing.getActiveKeyId(), EncryptedFileFormat.DEFAULT_CHUNK_SIZE, totalLength);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            EncryptedFileFormat.writeFully(channel, ByteBuffer.wrap(header.toBytes()));
+        }
+
+        UploadSession session = new UploadSession();
+        session.setUploadId(uploadId);
+        session.setKind(kind);
+        session.setStatus(UploadStatus.IN_PROGRESS);
+        session.setFileName(fileName);
+        session.setMimeType(mimeType);
+        session.setStoredFileName(storedFileName);
+        session.setTotalLength(totalLength);
+        session.setReceivedBytes(0L);
+        session.setUploadedBy(user);
+        session.setCreatedAt(LocalDateTime.now());
+        session.setUpdatedAt(LocalDateTime.now());
+
+        System.out.println("📤 Resumable upload created: " + uploadId + " (" + kind + ", " + totalLength + " bytes)");
+        return uploadSessionRepository.save(session);
+    }
+
+    public UploadSession getUpload(String uploadId, User user) {
+        UploadSession session = uploadSessionRepository.findById(uploadId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload not found: " + uploadId));
+        if (!session.getUploadedBy().getUserId().equals(user.getUserId())) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "You don't have permission to access this upload");
+        }
+        return session;
+    }
+
+    //-----------------------------------Appending a chunk-------------------------------------------------------
+    /**
+     * Encrypts and appends the request body at {@code offset}.
+     * If the connection drops, the chunks already written are kept and acknowledged.
+     * The new offset is saved only if nobody moved it meanwhile, whichever node they ran on.
+     * @return The session with its new offset
+     */
+    public UploadSession appendChunk(String uploadId, long offset, InputStream body, User user) throws Exception {
+        checkOffset(getUpload(uploadId, user), offset);
+        if (!activeUploads.add(uploadId)) {
+            throw new ResponseStatusException(HttpStatus.LOCKED, "Another chunk is being received for this upload");
+        }
+
+        try {
+            // Read again now that this node's lock is held : a PATCH that just finished may have moved the offset
+            UploadSession session = getUpload(uploadId, user);
+            checkOffset(session, offset);
+            long expected = session.getReceivedBytes();
+            long received = expected;
+            long total = session.getTotalLength();
+
+            Path path = contentStoreService.getUploadDirectory().resolve(session.getStoredFileName());
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+                EncryptedFileFormat.Header header = EncryptedFileFormat.readHeader(channel);
+                if (header == null) {
+                    throw new ResponseStatusException(HttpStatus.CONFLICT,
+                            "Upload was started with an older storage format, delete it and start again");
+                }
+                int chunkSize = header.getChunkSize();
+                SecretKey key = keyRing.getKey(header.getKeyId());
+                Cipher cipher = EncryptedFileFormat.threadCipher();
+
+                // Drop anything written after the last acknowledged chunk (crash between write and save)
+                long index = received / chunkSize;
+                channel.truncate(header.chunkOffset(index));
+                channel.position(header.chunkOffset(index));
+
+                byte[] buffer = new byte[chunkSize];
+                int pending = 0;
+                boolean interrupted = false;
+
+                while (received < total) {
+                    int chunkLength = (int) Math.min(chunkSize, total - received);
+                    int read;
+                    try {
+                        read = body.read(buffer, pending, chunkLength - pending);
+                    } catch (IOException e) {
+                        System.out.println("⚠️ Upload " + uploadId + " interrupted at " + (received + pending) + " bytes");
+                        interrupted = true;
+                        break;
+                    }
+                    if (read == -1) {
+                        break;
+                    }
+                    pending += read;
+
+                    if (pending == chunkLength) {
+                        boolean last = received + chunkLength == total;
+                        EncryptedFileFormat.writeFully(channel, ByteBuffer.wrap(
+                                EncryptedFileFormat.encryptChunk(cipher, key, header, index, last, buffer, 0, chunkLength)));
+                        received += chunkLength;
+                        index++;
+                        pending = 0;
+                    }
+                }
+
+                if (!interrupted && pending > 0 && received == expected) {
+                    // Nothing could be stored, the client would resend the same bytes forever
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                            "Chunks must be at least " + chunkSize + " bytes, except the last one");
+                }
+
+                // The offset is only acknowledged once the chunks are on disk
+                channel.force(false);
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            if (uploadSessionRepository.advanceOffset(uploadId, expected, received, UploadStatus.IN_PROGRESS, now) != 1) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload offset was moved by another request");
+            }
+
+            if (received == total) {
+                // Once, while the file is still local : moov in front so the video plays while it streams.
+                // If storing fails the offset goes back and the original is untouched, the client resends the last chunk
+                Path remuxed = path.resolveSibling(path.getFileName() + ".faststart");
+                try {
+                    Mp4FastStart.MediaInfo mediaInfo = attachmentService.prepareVideo(path, remuxed, session.getMimeType(), null);
+                    if (mediaInfo != null && mediaInfo.isRemuxed()) {
+                        attachmentStore.putFile(session.getStoredFileName(), remuxed);
+                        Files.deleteIfExists(path);
+                    } else {
+                        attachmentStore.putFile(session.getStoredFileName(), path);
+                    }
+                } catch (Exception e) {
+                    uploadSessionRepository.advanceOffset(uploadId, received, expected, UploadStatus.IN_PROGRESS, LocalDateTime.now());
+                    throw e;
+                } finally {
+                    Files.deleteIfExists(remuxed);
+                }
+                uploadSessionRepository.markCompleted(uploadId, LocalDateTime.now(), UploadStatus.IN_PROGRESS, UploadStatus.COMPLETED);
+                session.setStatus(UploadStatus.COMPLETED);
+                System.out.println("✅ Resumable upload completed: " + uploadId);
+            }
+
+            session.setReceivedBytes(received);
+            session.setUpdatedAt(now);
+            return session;
+        } finally {
+            activeUploads.remove(uploadId);
+        }
+    }
+
+    private void checkOffset(UploadSession session, long offset) {
+        if (session.getStatus() != UploadStatus.IN_PROGRESS) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already complete");
+        }
+        if (offset != session.getReceivedBytes()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Upload-Offset " + offset + " does not match current offset " + session.getReceivedBytes());
+        }
+    }
+
+    //-----------------------------------Terminating an upload---------------------------------------------------
+    public void deleteUpload(String uploadId, User user) throws IOException {
+        UploadSession session = getUpload(uploadId, user);
+        if (session.getStatus() == UploadStatus.CONSUMED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already attached to a form");
+        }
+        deleteStoredFile(session);
+        uploadSessionRepository.delete(session);
+    }
+
+    // In-progress uploads are still local, completed ones were handed to the blob store
+    private void deleteStoredFile(UploadSession session) throws IOException {
+        if (session.getStatus() == UploadStatus.IN_PROGRESS) {
+            Files.deleteIfExists(contentStoreService.getUploadDirectory().resolve(session.getStoredFileName()));
+        } else {
+            attachmentStore.delete(session.getStoredFileName());
+        }
+    }
+
+    //-----------------------------------Using finished uploads in a submission----------------------------------
+    /**
+     * Turns finished uploads into staged attachments for the form submission pipeline
+     */
+    public StagedAttachment stageCompletedUpload(String uploadId, UploadKind expectedKind, User user) {
+        UploadSession session = getUpload(uploadId, user);
+        if (session.getKind() != expectedKind) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Upload " + uploadId + " is not a " + expectedKind);
+        }
+        if (session.getStatus() != UploadStatus.COMPLETED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload " + uploadId + " is not complete or already used");
+        }
+
+        StagedAttachment staged = new StagedAttachment(
+                session.getFileName(),
+                session.getStoredFileName(),
+                session.getMimeType(),
+                session.getTotalLength());
+        staged.setUploadId(uploadId);
+        staged.setMediaInfo(attachmentService.probeVideo(session.getStoredFileName(), session.getMimeType()));
+        attachmentService.describeStoredFile(staged);
+        return staged;
+    }
+
+    /**
+     * Marks uploads as attached to a form. Meant to run inside the submission transaction.
+     */
+    public void markConsumed(List<StagedAttachment> stagedAttachments) {
+        for (StagedAttachment staged : stagedAttachments) {
+            if (staged.getUploadId() == null) {
+                continue;
+            }
+            int updated = uploadSessionRepository.markConsumed(staged.getUploadId(), LocalDateTime.now(),
+                    UploadStatus.COMPLETED, UploadStatus.CONSUMED);
+            if (updated != 1) {
+                throw new IllegalStateException("Upload " + staged.getUploadId() + " was already used by another form");
+            }
+        }
+    }
+
+    //-----------------------------------Expiring abandoned uploads----------------------------------------------
+    @Scheduled(fixedDelay = 3600000)
+    public void purgeExpiredUploads() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(expiryHours);
+        List<UploadSession> expired = uploadSessionRepository.findByStatusInAndUpdatedAtBefore(
+                List.of(UploadStatus.IN_PROGRESS, UploadStatus.COMPLETED), cutoff);
+
+        for (UploadSession session : expired) {
+            try {
+                deleteStoredFile(session);
+                uploadSessionRepository.delete(session);
+            } catch (Exception e) {
+                System.err.println("⚠️ Could not purge upload " + session.getUploadId() + ": " + e.getMessage());
+            }
+        }
+        if (!expired.isEmpty()) {
+            System.out.println("🧹 Purged " + expired.size() + " expired uploads");
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.na.medical_mobile_app.services;
+
+import com.na.medical_mobile_app.DTOs.ChatMessageDTO;
+import com.na.medical_mobile_app.repositories.CommunicationRepository;
+import com.na.medical_mobile_app.repositories.NotificationRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Unread chat messages per (user, form) and unread notifications per user, kept in memory so the
+ * dashboards don't run one COUNT per form on every refresh.
+ *
+ * A user's counters are loaded from the database the first time they are asked for, then moved by the
+ * send / read / delete events after each commit. Updates are guarded by a lock stripe chosen from the user id,
+ * so users on different stripes never contend; the counting queries run without it. Events arriving while a user
+ * is being counted are kept and applied on top of the count, which can count one of them twice,
+ * so the counters of every loaded user are recounted periodically and users idle for a while are dropped.
+ */
+@Service
+public class UnreadCounterService {
+
+    private static final int STRIPES = 64;
+
+    @Autowired
+    private CommunicationRepository communicationRepository;
+
+    @Autowired
+    private NotificationRepository notificationRepository;
+
+    @Value("${unread.counters.idle-minutes:60}")
+    private long idleMinutes;
+
+    @Value("${unread.counters.reconcile-batch-size:200}")
+    private int reconcileBatchSize;
+
+    private final Object[] locks = new Object[STRIPES];
+    private final Map<Integer, UserCounters> counters = new ConcurrentHashMap<>();
+
+    public UnreadCounterService() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    private static class UserCounters {
+        private final Map<Integer, Integer> chatByForm = new HashMap<>();
+        private int chatTotal;
+        private int notifications;
+        // Bumped by every event, a recount that raced with one is thrown away
+        private long changes;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        // False until the first count is in, events meanwhile are kept as deltas
+        private boolean loaded;
+        private final Map<Integer, Integer> pendingChat = new HashMap<>();
+        private int pendingNotifications;
+    }
+
+    private Object lockFor(Integer userId) {
+        return locks[Math.floorMod(userId.hashCode(), STRIPES)];
+    }
+
+    //-----------------------------------Reading-----------------------------------------------------------------------
+    public int getUnreadMessages(Integer userId, Integer formId) {
+        UserCounters user = load(userId);
+        synchronized (lockFor(userId)) {
+            return user.chatByForm.getOrDefault(formId, 0);
+        }
+    }
+
+    public int getUnreadNotifications(Integer userId) {
+        UserCounters user = load(userId);
+        synchronized (lockFor(userId)) {
+            return user.notifications;
+        }
+    }
+
+    /** Everything a dashboard shows, in one call : notifications, chat total and unread messages per form */
+    public Map<String, Object> getAllCounts(Integer userId) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        UserCounters user = load(userId);
+        synchronized (lockFor(userId)) {
+            result.put("notifications", user.notifications);
+            result.put("messages", user.chatTotal);
+            result.put("forms", new HashMap<>(user.chatByForm));
+        }
+        return result;
+    }
+
+    /**
+     * The user's counters, counted first if needed. The entry is registered before counting so events arriving
+     * meanwhile are kept; the queries run without the stripe held, a slow one only delays this user.
+     * Read the returned counters with the stripe held.
+     */
+    private UserCounters load(Integer userId) {
+        UserCounters user;
+        synchronized (lockFor(userId)) {
+            user = counters.computeIfAbsent(userId, id -> new UserCounters());
+            user.lastAccess = System.currentTimeMillis();
+            if (user.loaded) {
+                return user;
+            }
+            // Events already kept are in the count about to be made
+            user.pendingChat.clear();
+            user.pendingNotifications = 0;
+        }
+
+        List<Object[]> chatRows = communicationRepository.countUnreadByFormForReceiver(userId);
+        long notifications = notificationRepository.countUnreadForUser(userId);
+
+        synchronized (lockFor(userId)) {
+            if (!user.loaded) {
+                fill(user, chatRows, notifications);
+                // Events that arrived while counting, they may already be in the count : the next recount settles it
+                user.pendingChat.forEach((formId, delta) -> applyChat(user, formId, delta));
+                user.notifications = Math.max(0, user.notifications + user.pendingNotifications);
+                user.pendingChat.clear();
+                user.pendingNotifications = 0;
+                user.loaded = true;
+            }
+        }
+        return user;
+    }
+
+    private void fill(UserCounters user, List<Object[]> chatRows, long notifications) {
+        user.chatByForm.clear();
+        user.chatTotal = 0;
+        for (Object[] row : chatRows) {
+            int count = ((Number) row[1]).intValue();
+            user.chatByForm.put((Integer) row[0], count);
+            user.chatTotal += count;
+        }
+        user.notifications = (int) notifications;
+    }
+
+    //-----------------------------------Events------------------------------------------------------------------------
+    // The notification listeners run first, NotificationStreamService pushes the count they leave
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessageCreated(ChatPushService.MessageCreated event) {
+        ChatMessageDTO message = event.message();
+        adjustChat(message.getReceiverId(), message.getFormId(), 1);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMessagesRead(CommunicationService.MessagesRead event) {
+        adjustChat(event.readerId(), event.formId(), -event.count());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onNotificationCreated(NotificationService.NotificationCreated event) {
+        adjustNotifications(event.userId(), 1);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onNotificationsRead(NotificationService.NotificationsRead event) {
+        adjustNotifications(event.userId(), -event.count());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onNotificationDeleted(NotificationService.NotificationDeleted event) {
+        if (event.wasUnread()) {
+            adjustNotifications(event.userId(), -1);
+        }
+    }
+
+    // Users without counters are left alone, they are read from the database when needed.
+    // Users being counted keep the event as a delta, applied once the count is in
+    private void adjustChat(Integer userId, Integer formId, int delta) {
+        synchronized (lockFor(userId)) {
+            UserCounters user = counters.get(userId);
+            if (user == null) {
+                return;
+            }
+            if (user.loaded) {
+                applyChat(user, formId, delta);
+            } else {
+                user.pendingChat.merge(formId, delta, Integer::sum);
+            }
+            user.changes++;
+        }
+    }
+
+    // Called with the user's stripe held
+    private void applyChat(UserCounters user, Integer formId, int delta) {
+        int before = user.chatByForm.getOrDefault(formId, 0);
+        int after = Math.max(0, before + delta);
+        if (after == 0) {
+            user.chatByForm.remove(formId);
+        } else {
+            user.chatByForm.put(formId, after);
+        }
+        user.chatTotal = Math.max(0, user.chatTotal + after - before);
+    }
+
+    private void adjustNotifications(Integer userId, int delta) {
+        synchronized (lockFor(userId)) {
+            UserCounters user = counters.get(userId);
+            if (user == null) {
+                return;
+            }
+            if (user.loaded) {
+                user.notifications = Math.max(0, user.notifications + delta);
+            } else {
+                user.pendingNotifications += delta;
+            }
+            user.changes++;
+        }
+    }
+
+    //-----------------------------------Reconciliation----------------------------------------------------------------
+    /**
+     * Drops users idle for longer than the idle time and recounts the others from the database, a batch of users
+     * per query, which corrects any drift (racing events, rows removed by cascades, another node's writes).
+     */
+    @Scheduled(fixedDelayString = "${unread.counters.reconcile-interval-ms:300000}")
+    public void reconcile() {
+        long idleBefore = System.currentTimeMillis() - idleMinutes * 60_000;
+        counters.entrySet().removeIf(entry -> entry.getValue().lastAccess < idleBefore);
+
+        List<Integer> userIds = new ArrayList<>(counters.keySet());
+        for (int start = 0; start < userIds.size(); start += reconcileBatchSize) {
+            List<Integer> batch = userIds.subList(start, Math.min(start + reconcileBatchSize, userIds.size()));
+            Map<Integer, Long> changesBefore = new HashMap<>();
+            for (Integer userId : batch) {
+                synchronized (lockFor(userId)) {
+                    UserCounters user = counters.get(userId);
+                    // Users still being counted are left to their load
+                    if (user != null && user.loaded) {
+                        changesBefore.put(userId, user.changes);
+                    }
+                }
+            }
+            Map<Integer, List<Object[]>> chatRows = new HashMap<>();
+            for (Object[] row : communicationRepository.countUnreadByFormForReceivers(batch)) {
+                chatRows.computeIfAbsent((Integer) row[0], id -> new ArrayList<>())
+                        .add(new Object[]{row[1], row[2]});
+            }
+            Map<Integer, Long> notificationCounts = new HashMap<>();
+            for (Object[] row : notificationRepository.countUnreadByUsers(batch)) {
+                notificationCounts.put((Integer) row[0], ((Number) row[1]).longValue());
+            }
+            for (Integer userId : batch) {
+                synchronized (lockFor(userId)) {
+                    UserCounters user = counters.get(userId);
+                    if (user != null && changesBefore.containsKey(userId) && user.changes == changesBefore.get(userId)) {
+                        fill(user, chatRows.getOrDefault(userId, List.of()), notificationCounts.getOrDefault(userId, 0L));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.na.medical_mobile_app.services;
 
 import com.na.medical_mobile_app.DTOs.MedicalFormSummaryDTO;
+import com.na.medical_mobile_app.config.MultipartConfig;
 import com.na.medical_mobile_app.entities.Role;
 import com.na.medical_mobile_app.entities.User;
 import com.na.medical_mobile_app.repositories.UserRepository;
@@ -8,6 +9,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
 
@@ -87,8 +90,11 @@ private String getRequestParameter(String paramName) {
         String headerValue = request.getHeader(paramName);
         System.out.println("Header value for " + paramName + ": " + headerValue);
         
-        // Then try parameter
-        String paramValue = request.getParameter(paramName);
+        // Then try parameter. On streaming uploads getParameter() would make the container parse
+        // the whole multipart body, so only the query string is looked at there
+        String paramValue = request.getAttribute(MultipartConfig.STREAMING_REQUEST_ATTRIBUTE) != null
+                ? getQueryParameter(request.getQueryString(), paramName)
+                : request.getParameter(paramName);
         System.out.println("Parameter value for " + paramName + ": " + paramValue);
         
         // Use header if available, otherwise use parameter
@@ -105,6 +111,19 @@ private String getRequestParameter(String paramName) {
         return null;
     }
 }
+private String getQueryParameter(String queryString, String paramName) {
+    if (queryString == null) {
+        return null;
+    }
+    for (String pair : queryString.split("&")) {
+        int eq = pair.indexOf('=');
+        String key = URLDecoder.decode(eq >= 0 ? pair.substring(0, eq) : pair, StandardCharsets.UTF_8);
+        if (key.equals(paramName)) {
+            return eq >= 0 ? URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8) : "";
+        }
+    }
+    return null;
+}
 //---------------------------------Get any neurologist -------------------------------------------------------------
     public User getAnyNeurologist() {
         return userRepository.findFirstByRoleIn(List.of(Role.NEUROLOGUE, Role.NEUROLOGUE_RESIDENT))
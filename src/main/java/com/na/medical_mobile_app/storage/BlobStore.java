@@ -0,0 +1,40 @@
+package com.na.medical_mobile_app.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Where stored files (attachments, voice messages, PDFs) live, so they are not tied to one node's disk.
+ * Keys are the names saved in the database. Reading a missing key throws {@link java.nio.file.NoSuchFileException}.
+ */
+public interface BlobStore {
+
+    /** Stores the stream under {@code key}, replacing what was there. {@code length} is -1 when unknown */
+    void put(String key, InputStream content, long length) throws IOException;
+
+    /** Moves a finished local file into the store (a rename on local disk, an upload otherwise). The source is gone afterwards */
+    void putFile(String key, Path source) throws IOException;
+
+    /**
+     * Like {@link #putFile} but never replaces an existing blob : returns false, leaving the source in place,
+     * when something is already stored under {@code key}
+     */
+    boolean putFileIfAbsent(String key, Path source) throws IOException;
+
+    InputStream get(String key) throws IOException;
+
+    /** Bytes [start, end) of the blob */
+    InputStream getRange(String key, long start, long end) throws IOException;
+
+    /** Read-only random access, for formats that are read piecewise like the encrypted attachments */
+    SeekableByteChannel openChannel(String key) throws IOException;
+
+    long size(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    /** Returns false when there was nothing to delete, as far as the store can tell */
+    boolean delete(String key) throws IOException;
+}
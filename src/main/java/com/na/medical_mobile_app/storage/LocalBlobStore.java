@@ -0,0 +1,190 @@
+package com.na.medical_mobile_app.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Blob store on the local filesystem.
+ *
+ * A blob goes to root/<aa>/<bb>/<key>, where aa and bb are the first bytes of the SHA-256 of the key, so
+ * files are spread over 65536 directories instead of piling up in one. Files written before sharding
+ * sit directly under root and are still found there.
+ */
+public class LocalBlobStore implements BlobStore {
+
+    private final Path root;
+
+    public LocalBlobStore(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    public Path getRoot() { return root; }
+
+    //-----------------------------------Paths-------------------------------------------------------------------------
+    private Path shardedPath(String key) {
+        checkKey(key);
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            String hex = HexFormat.of().formatHex(hash, 0, 2);
+            return root.resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4)).resolve(key);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Layout used before sharding : the key directly under the root
+    private Path flatPath(String key) {
+        checkKey(key);
+        return root.resolve(key);
+    }
+
+    private Path locate(String key) throws NoSuchFileException {
+        Path sharded = shardedPath(key);
+        if (Files.exists(sharded)) {
+            return sharded;
+        }
+        Path flat = flatPath(key);
+        if (Files.exists(flat)) {
+            return flat;
+        }
+        throw new NoSuchFileException(key);
+    }
+
+    /** The file holding the blob, for serving it as a file Resource */
+    public Path getPath(String key) throws NoSuchFileException {
+        return locate(key);
+    }
+
+    private void checkKey(String key) {
+        if (key == null || key.isEmpty() || key.startsWith("/") || key.contains("\\")
+                || key.equals("..") || key.startsWith("../") || key.contains("/../") || key.endsWith("/..")) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+    }
+
+    //-----------------------------------Writing-----------------------------------------------------------------------
+    @Override
+    public void put(String key, InputStream content, long length) throws IOException {
+        Path target = shardedPath(key);
+        Files.createDirectories(target.getParent());
+        // Written next to the target and renamed, readers never see a partial file
+        Path temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                content.transferTo(out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        removeFlatCopy(key);
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        Path target = shardedPath(key);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Source on another filesystem
+            try (InputStream in = Files.newInputStream(source)) {
+                put(key, in, Files.size(source));
+            }
+            Files.deleteIfExists(source);
+        }
+        removeFlatCopy(key);
+    }
+
+    @Override
+    public boolean putFileIfAbsent(String key, Path source) throws IOException {
+        if (Files.exists(flatPath(key))) {
+            return false;
+        }
+        Path target = shardedPath(key);
+        Files.createDirectories(target.getParent());
+        // A link cannot cross filesystems, a source from elsewhere is copied next to the target first
+        Path temp = null;
+        Path linked = source;
+        if (!Files.getFileStore(source).equals(Files.getFileStore(target.getParent()))) {
+            temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+            Files.copy(source, temp);
+            linked = temp;
+        }
+        try {
+            // Unlike a rename, a link fails when the target exists : the key is claimed atomically
+            Files.createLink(target, linked);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        Files.deleteIfExists(source);
+        return true;
+    }
+
+    // A rewritten blob must not leave its pre-sharding copy behind to be deleted or read later
+    private void removeFlatCopy(String key) throws IOException {
+        Path flat = flatPath(key);
+        if (!flat.equals(shardedPath(key))) {
+            Files.deleteIfExists(flat);
+        }
+    }
+
+    //-----------------------------------Reading-----------------------------------------------------------------------
+    @Override
+    public InputStream get(String key) throws IOException {
+        return Files.newInputStream(locate(key));
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(locate(key), StandardOpenOption.READ);
+        try {
+            channel.position(start);
+            return new BoundedInputStream(Channels.newInputStream(channel), end - start);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(String key) throws IOException {
+        return FileChannel.open(locate(key), StandardOpenOption.READ);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        return Files.size(locate(key));
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(shardedPath(key)) || Files.exists(flatPath(key));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean deleted = Files.deleteIfExists(shardedPath(key));
+        return Files.deleteIfExists(flatPath(key)) || deleted;
+    }
+}
@@ -0,0 +1,343 @@
+package com.na.medical_mobile_app.storage;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+
+/**
+ * Blob store on any S3-compatible object storage (AWS S3, MinIO, Ceph...).
+ *
+ * Requests are signed with AWS Signature V4 using java.net.http, no SDK needed. Payloads are sent as
+ * UNSIGNED-PAYLOAD so uploads stream without being hashed first. Objects are single PUTs, which S3 allows
+ * up to 5GB, far above the attachment limits. MinIO and most self-hosted servers need path-style URLs.
+ */
+public class S3BlobStore implements BlobStore {
+
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final DateTimeFormatter AMZ_DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    // Random access reads fetch this much at once, the encrypted formats read 64KB at a time
+    private static final int READ_AHEAD = 1024 * 1024;
+
+    private final HttpClient httpClient;
+    private final URI endpoint;
+    private final String region;
+    private final String bucket;
+    private final String prefix;
+    private final String accessKey;
+    private final String secretKey;
+    private final boolean pathStyle;
+
+    public S3BlobStore(String endpoint, String region, String bucket, String prefix,
+                       String accessKey, String secretKey, boolean pathStyle) {
+        this.endpoint = URI.create(endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint);
+        this.region = region;
+        this.bucket = bucket;
+        this.prefix = prefix == null || prefix.isEmpty() ? "" : (prefix.endsWith("/") ? prefix : prefix + "/");
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.pathStyle = pathStyle;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    //-----------------------------------Writing-----------------------------------------------------------------------
+    @Override
+    public void put(String key, InputStream content, long length) throws IOException {
+        if (length < 0) {
+            // S3 needs the length up front, spool it
+            Path spool = Files.createTempFile("s3-upload", ".tmp");
+            try {
+                Files.copy(content, spool, StandardCopyOption.REPLACE_EXISTING);
+                upload(key, HttpRequest.BodyPublishers.ofFile(spool));
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+            return;
+        }
+        upload(key, HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> content), length));
+    }
+
+    @Override
+    public void putFile(String key, Path source) throws IOException {
+        upload(key, HttpRequest.BodyPublishers.ofFile(source));
+        Files.deleteIfExists(source);
+    }
+
+    @Override
+    public boolean putFileIfAbsent(String key, Path source) throws IOException {
+        // Conditional write : the bucket answers 412 instead of replacing an existing object
+        HttpResponse<InputStream> response = send(signed("PUT", key, null)
+                .header("If-None-Match", "*")
+                .PUT(HttpRequest.BodyPublishers.ofFile(source)));
+        if (response.statusCode() == 412) {
+            response.body().close();
+            return false;
+        }
+        expectSuccess(response, key);
+        response.body().close();
+        Files.deleteIfExists(source);
+        return true;
+    }
+
+    private void upload(String key, HttpRequest.BodyPublisher body) throws IOException {
+        HttpResponse<InputStream> response = send(signed("PUT", key, null).PUT(body));
+        expectSuccess(response, key);
+        response.body().close();
+    }
+
+    //-----------------------------------Reading-----------------------------------------------------------------------
+    @Override
+    public InputStream get(String key) throws IOException {
+        HttpResponse<InputStream> response = send(signed("GET", key, null).GET());
+        expectSuccess(response, key);
+        return response.body();
+    }
+
+    @Override
+    public InputStream getRange(String key, long start, long end) throws IOException {
+        if (start >= end) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        HttpResponse<InputStream> response = send(signed("GET", key, "bytes=" + start + "-" + (end - 1)).GET());
+        expectSuccess(response, key);
+        if (response.statusCode() == 200) {
+            // Server ignored the Range header, skip to the start ourselves
+            InputStream body = response.body();
+            body.skipNBytes(start);
+            return new BoundedInputStream(body, end - start);
+        }
+        return response.body();
+    }
+
+    @Override
+    public SeekableByteChannel openChannel(String key) throws IOException {
+        return new RangeChannel(key, size(key));
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+        HttpResponse<InputStream> response = send(signed("HEAD", key, null).method("HEAD", HttpRequest.BodyPublishers.noBody()));
+        expectSuccess(response, key);
+        response.body().close();
+        return response.headers().firstValueAsLong("Content-Length")
+                .orElseThrow(() -> new IOException("No Content-Length for " + key));
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        HttpResponse<InputStream> response = send(signed("HEAD", key, null).method("HEAD", HttpRequest.BodyPublishers.noBody()));
+        if (response.statusCode() == 404) {
+            response.body().close();
+            return false;
+        }
+        expectSuccess(response, key);
+        response.body().close();
+        return true;
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        HttpResponse<InputStream> response = send(signed("DELETE", key, null).DELETE());
+        if (response.statusCode() == 404) {
+            response.body().close();
+            return false;
+        }
+        expectSuccess(response, key);
+        response.body().close();
+        // S3 answers 204 whether or not the object existed
+        return true;
+    }
+
+    //-----------------------------------Random access over ranged GETs------------------------------------------------
+    private class RangeChannel implements SeekableByteChannel {
+        private final String key;
+        private final long size;
+        private long position;
+        private byte[] window = new byte[0];
+        private long windowStart;
+        private boolean open = true;
+
+        RangeChannel(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+
+        @Override
+        public synchronized int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= size) {
+                return -1;
+            }
+            if (position < windowStart || position >= windowStart + window.length) {
+                long end = Math.min(size, position + Math.max(READ_AHEAD, dst.remaining()));
+                try (InputStream in = getRange(key, position, end)) {
+                    window = in.readAllBytes();
+                }
+                windowStart = position;
+                if (window.length == 0) {
+                    return -1;
+                }
+            }
+            int offset = (int) (position - windowStart);
+            int count = Math.min(dst.remaining(), window.length - offset);
+            dst.put(window, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public synchronized long position() { return position; }
+
+        @Override
+        public synchronized SeekableByteChannel position(long newPosition) {
+            this.position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() { return size; }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() { return open; }
+
+        @Override
+        public void close() {
+            open = false;
+            window = new byte[0];
+        }
+    }
+
+    //-----------------------------------Requests and SigV4 signing----------------------------------------------------
+    private HttpResponse<InputStream> send(HttpRequest.Builder request) throws IOException {
+        try {
+            return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calling object storage", e);
+        }
+    }
+
+    private void expectSuccess(HttpResponse<InputStream> response, String key) throws IOException {
+        int status = response.statusCode();
+        if (status >= 200 && status < 300) {
+            return;
+        }
+        String error;
+        try (InputStream body = response.body()) {
+            error = new String(body.readNBytes(1024), StandardCharsets.UTF_8);
+        }
+        if (status == 404) {
+            throw new NoSuchFileException(key);
+        }
+        throw new IOException("Object storage returned " + status + " for " + key + ": " + error);
+    }
+
+    private HttpRequest.Builder signed(String method, String key, String range) throws IOException {
+        String objectPath = "/" + encodePath(prefix + key);
+        String host;
+        String canonicalUri;
+        if (pathStyle) {
+            host = endpoint.getHost();
+            canonicalUri = endpoint.getRawPath() + "/" + encodePath(bucket) + objectPath;
+        } else {
+            host = bucket + "." + endpoint.getHost();
+            canonicalUri = endpoint.getRawPath() + objectPath;
+        }
+        if (endpoint.getPort() != -1) {
+            host += ":" + endpoint.getPort();
+        }
+        URI uri = URI.create(endpoint.getScheme() + "://" + host + canonicalUri);
+
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String amzDate = AMZ_DATE.format(now);
+        String day = AMZ_DAY.format(now);
+        String scope = day + "/" + region + "/s3/aws4_request";
+
+        String canonicalHeaders = "host:" + host + "\n"
+                + "x-amz-content-sha256:" + UNSIGNED_PAYLOAD + "\n"
+                + "x-amz-date:" + amzDate + "\n";
+        String signedHeaders = "host;x-amz-content-sha256;x-amz-date";
+        String canonicalRequest = method + "\n" + canonicalUri + "\n\n" + canonicalHeaders + "\n"
+                + signedHeaders + "\n" + UNSIGNED_PAYLOAD;
+
+        try {
+            String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+                    + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                            .digest(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+            byte[] signingKey = hmac(hmac(hmac(hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), day),
+                    region), "s3"), "aws4_request");
+            String signature = HexFormat.of().formatHex(hmac(signingKey, stringToSign));
+
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMinutes(5))
+                    .header("x-amz-content-sha256", UNSIGNED_PAYLOAD)
+                    .header("x-amz-date", amzDate)
+                    .header("Authorization", "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope
+                            + ", SignedHeaders=" + signedHeaders + ", Signature=" + signature);
+            if (range != null) {
+                builder.header("Range", range);
+            }
+            return builder;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not sign object storage request", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // RFC 3986 encoding of every byte except unreserved characters and the path separator
+    private static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || c == '/') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(String.format("%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+}
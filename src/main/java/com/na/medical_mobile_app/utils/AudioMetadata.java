@@ -0,0 +1,211 @@
+package com.na.medical_mobile_app.utils;
+
+import com.na.medical_mobile_app.security.DecryptedContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads duration and codec of a voice message from its container headers : MP4 / M4A (through {@link Mp4FastStart}),
+ * MP3 (frame header, Xing / Info or VBRI for VBR files) and Ogg (Opus or Vorbis, last page granule position).
+ * Only the first few KB and, for Ogg, the tail of the file are read.
+ */
+public class AudioMetadata {
+
+    private static final int HEAD_SIZE = 64 * 1024;
+    private static final int OGG_TAIL_SIZE = 64 * 1024;
+    private static final int OPUS_SAMPLE_RATE = 48000;
+
+    private static final int[] MP3_BITRATES_V1 = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] MP3_BITRATES_V2 = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+    private static final int[] MP3_SAMPLE_RATES_V1 = {44100, 48000, 32000};
+
+    private static final Map<String, String> CONTENT_TYPES_BY_EXTENSION = Map.of(
+            "m4a", "audio/mp4", "mp4", "audio/mp4", "aac", "audio/aac", "mp3", "audio/mpeg",
+            "ogg", "audio/ogg", "oga", "audio/ogg", "opus", "audio/ogg", "wav", "audio/wav",
+            "webm", "audio/webm", "3gp", "audio/3gpp");
+
+    public static class AudioInfo {
+        private final Long durationMs;
+        private final String codec;
+        private final String contentType;
+
+        AudioInfo(Long durationMs, String codec, String contentType) {
+            this.durationMs = durationMs;
+            this.codec = codec;
+            this.contentType = contentType;
+        }
+
+        public Long getDurationMs() { return durationMs; }
+        public String getCodec() { return codec; }
+        public String getContentType() { return contentType; }
+    }
+
+    //-----------------------------------Parsing-----------------------------------------------------------------------
+    /** Returns null when the format is not recognised */
+    public static AudioInfo read(DecryptedContent content) throws IOException {
+        long length = content.getLength();
+        byte[] head = read(content, 0, Math.min(HEAD_SIZE, length));
+        if (head.length >= 8 && "ftyp".equals(ascii(head, 4, 4))) {
+            Mp4FastStart.Analysis analysis = Mp4FastStart.analyze(content);
+            if (analysis == null) {
+                return null;
+            }
+            Mp4FastStart.MediaInfo info = analysis.getMediaInfo();
+            String type = ascii(head, 8, 3).equals("3gp") ? "audio/3gpp" : "audio/mp4";
+            return new AudioInfo(info.getDurationMs(), info.getCodec(), type);
+        }
+        if (head.length >= 4 && "OggS".equals(ascii(head, 0, 4))) {
+            return readOgg(content, head, length);
+        }
+        return readMp3(head, length);
+    }
+
+    /** Content type from the codec found at upload time, or from the file extension for older messages */
+    public static String contentType(String codec, String fileName) {
+        if (codec != null) {
+            switch (codec) {
+                case "mp3": return "audio/mpeg";
+                case "opus": case "vorbis": return "audio/ogg";
+                // AMR narrow and wide band (Android voice notes) only come in a 3GPP container
+                case "samr": case "sawb": return "audio/3gpp";
+                default: return "audio/mp4";
+            }
+        }
+        if (fileName != null && fileName.contains(".")) {
+            String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+            return CONTENT_TYPES_BY_EXTENSION.getOrDefault(extension, "application/octet-stream");
+        }
+        return "application/octet-stream";
+    }
+
+    //-----------------------------------Ogg---------------------------------------------------------------------------
+    private static AudioInfo readOgg(DecryptedContent content, byte[] head, long length) throws IOException {
+        // First page holds the identification header alone : 27 byte page header, segment table, packet
+        if (head.length < 27) {
+            return null;
+        }
+        int packet = 27 + (head[26] & 0xff);
+        if (packet + 19 > head.length) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(head).order(ByteOrder.LITTLE_ENDIAN);
+        String codec;
+        long sampleRate;
+        long preSkip = 0;
+        if ("OpusHead".equals(ascii(head, packet, 8))) {
+            codec = "opus";
+            sampleRate = OPUS_SAMPLE_RATE;
+            preSkip = buffer.getShort(packet + 10) & 0xffff;
+        } else if (head[packet] == 1 && "vorbis".equals(ascii(head, packet + 1, 6))) {
+            codec = "vorbis";
+            sampleRate = buffer.getInt(packet + 12) & 0xFFFFFFFFL;
+        } else {
+            return null;
+        }
+
+        long tailStart = Math.max(0, length - OGG_TAIL_SIZE);
+        byte[] tail = read(content, tailStart, length - tailStart);
+        ByteBuffer tailBuffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = tail.length - 27; i >= 0; i--) {
+            if (tail[i] == 'O' && "OggS".equals(ascii(tail, i, 4)) && tail[i + 4] == 0) {
+                long granule = tailBuffer.getLong(i + 6);
+                Long durationMs = granule > preSkip && sampleRate > 0 ? (granule - preSkip) * 1000 / sampleRate : null;
+                return new AudioInfo(durationMs, codec, "audio/ogg");
+            }
+        }
+        return new AudioInfo(null, codec, "audio/ogg");
+    }
+
+    //-----------------------------------MP3---------------------------------------------------------------------------
+    private static AudioInfo readMp3(byte[] head, long length) {
+        int offset = 0;
+        if (head.length >= 10 && "ID3".equals(ascii(head, 0, 3))) {
+            int tagSize = (head[6] & 0x7f) << 21 | (head[7] & 0x7f) << 14 | (head[8] & 0x7f) << 7 | (head[9] & 0x7f);
+            offset = 10 + tagSize + ((head[5] & 0x10) != 0 ? 10 : 0);
+        }
+
+        for (int i = offset; i + 4 <= head.length; i++) {
+            Mp3Frame frame = Mp3Frame.parse(head, i);
+            if (frame == null) {
+                continue;
+            }
+            // A lone sync word is easily found in random data, the next frame has to follow
+            int next = i + frame.length;
+            if (next + 4 <= head.length && Mp3Frame.parse(head, next) == null) {
+                continue;
+            }
+            return new AudioInfo(mp3Duration(head, i, frame, length), "mp3", "audio/mpeg");
+        }
+        return null;
+    }
+
+    private static Long mp3Duration(byte[] head, int start, Mp3Frame frame, long audioEnd) {
+        ByteBuffer buffer = ByteBuffer.wrap(head);
+        int xing = start + 4 + frame.sideInfoSize();
+        if (xing + 12 <= head.length) {
+            String tag = ascii(head, xing, 4);
+            if (("Xing".equals(tag) || "Info".equals(tag)) && (buffer.getInt(xing + 4) & 1) != 0) {
+                return frame.durationMs(buffer.getInt(xing + 8) & 0xFFFFFFFFL);
+            }
+        }
+        int vbri = start + 4 + 32;
+        if (vbri + 18 <= head.length && "VBRI".equals(ascii(head, vbri, 4))) {
+            return frame.durationMs(buffer.getInt(vbri + 14) & 0xFFFFFFFFL);
+        }
+        // Constant bitrate : bits divided by kbit/s gives milliseconds
+        return (audioEnd - start) * 8 / frame.bitrateKbps;
+    }
+
+    private record Mp3Frame(boolean mpeg1, boolean mono, int bitrateKbps, int sampleRate, int length) {
+
+        // Layer III only, what phones and browsers record
+        static Mp3Frame parse(byte[] data, int offset) {
+            if (offset + 4 > data.length || (data[offset] & 0xff) != 0xff || (data[offset + 1] & 0xe0) != 0xe0) {
+                return null;
+            }
+            int version = (data[offset + 1] >> 3) & 3;
+            int layer = (data[offset + 1] >> 1) & 3;
+            int bitrateIndex = (data[offset + 2] >> 4) & 0xf;
+            int sampleRateIndex = (data[offset + 2] >> 2) & 3;
+            if (version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+                return null;
+            }
+            boolean mpeg1 = version == 3;
+            int bitrate = (mpeg1 ? MP3_BITRATES_V1 : MP3_BITRATES_V2)[bitrateIndex];
+            // MPEG 2 halves the MPEG 1 rates, MPEG 2.5 quarters them
+            int sampleRate = MP3_SAMPLE_RATES_V1[sampleRateIndex] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+            int padding = (data[offset + 2] >> 1) & 1;
+            int length = (mpeg1 ? 144 : 72) * bitrate * 1000 / sampleRate + padding;
+            boolean mono = ((data[offset + 3] >> 6) & 3) == 3;
+            return new Mp3Frame(mpeg1, mono, bitrate, sampleRate, length);
+        }
+
+        int sideInfoSize() {
+            return mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        }
+
+        long durationMs(long frames) {
+            return frames * (mpeg1 ? 1152 : 576) * 1000 / sampleRate;
+        }
+    }
+
+    //-----------------------------------Helpers-----------------------------------------------------------------------
+    private static String ascii(byte[] data, int offset, int length) {
+        if (offset < 0 || offset + length > data.length) {
+            return "";
+        }
+        return new String(data, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] read(DecryptedContent content, long offset, long length) throws IOException {
+        try (InputStream in = content.openStream(offset, offset + length)) {
+            return in.readNBytes((int) length);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.na.medical_mobile_app.utils;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * Reads the EXIF orientation of a JPEG and applies it. Phones store photos as shot and only tag how
+ * they should be turned, ImageIO ignores that tag, so previews would come out sideways without it.
+ */
+public class ExifOrientation {
+
+    public static final int NORMAL = 1;
+
+    /**
+     * Orientation (1 to 8) from the first bytes of a JPEG, {@link #NORMAL} when there is none or it is not a JPEG
+     */
+    public static int read(byte[] head) {
+        if (head.length < 4 || (head[0] & 0xff) != 0xFF || (head[1] & 0xff) != 0xD8) {
+            return NORMAL;
+        }
+        int offset = 2;
+        while (offset + 4 <= head.length && (head[offset] & 0xff) == 0xFF) {
+            int marker = head[offset + 1] & 0xff;
+            int length = readShort(head, offset + 2, false);
+            // Start of scan : no metadata after this point
+            if (marker == 0xDA || length < 2) {
+                return NORMAL;
+            }
+            if (marker == 0xE1 && isExif(head, offset + 4)) {
+                return readOrientation(head, offset + 10, Math.min(head.length, offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return NORMAL;
+    }
+
+    private static boolean isExif(byte[] data, int offset) {
+        return offset + 6 <= data.length && data[offset] == 'E' && data[offset + 1] == 'x' && data[offset + 2] == 'i'
+                && data[offset + 3] == 'f' && data[offset + 4] == 0 && data[offset + 5] == 0;
+    }
+
+    private static int readOrientation(byte[] data, int tiff, int limit) {
+        if (tiff + 8 > limit) {
+            return NORMAL;
+        }
+        boolean littleEndian = data[tiff] == 'I' && data[tiff + 1] == 'I';
+        if (!littleEndian && !(data[tiff] == 'M' && data[tiff + 1] == 'M')) {
+            return NORMAL;
+        }
+        long ifd = tiff + readInt(data, tiff + 4, littleEndian);
+        if (ifd + 2 > limit) {
+            return NORMAL;
+        }
+        int entries = readShort(data, (int) ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) ifd + 2 + i * 12;
+            if (entry + 12 > limit) {
+                break;
+            }
+            if (readShort(data, entry, littleEndian) == 0x0112) {
+                int orientation = readShort(data, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : NORMAL;
+            }
+        }
+        return NORMAL;
+    }
+
+    /**
+     * Returns the image turned the way the orientation tag says it should be displayed
+     */
+    public static BufferedImage apply(BufferedImage image, int orientation) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        AffineTransform transform;
+        switch (orientation) {
+            case 2 -> transform = new AffineTransform(-1, 0, 0, 1, w, 0);   // mirrored
+            case 3 -> transform = new AffineTransform(-1, 0, 0, -1, w, h);  // rotated 180
+            case 4 -> transform = new AffineTransform(1, 0, 0, -1, 0, h);   // flipped
+            case 5 -> transform = new AffineTransform(0, 1, 1, 0, 0, 0);    // transposed
+            case 6 -> transform = new AffineTransform(0, 1, -1, 0, h, 0);   // rotated 90 clockwise
+            case 7 -> transform = new AffineTransform(0, -1, -1, 0, h, w);  // transversed
+            case 8 -> transform = new AffineTransform(0, -1, 1, 0, 0, w);   // rotated 90 counter-clockwise
+            default -> {
+                return image;
+            }
+        }
+        boolean swapped = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(swapped ? h : w, swapped ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = oriented.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return oriented;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xff;
+        int b1 = data[offset + 1] & 0xff;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long readInt(byte[] data, int offset, boolean littleEndian) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = data[offset + (littleEndian ? 3 - i : i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+}
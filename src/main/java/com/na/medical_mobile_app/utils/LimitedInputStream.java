@@ -0,0 +1,59 @@
+package com.na.medical_mobile_app.utils;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it and fails with 413 as soon as the limit is passed,
+ * so an oversized upload is rejected while it is still streaming instead of after it landed.
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+    private final long limit;
+    private final String message;
+    private long count;
+
+    public LimitedInputStream(InputStream in, long limit, String message) {
+        super(in);
+        this.limit = limit;
+        this.message = message;
+    }
+
+    public long getCount() { return count; }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            checkLimit(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            checkLimit(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        checkLimit(skipped);
+        return skipped;
+    }
+
+    private void checkLimit(long read) {
+        count += read;
+        if (count > limit) {
+            throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, message);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.na.medical_mobile_app.utils;
+
+import com.na.medical_mobile_app.security.DecryptedContent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pure-Java MP4 / QuickTime (ISO BMFF) box parser and "fast-start" remuxer.
+ *
+ * Phones often write the moov box (the index of the file) after the media data, so a player has to fetch
+ * the whole file before it can start. Moving moov in front of the first mdat and shifting the chunk offsets
+ * (stco / co64) by its size fixes that without touching a single frame. Duration, display resolution and
+ * codec are read from moov on the way. Works on decrypted content through ranged reads, only moov is held in memory.
+ */
+public class Mp4FastStart {
+
+    // A moov is a few hundred KB even for long videos, anything bigger is not worth loading
+    private static final int MAX_MOOV_SIZE = 32 * 1024 * 1024;
+    private static final Set<String> CONTAINERS = Set.of("moov", "trak", "mdia", "minf", "stbl");
+
+    //-----------------------------------Results-----------------------------------------------------------------------
+    public static class MediaInfo {
+        private Long durationMs;
+        private Integer width;
+        private Integer height;
+        private String codec;
+        private boolean remuxed;
+
+        public Long getDurationMs() { return durationMs; }
+        public Integer getWidth() { return width; }
+        public Integer getHeight() { return height; }
+        public String getCodec() { return codec; }
+        public boolean isRemuxed() { return remuxed; }
+        public void setRemuxed(boolean remuxed) { this.remuxed = remuxed; }
+    }
+
+    public static class Analysis {
+        private final List<Box> boxes;
+        private final Box moov;
+        private final byte[] moovData;
+        private final MediaInfo mediaInfo;
+        private final boolean fragmented;
+
+        Analysis(List<Box> boxes, Box moov, byte[] moovData, MediaInfo mediaInfo, boolean fragmented) {
+            this.boxes = boxes;
+            this.moov = moov;
+            this.moovData = moovData;
+            this.mediaInfo = mediaInfo;
+            this.fragmented = fragmented;
+        }
+
+        public MediaInfo getMediaInfo() { return mediaInfo; }
+
+        /** True when moov comes after media data. Fragmented files stream already and are left alone */
+        public boolean needsFastStart() {
+            Box mdat = firstMdat();
+            return !fragmented && mdat != null && moov.offset > mdat.offset;
+        }
+
+        private Box firstMdat() {
+            for (Box box : boxes) {
+                if (box.type.equals("mdat")) {
+                    return box;
+                }
+            }
+            return null;
+        }
+    }
+
+    private record Box(String type, long offset, long size) {
+        long end() { return offset + size; }
+    }
+
+    //-----------------------------------Parsing-----------------------------------------------------------------------
+    /**
+     * Lists the top-level boxes and parses moov. Returns null when the content is not an MP4 / QuickTime file.
+     */
+    public static Analysis analyze(DecryptedContent content) throws IOException {
+        long length = content.getLength();
+        List<Box> boxes = new ArrayList<>();
+        Box moov = null;
+        boolean fragmented = false;
+
+        long position = 0;
+        while (position < length) {
+            if (length - position < 8) {
+                return null;
+            }
+            byte[] header = read(content, position, Math.min(16, length - position));
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            long size = buffer.getInt() & 0xFFFFFFFFL;
+            String type = fourCc(header, 4);
+            if (type == null) {
+                return null;
+            }
+            if (size == 1) {
+                if (header.length < 16) {
+                    return null;
+                }
+                size = buffer.getLong(8);
+            } else if (size == 0) {
+                size = length - position;
+            }
+            if (size < 8 || size > length - position) {
+                return null;
+            }
+            Box box = new Box(type, position, size);
+            boxes.add(box);
+            if (type.equals("moov")) {
+                moov = box;
+            } else if (type.equals("moof")) {
+                fragmented = true;
+            }
+            position += size;
+        }
+        if (moov == null || moov.size > MAX_MOOV_SIZE) {
+            return null;
+        }
+
+        byte[] moovData = read(content, moov.offset, moov.size);
+        return new Analysis(boxes, moov, moovData, readMediaInfo(moovData), fragmented);
+    }
+
+    private static MediaInfo readMediaInfo(byte[] moov) {
+        MediaInfo info = new MediaInfo();
+        int moovHeader = headerSize(moov, 0);
+        String firstCodec = null;
+
+        for (int[] child : children(moov, moovHeader, moov.length)) {
+            String type = fourCc(moov, child[0] + 4);
+            int body = child[0] + headerSize(moov, child[0]);
+            if ("mvhd".equals(type)) {
+                ByteBuffer buffer = ByteBuffer.wrap(moov, body, child[1] - (body - child[0]));
+                int version = buffer.get() & 0xff;
+                buffer.position(buffer.position() + 3 + (version == 1 ? 16 : 8));
+                long timescale = buffer.getInt() & 0xFFFFFFFFL;
+                long duration = version == 1 ? buffer.getLong() : buffer.getInt() & 0xFFFFFFFFL;
+                if (timescale > 0) {
+                    info.durationMs = duration * 1000 / timescale;
+                }
+            } else if ("trak".equals(type)) {
+                String handler = null;
+                String codec = null;
+                int[] dimensions = null;
+                for (int[] trakChild : children(moov, body, child[0] + child[1])) {
+                    String trakType = fourCc(moov, trakChild[0] + 4);
+                    int trakBody = trakChild[0] + headerSize(moov, trakChild[0]);
+                    if ("tkhd".equals(trakType)) {
+                        dimensions = readDisplaySize(moov, trakBody);
+                    } else if ("mdia".equals(trakType)) {
+                        for (int[] mdiaChild : children(moov, trakBody, trakChild[0] + trakChild[1])) {
+                            String mdiaType = fourCc(moov, mdiaChild[0] + 4);
+                            int mdiaBody = mdiaChild[0] + headerSize(moov, mdiaChild[0]);
+                            if ("hdlr".equals(mdiaType)) {
+                                handler = fourCc(moov, mdiaBody + 8);
+                            } else if ("minf".equals(mdiaType)) {
+                                codec = readCodec(moov, mdiaBody, mdiaChild[0] + mdiaChild[1]);
+                            }
+                        }
+                    }
+                }
+                if (firstCodec == null) {
+                    firstCodec = codec;
+                }
+                if ("vide".equals(handler) && info.codec == null) {
+                    info.codec = codec;
+                    if (dimensions != null) {
+                        info.width = dimensions[0];
+                        info.height = dimensions[1];
+                    }
+                }
+            }
+        }
+        if (info.codec == null) {
+            info.codec = firstCodec;
+        }
+        return info;
+    }
+
+    // Width and height as displayed : a portrait phone video is stored landscape with a 90 degree matrix
+    private static int[] readDisplaySize(byte[] data, int body) {
+        int version = data[body] & 0xff;
+        int matrix = body + (version == 1 ? 52 : 40);
+        int sizeOffset = matrix + 36;
+        if (sizeOffset + 8 > data.length) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int a = buffer.getInt(matrix);
+        int width = buffer.getInt(sizeOffset) >>> 16;
+        int height = buffer.getInt(sizeOffset + 4) >>> 16;
+        if (width == 0 || height == 0) {
+            return null;
+        }
+        return a == 0 ? new int[]{height, width} : new int[]{width, height};
+    }
+
+    private static String readCodec(byte[] data, int start, int end) {
+        for (int[] minfChild : children(data, start, end)) {
+            if (!"stbl".equals(fourCc(data, minfChild[0] + 4))) {
+                continue;
+            }
+            int stblBody = minfChild[0] + headerSize(data, minfChild[0]);
+            for (int[] stblChild : children(data, stblBody, minfChild[0] + minfChild[1])) {
+                if ("stsd".equals(fourCc(data, stblChild[0] + 4))) {
+                    int stsdBody = stblChild[0] + headerSize(data, stblChild[0]);
+                    // version/flags, entry count, then the first sample entry : size and format
+                    int format = stsdBody + 8 + 4;
+                    return format + 4 <= stblChild[0] + stblChild[1] ? fourCc(data, format) : null;
+                }
+            }
+        }
+        return null;
+    }
+
+    //-----------------------------------Remuxing----------------------------------------------------------------------
+    /**
+     * Writes the file with moov moved in front of the first mdat. Only valid when {@link Analysis#needsFastStart}.
+     * The output has the same length as the input.
+     */
+    public static void remux(DecryptedContent content, Analysis analysis, OutputStream out) throws IOException {
+        Box mdat = analysis.firstMdat();
+        byte[] moov = analysis.moovData.clone();
+        // Everything between the first mdat and the old moov position moves down by the size of moov
+        shiftChunkOffsets(moov, headerSize(moov, 0), moov.length, mdat.offset, analysis.moov.offset, analysis.moov.size);
+
+        for (Box box : analysis.boxes) {
+            if (box == analysis.moov) {
+                continue;
+            }
+            if (box == mdat) {
+                out.write(moov);
+            }
+            try (InputStream in = content.openStream(box.offset, box.end())) {
+                in.transferTo(out);
+            }
+        }
+    }
+
+    private static void shiftChunkOffsets(byte[] data, int start, int end, long from, long to, long delta) throws IOException {
+        for (int[] child : children(data, start, end)) {
+            String type = fourCc(data, child[0] + 4);
+            int body = child[0] + headerSize(data, child[0]);
+            if (CONTAINERS.contains(type)) {
+                shiftChunkOffsets(data, body, child[0] + child[1], from, to, delta);
+            } else if ("stco".equals(type) || "co64".equals(type)) {
+                boolean wide = type.equals("co64");
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                long count = buffer.getInt(body + 4) & 0xFFFFFFFFL;
+                int entry = body + 8;
+                if (entry + count * (wide ? 8 : 4) > child[0] + child[1]) {
+                    throw new IOException("Corrupt " + type + " box");
+                }
+                for (long i = 0; i < count; i++, entry += wide ? 8 : 4) {
+                    long offset = wide ? buffer.getLong(entry) : buffer.getInt(entry) & 0xFFFFFFFFL;
+                    if (offset < from || offset >= to) {
+                        continue;
+                    }
+                    offset += delta;
+                    if (wide) {
+                        buffer.putLong(entry, offset);
+                    } else if (offset > 0xFFFFFFFFL) {
+                        // Would need stco rewritten as co64, far beyond our upload limits
+                        throw new IOException("Chunk offset overflows 32 bits");
+                    } else {
+                        buffer.putInt(entry, (int) offset);
+                    }
+                }
+            }
+        }
+    }
+
+    //-----------------------------------Box helpers-------------------------------------------------------------------
+    /** {offset, size} of each box in [start, end), stops at the first malformed one */
+    private static List<int[]> children(byte[] data, int start, int end) {
+        List<int[]> children = new ArrayList<>();
+        int position = start;
+        while (position + 8 <= end) {
+            long size = ByteBuffer.wrap(data).getInt(position) & 0xFFFFFFFFL;
+            if (size == 1 && position + 16 <= end) {
+                size = ByteBuffer.wrap(data).getLong(position + 8);
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < 8 || size > end - position || fourCc(data, position + 4) == null) {
+                break;
+            }
+            children.add(new int[]{position, (int) size});
+            position += (int) size;
+        }
+        return children;
+    }
+
+    private static int headerSize(byte[] data, int offset) {
+        return ByteBuffer.wrap(data).getInt(offset) == 1 ? 16 : 8;
+    }
+
+    // null unless the four bytes are printable ASCII, which is how garbage is told apart from a box type
+    private static String fourCc(byte[] data, int offset) {
+        if (offset + 4 > data.length) {
+            return null;
+        }
+        for (int i = offset; i < offset + 4; i++) {
+            if (data[i] < 0x20 || data[i] > 0x7e) {
+                return null;
+            }
+        }
+        return new String(data, offset, 4, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] read(DecryptedContent content, long offset, long length) throws IOException {
+        try (InputStream in = content.openStream(offset, offset + length)) {
+            return in.readNBytes((int) length);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.na.medical_mobile_app.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal multipart/form-data reader working directly on the request body.
+ * Parts are handed out one at a time and their content is never buffered or spooled to disk,
+ * so a file part can be piped straight into the cipher stream as it arrives.
+ * A part's stream is only valid until {@link #nextPart()} is called again.
+ */
+public class MultipartStreamParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+    private static final Pattern DISPOSITION_PARAM =
+            Pattern.compile("\\b(name|filename)=(?:\"((?:[^\"\\\\]|\\\\.)*)\"|([^;\\s]*))", Pattern.CASE_INSENSITIVE);
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private boolean finished;
+    private PartInputStream current;
+
+    public MultipartStreamParser(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 4)];
+        // The first boundary is not preceded by CRLF, pretend it is so every delimiter looks the same
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        tail = 2;
+    }
+
+    public static String extractBoundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            throw new IllegalArgumentException("Expected a multipart request");
+        }
+        for (String param : contentType.split(";")) {
+            String trimmed = param.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String boundary = trimmed.substring("boundary=".length()).trim();
+                if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+                    boundary = boundary.substring(1, boundary.length() - 1);
+                }
+                if (!boundary.isEmpty()) {
+                    return boundary;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Multipart boundary is missing");
+    }
+
+    /**
+     * Skips whatever is left of the current part and returns the next one, or null after the closing boundary.
+     */
+    public Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        // Before the first part this skips the preamble
+        (current != null ? current : new PartInputStream()).drain();
+
+        require(delimiter.length + 2);
+        head += delimiter.length;
+        if (buffer[head] == '-' && buffer[head + 1] == '-') {
+            finished = true;
+            current = null;
+            return null;
+        }
+        String line = readLine();
+        if (!line.isBlank()) {
+            throw new IOException("Malformed multipart body: unexpected data after boundary");
+        }
+
+        Map<String, String> headers = readHeaders();
+        current = new PartInputStream();
+        return new Part(headers, current);
+    }
+
+    //-----------------------------------Headers---------------------------------------------------------------------------
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        int total = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            total += line.length();
+            if (total > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart part headers are too large");
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = head; i < tail - 1; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    String line = new String(buffer, head, i - head, StandardCharsets.UTF_8);
+                    head = i + 2;
+                    return line;
+                }
+            }
+            if (tail - head > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart part headers are too large");
+            }
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+        }
+    }
+
+    //-----------------------------------Buffer handling-------------------------------------------------------------------
+    private boolean fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        if (tail == buffer.length) {
+            return true;
+        }
+        int read = in.read(buffer, tail, buffer.length - tail);
+        if (read == -1) {
+            return false;
+        }
+        tail += read;
+        return true;
+    }
+
+    private void require(int bytes) throws IOException {
+        while (tail - head < bytes) {
+            if (!fill()) {
+                throw new IOException("Unexpected end of multipart body");
+            }
+        }
+    }
+
+    private int indexOfDelimiter(int from, int to) {
+        outer:
+        for (int i = from; i <= to - delimiter.length; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    //-----------------------------------Part content----------------------------------------------------------------------
+    private class PartInputStream extends InputStream {
+
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done || current != this && current != null) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                // Only look as far as needed to hand out len bytes
+                int end = Math.min(tail, head + len + delimiter.length - 1);
+                int found = indexOfDelimiter(head, end);
+                int safe = found >= 0 ? found - head : end - head - (delimiter.length - 1);
+                if (found == head) {
+                    done = true;
+                    return -1;
+                }
+                if (safe > 0) {
+                    int count = Math.min(safe, len);
+                    System.arraycopy(buffer, head, b, off, count);
+                    head += count;
+                    return count;
+                }
+                if (!fill()) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+            }
+        }
+
+        void drain() throws IOException {
+            byte[] skip = new byte[BUFFER_SIZE];
+            while (read(skip, 0, skip.length) != -1) {
+                // discard
+            }
+        }
+    }
+
+    //-----------------------------------Part-------------------------------------------------------------------------------
+    public static class Part {
+
+        private final Map<String, String> headers;
+        private final InputStream inputStream;
+        private String name;
+        private String fileName;
+
+        Part(Map<String, String> headers, InputStream inputStream) {
+            this.headers = headers;
+            this.inputStream = inputStream;
+            String disposition = headers.get("content-disposition");
+            if (disposition != null) {
+                Matcher matcher = DISPOSITION_PARAM.matcher(disposition);
+                while (matcher.find()) {
+                    String value = matcher.group(2) != null ? matcher.group(2).replaceAll("\\\\(.)", "$1") : matcher.group(3);
+                    if ("name".equalsIgnoreCase(matcher.group(1))) {
+                        name = value;
+                    } else {
+                        fileName = value;
+                    }
+                }
+            }
+        }
+
+        public String getName() { return name; }
+        public String getFileName() { return fileName; }
+        public String getContentType() { return headers.get("content-type"); }
+        public boolean isFile() { return fileName != null; }
+        public InputStream getInputStream() { return inputStream; }
+
+        /**
+         * Reads a small text field, refusing anything larger than maxBytes.
+         */
+        public String readString(int maxBytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                if (out.size() + read > maxBytes) {
+                    throw new IllegalArgumentException("Field '" + name + "' exceeds " + maxBytes + " bytes");
+                }
+                out.write(chunk, 0, read);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
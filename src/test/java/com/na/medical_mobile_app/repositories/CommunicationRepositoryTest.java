@@ -0,0 +1,147 @@
+package com.na.medical_mobile_app.repositories;
+
+import com.na.medical_mobile_app.DTOs.ChatMessageDTO;
+import com.na.medical_mobile_app.entities.*;
+import com.na.medical_mobile_app.services.MedicalFormService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The chat history is read through ChatMessageDTO projections : one statement per read whatever the
+ * length of the conversation, no entity loaded and so none of the eager User / MedicalForm graph.
+ */
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+class CommunicationRepositoryTest {
+
+    private static final int MESSAGES = 30;
+
+    // Wired into MedicalMobileAppApplication, not part of the JPA slice
+    @MockitoBean
+    private MedicalFormService medicalFormService;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private CommunicationRepository communicationRepository;
+
+    private Statistics statistics;
+    private Integer formId;
+    private Communication middle;
+
+    @BeforeEach
+    void createConversation() {
+        User doctor = user("Dr Doctor", "doctor@test.tn", Role.MEDECIN);
+        User neurologist = user("Dr Neuro", "neuro@test.tn", Role.NEUROLOGUE);
+
+        Patient patient = new Patient();
+        patient.setName("Patient");
+        patient.setReferringDoctor(doctor);
+        entityManager.persist(patient);
+
+        MedicalForm form = new MedicalForm();
+        form.setPatient(patient);
+        form.setDoctor(doctor);
+        form.setAssignedTo(neurologist);
+        form.setStatus(FormStatus.SUBMITTED);
+        form.setCreatedAt(LocalDateTime.now());
+        entityManager.persist(form);
+        formId = form.getFormId();
+
+        // Distinct senders, receivers and reply-to targets on every other message : an entity read would
+        // load all of them, one select per row
+        LocalDateTime start = LocalDateTime.now().minusHours(1);
+        Communication previous = null;
+        for (int i = 0; i < MESSAGES; i++) {
+            Communication message = new Communication();
+            message.setForm(form);
+            message.setSender(i % 2 == 0 ? doctor : neurologist);
+            message.setReceiver(i % 2 == 0 ? neurologist : doctor);
+            message.setContent("Message " + i);
+            message.setMessageType(MessageType.TEXT);
+            message.setIsRead(false);
+            message.setCreatedAt(start.plusMinutes(i));
+            message.setReplyTo(i % 2 == 1 ? previous : null);
+            entityManager.persist(message);
+            previous = message;
+            if (i == MESSAGES / 2) {
+                middle = message;
+            }
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    private User user(String name, String email, Role role) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(email);
+        user.setRole(role);
+        user.setIsActive(true);
+        entityManager.persist(user);
+        return user;
+    }
+
+    @Test
+    void fullHistoryIsOneStatement() {
+        List<ChatMessageDTO> messages = communicationRepository.findMessagesByForm(formId);
+
+        assertEquals(MESSAGES, messages.size());
+        assertEquals("Dr Doctor", messages.get(0).getSenderName());
+        assertEquals("Dr Neuro", messages.get(0).getReceiverName());
+        assertEquals(messages.get(0).getMessageId(), messages.get(1).getReplyToId());
+        assertSingleStatementWithoutEntities();
+    }
+
+    @Test
+    void latestPageIsOneStatement() {
+        List<ChatMessageDTO> messages = communicationRepository.findLatestMessagesByForm(formId, PageRequest.of(0, 10));
+
+        assertEquals(10, messages.size());
+        assertEquals("Message " + (MESSAGES - 1), messages.get(0).getMessage());
+        assertSingleStatementWithoutEntities();
+    }
+
+    @Test
+    void keysetPagesAreOneStatementEach() {
+        List<ChatMessageDTO> before = communicationRepository.findMessagesByFormBefore(
+                formId, middle.getCreatedAt(), middle.getCommunicationId(), PageRequest.of(0, 10));
+        assertEquals(10, before.size());
+        assertSingleStatementWithoutEntities();
+
+        statistics.clear();
+        List<ChatMessageDTO> after = communicationRepository.findMessagesByFormAfter(
+                formId, middle.getCreatedAt(), middle.getCommunicationId(), PageRequest.of(0, 10));
+        assertEquals(10, after.size());
+        assertSingleStatementWithoutEntities();
+    }
+
+    private void assertSingleStatementWithoutEntities() {
+        assertEquals(1, statistics.getPrepareStatementCount(), "statements");
+        assertEquals(0, statistics.getEntityLoadCount(), "entities loaded");
+        assertEquals(0, statistics.getEntityFetchCount(), "lazy entity fetches");
+        assertEquals(0, statistics.getCollectionFetchCount(), "lazy collection fetches");
+    }
+}
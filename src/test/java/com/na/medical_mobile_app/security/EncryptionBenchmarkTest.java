@@ -0,0 +1,104 @@
+package com.na.medical_mobile_app.security;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Attachment encryption throughput (MB/s, and MB/s per core) with 1..N threads, each output checked to decrypt
+ * back to the input. Small by default so it runs with the other tests; for real figures :
+ *
+ *   mvn test -Dtest=EncryptionBenchmarkTest -Dbenchmark.size-mb=50 -Dbenchmark.rounds=5
+ */
+class EncryptionBenchmarkTest {
+
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reportsThroughputPerCore() throws Exception {
+        int sizeMb = Integer.getInteger("benchmark.size-mb", 4);
+        int rounds = Integer.getInteger("benchmark.rounds", 2);
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        SecretKey key = generator.generateKey();
+
+        byte[] data = new byte[sizeMb * 1024 * 1024];
+        new Random(42).nextBytes(data);
+        Path target = tempDir.resolve("benchmark.enc");
+
+        System.out.println("Encrypting " + sizeMb + "MB, " + rounds + " rounds, " + cores + " cores available");
+        // Warm up the JIT and AES intrinsics
+        run(target, key, data, null, 1);
+        assertDecryptsTo(target, key, data);
+
+        for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+            ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+            try {
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < rounds; round++) {
+                    best = Math.min(best, run(target, key, data, pool, threads * 2));
+                }
+                assertDecryptsTo(target, key, data);
+                double mbPerSecond = sizeMb / (best / 1_000_000_000.0);
+                System.out.printf("%2d thread(s) : %8.1f MB/s  %8.1f MB/s per core%n",
+                        threads, mbPerSecond, mbPerSecond / threads);
+            } finally {
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
+            if (threads == cores) {
+                break;
+            }
+        }
+    }
+
+    private static long run(Path target, SecretKey key, byte[] data, ForkJoinPool pool, int batchSize) throws Exception {
+        long start = System.nanoTime();
+        try (OutputStream out = pool != null
+                ? EncryptedFileFormat.newEncryptingStream(target, CryptoUtils.DEFAULT_KEY_ID, key, pool, batchSize)
+                : EncryptedFileFormat.newEncryptingStream(target, CryptoUtils.DEFAULT_KEY_ID, key)) {
+            // Same write size as AttachmentService
+            for (int offset = 0; offset < data.length; offset += WRITE_SIZE) {
+                out.write(data, offset, Math.min(WRITE_SIZE, data.length - offset));
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Chunks written out of order by the pool must still come back in order and authenticated
+    private static void assertDecryptsTo(Path file, SecretKey key, byte[] expected) throws Exception {
+        try (FileChannel channel = FileChannel.open(file)) {
+            EncryptedFileFormat.Header header = EncryptedFileFormat.readHeader(channel);
+            assertNotNull(header);
+            assertEquals(expected.length, header.getPlaintextLength());
+            assertEquals(header.encryptedLength(), channel.size());
+
+            Cipher cipher = EncryptedFileFormat.newCipher();
+            for (long index = 0; index < header.chunkCount(); index++) {
+                byte[] sealed = new byte[header.plaintextChunkLength(index) + EncryptedFileFormat.TAG_LENGTH];
+                EncryptedFileFormat.readFully(channel, ByteBuffer.wrap(sealed), header.chunkOffset(index));
+                byte[] plain = EncryptedFileFormat.decryptChunk(cipher, key, header, index, sealed, 0, sealed.length);
+                int from = (int) (index * header.getChunkSize());
+                assertArrayEquals(Arrays.copyOfRange(expected, from, from + plain.length), plain, "chunk " + index);
+            }
+        }
+    }
+}
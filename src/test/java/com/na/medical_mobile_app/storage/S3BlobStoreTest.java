@@ -0,0 +1,315 @@
+package com.na.medical_mobile_app.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * S3BlobStore against an in-process stand-in of an S3-compatible server : path-style objects, ranged GETs,
+ * conditional PUTs, and every request's SigV4 signature recomputed from the secret key and checked.
+ */
+class S3BlobStoreTest {
+
+    private static final String REGION = "us-east-1";
+    private static final String BUCKET = "attachments";
+    private static final String ACCESS_KEY = "test-access";
+    private static final String SECRET_KEY = "test-secret";
+    private static final Pattern AUTHORIZATION = Pattern.compile(
+            "AWS4-HMAC-SHA256 Credential=([^/]+)/(\\d{8})/([^/]+)/s3/aws4_request, SignedHeaders=([^,]+), Signature=([0-9a-f]{64})");
+
+    private HttpServer server;
+    private String endpoint;
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    // "METHOD path range" of every request that passed the signature check
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private S3BlobStore store(String secretKey) {
+        return new S3BlobStore(endpoint, REGION, BUCKET, "tenant", ACCESS_KEY, secretKey, true);
+    }
+
+    //-----------------------------------Tests-------------------------------------------------------------------------
+    @Test
+    void putGetExistsDelete() throws IOException {
+        S3BlobStore store = store(SECRET_KEY);
+        byte[] content = "encrypted bytes".getBytes(StandardCharsets.UTF_8);
+
+        store.put("ab/cd.enc", new ByteArrayInputStream(content), content.length);
+        assertArrayEquals(content, objects.get("/" + BUCKET + "/tenant/ab/cd.enc"));
+        assertTrue(store.exists("ab/cd.enc"));
+        assertEquals(content.length, store.size("ab/cd.enc"));
+        try (InputStream in = store.get("ab/cd.enc")) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        // Unknown length is spooled before the upload
+        store.put("spooled.enc", new ByteArrayInputStream(content), -1);
+        assertArrayEquals(content, objects.get("/" + BUCKET + "/tenant/spooled.enc"));
+
+        assertTrue(store.delete("ab/cd.enc"));
+        assertFalse(store.exists("ab/cd.enc"));
+        assertThrows(NoSuchFileException.class, () -> store.get("ab/cd.enc"));
+    }
+
+    @Test
+    void keysAreEncodedAndSigned() throws IOException {
+        S3BlobStore store = store(SECRET_KEY);
+        byte[] content = {1, 2, 3};
+
+        store.put("voice note (1).m4a", new ByteArrayInputStream(content), content.length);
+        assertTrue(objects.containsKey("/" + BUCKET + "/tenant/voice%20note%20%281%29.m4a"));
+        try (InputStream in = store.get("voice note (1).m4a")) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void getRangeReturnsTheRequestedBytes() throws IOException {
+        S3BlobStore store = store(SECRET_KEY);
+        byte[] content = randomBytes(10_000);
+        objects.put("/" + BUCKET + "/tenant/video.enc", content);
+
+        try (InputStream in = store.getRange("video.enc", 1000, 1500)) {
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 1500), in.readAllBytes());
+        }
+        assertTrue(requests.contains("GET /" + BUCKET + "/tenant/video.enc bytes=1000-1499"));
+        try (InputStream in = store.getRange("video.enc", 42, 42)) {
+            assertEquals(0, in.readAllBytes().length);
+        }
+    }
+
+    @Test
+    void channelReadsAheadAndSeeks() throws IOException {
+        S3BlobStore store = store(SECRET_KEY);
+        int megabyte = 1024 * 1024;
+        byte[] content = randomBytes(2 * megabyte + 123);
+        objects.put("/" + BUCKET + "/tenant/video.enc", content);
+
+        try (SeekableByteChannel channel = store.openChannel("video.enc")) {
+            assertEquals(content.length, channel.size());
+
+            // 64KB reads within the first megabyte are served by one ranged GET
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (int i = 0; i < 16; i++) {
+                buffer.clear();
+                assertEquals(buffer.capacity(), channel.read(buffer));
+                assertArrayEquals(Arrays.copyOfRange(content, i * buffer.capacity(), (i + 1) * buffer.capacity()), buffer.array());
+            }
+            assertEquals(1, countRanges());
+
+            // A seek past the window fetches the next one, clipped to the end of the object
+            channel.position(2L * megabyte + 100);
+            buffer.clear();
+            assertEquals(23, channel.read(buffer));
+            assertArrayEquals(Arrays.copyOfRange(content, 2 * megabyte + 100, content.length),
+                    Arrays.copyOf(buffer.array(), 23));
+            assertTrue(requests.contains("GET /" + BUCKET + "/tenant/video.enc bytes=" + (2 * megabyte + 100) + "-" + (content.length - 1)));
+            assertEquals(2, countRanges());
+
+            buffer.clear();
+            assertEquals(-1, channel.read(buffer));
+        }
+    }
+
+    @Test
+    void putFileIfAbsentNeverReplaces(@TempDir Path files) throws IOException {
+        S3BlobStore store = store(SECRET_KEY);
+        Path first = Files.writeString(files.resolve("first.tmp"), "first");
+        Path second = Files.writeString(files.resolve("second.tmp"), "second");
+
+        assertTrue(store.putFileIfAbsent("blob.enc", first));
+        assertFalse(Files.exists(first));
+
+        assertFalse(store.putFileIfAbsent("blob.enc", second));
+        assertTrue(Files.exists(second), "the source stays when the key is taken");
+        assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), objects.get("/" + BUCKET + "/tenant/blob.enc"));
+    }
+
+    @Test
+    void putFileReplacesAndRemovesTheSource() throws IOException {
+        S3BlobStore store = store(SECRET_KEY);
+        objects.put("/" + BUCKET + "/tenant/report.pdf", new byte[]{9});
+        Path source = Files.write(tempDir.resolve("report.tmp"), new byte[]{1, 2});
+
+        store.putFile("report.pdf", source);
+        assertArrayEquals(new byte[]{1, 2}, objects.get("/" + BUCKET + "/tenant/report.pdf"));
+        assertFalse(Files.exists(source));
+    }
+
+    @Test
+    void badSignatureIsRejected() {
+        S3BlobStore store = store("wrong-secret");
+        IOException error = assertThrows(IOException.class,
+                () -> store.put("x.enc", new ByteArrayInputStream(new byte[]{1}), 1));
+        assertTrue(error.getMessage().contains("403"), error.getMessage());
+        assertTrue(objects.isEmpty());
+    }
+
+    private long countRanges() {
+        return requests.stream().filter(request -> request.startsWith("GET ") && request.contains(" bytes=")).count();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    //-----------------------------------Stand-in server---------------------------------------------------------------
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getRawPath();
+            byte[] body = exchange.getRequestBody().readAllBytes();
+
+            if (!signatureMatches(exchange, method, path)) {
+                respond(exchange, 403, "<Error><Code>SignatureDoesNotMatch</Code></Error>".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            requests.add(method + " " + path + (range != null ? " " + range : ""));
+
+            byte[] object = objects.get(path);
+            switch (method) {
+                case "PUT" -> {
+                    if ("*".equals(exchange.getRequestHeaders().getFirst("If-None-Match")) && object != null) {
+                        respond(exchange, 412, "<Error><Code>PreconditionFailed</Code></Error>".getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    objects.put(path, body);
+                    respond(exchange, 200, new byte[0]);
+                }
+                case "GET" -> {
+                    if (object == null) {
+                        respond(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>".getBytes(StandardCharsets.UTF_8));
+                    } else if (range != null) {
+                        Matcher matcher = Pattern.compile("bytes=(\\d+)-(\\d+)").matcher(range);
+                        assertTrue(matcher.matches(), range);
+                        int start = Integer.parseInt(matcher.group(1));
+                        int end = Math.min(object.length - 1, Integer.parseInt(matcher.group(2)));
+                        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + object.length);
+                        respond(exchange, 206, Arrays.copyOfRange(object, start, end + 1));
+                    } else {
+                        respond(exchange, 200, object);
+                    }
+                }
+                case "HEAD" -> {
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else {
+                        exchange.getResponseHeaders().set("Content-Length", String.valueOf(object.length));
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                }
+                case "DELETE" -> {
+                    // Like S3 : 204 whether or not the object existed
+                    objects.remove(path);
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> respond(exchange, 405, new byte[0]);
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    // Recomputes the AWS Signature V4 of the request the way S3 does, from the headers listed as signed
+    private boolean signatureMatches(HttpExchange exchange, String method, String path) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String amzDate = exchange.getRequestHeaders().getFirst("x-amz-date");
+        String payloadHash = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if (authorization == null || amzDate == null || payloadHash == null) {
+            return false;
+        }
+        Matcher matcher = AUTHORIZATION.matcher(authorization);
+        if (!matcher.matches() || !ACCESS_KEY.equals(matcher.group(1)) || !amzDate.startsWith(matcher.group(2))
+                || !REGION.equals(matcher.group(3))) {
+            return false;
+        }
+        String day = matcher.group(2);
+        String signedHeaders = matcher.group(4);
+        List<String> headerNames = List.of(signedHeaders.split(";"));
+        if (!headerNames.containsAll(List.of("host", "x-amz-content-sha256", "x-amz-date"))) {
+            return false;
+        }
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        for (String name : headerNames) {
+            String value = exchange.getRequestHeaders().getFirst(name);
+            if (value == null) {
+                return false;
+            }
+            canonicalHeaders.append(name).append(':').append(value.trim()).append('\n');
+        }
+        String query = exchange.getRequestURI().getRawQuery();
+        String canonicalRequest = method + "\n" + path + "\n" + (query == null ? "" : query) + "\n"
+                + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
+        try {
+            String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + day + "/" + REGION + "/s3/aws4_request\n"
+                    + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                            .digest(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+            byte[] signingKey = hmac(hmac(hmac(hmac(("AWS4" + SECRET_KEY).getBytes(StandardCharsets.UTF_8), day),
+                    REGION), "s3"), "aws4_request");
+            return HexFormat.of().formatHex(hmac(signingKey, stringToSign)).equals(matcher.group(5));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
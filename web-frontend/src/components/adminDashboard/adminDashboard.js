@@ -13,11 +13,12 @@ import {
     rejectRequest,
 } from '../../services/adminService';
 import { useLogout } from '../../hooks/useLogout';
-import { fetchMedicalFormsForAdmin, downloadPdf } from '../../services/pdfService';
+import { fetchMedicalFormsForAdmin, downloadPdf, fetchPdfQueueStats } from '../../services/pdfService';
 
 export default function AdminDashboard({ navigation }) {
     const [pendingRequests, setPendingRequests] = useState([]);
     const [medicalForms, setMedicalForms] = useState([]);
+    const [pdfQueue, setPdfQueue] = useState(null);
     const [activeTab, setActiveTab] = useState('requests'); // 'requests' or 'forms'
     const [loading, setLoading] = useState(true);
     const [formsLoading, setFormsLoading] = useState(false);
@@ -56,8 +57,12 @@ export default function AdminDashboard({ navigation }) {
     const loadMedicalForms = async () => {
         try {
             setFormsLoading(true);
-            const data = await fetchMedicalFormsForAdmin();
+            const [data, queue] = await Promise.all([
+                fetchMedicalFormsForAdmin(),
+                fetchPdfQueueStats().catch(() => null),
+            ]);
             setMedicalForms(data);
+            setPdfQueue(queue);
         } catch (error) {
             Alert.alert('Erreur', error.message || 'Impossible de récupérer les formulaires');
         } finally {
@@ -94,7 +99,7 @@ export default function AdminDashboard({ navigation }) {
             await downloadPdf(formId, fileName);
             Alert.alert('Succès', 'PDF téléchargé avec succès');
         } catch (error) {
-            Alert.alert('Erreur', 'Erreur lors du téléchargement du PDF');
+            Alert.alert('Erreur', error.message || 'Erreur lors du téléchargement du PDF');
         }
     };
 
@@ -170,7 +175,7 @@ export default function AdminDashboard({ navigation }) {
                 <View style={styles.infoRow}>
                     <Ionicons name="document-outline" size={16} color="#7F8C8D" />
                     <Text style={styles.infoText}>
-                        PDF: {item.pdfGenerated ? 'Généré' : 'Non généré'}
+                        PDF: {item.pdfGenerated ? 'Généré' : 'En cours de génération'}
                     </Text>
                 </View>
             </View>
@@ -250,6 +255,11 @@ export default function AdminDashboard({ navigation }) {
             ) : (
                 <>
                     <Text style={styles.subtitle}>Formulaires médicaux</Text>
+                    {pdfQueue && (
+                        <Text style={styles.infoText}>
+                            File PDF: {pdfQueue.depth} en attente ({pdfQueue.running} en cours, {pdfQueue.failed} en échec)
+                        </Text>
+                    )}
                     {formsLoading ? (
                         <ActivityIndicator size="large" color="#0000ff" />
                     ) : medicalForms.length === 0 ? (
@@ -53,6 +53,11 @@ export const downloadPdf = async (formId, fileName) => {
             throw new Error('Erreur lors du téléchargement du PDF: ' + response.status);
         }
 
+        // 202: the PDF is still in the rendering queue
+        if (response.status === 202) {
+            throw new Error('Le PDF est en cours de génération, veuillez réessayer dans quelques instants');
+        }
+
         // For React Native, use a different approach for file download
         const blob = await response.blob();
         
@@ -74,6 +79,25 @@ export const downloadPdf = async (formId, fileName) => {
     }
 };
 
+export const fetchPdfQueueStats = async () => {
+    try {
+        const headers = await getAuthHeaders();
+        const response = await fetch(`${API_BASE_URL}/api/pdf/admin/queue`, {
+            method: 'GET',
+            headers,
+        });
+
+        if (!response.ok) {
+            throw new Error('Erreur lors de la récupération de la file PDF: ' + response.status);
+        }
+
+        return await response.json();
+    } catch (error) {
+        console.error('❌ Error fetching PDF queue stats:', error);
+        throw error;
+    }
+};
+
 export const regeneratePdf = async (formId) => {
     try {
         console.log(`🔄 Regenerating PDF for form ${formId}`);